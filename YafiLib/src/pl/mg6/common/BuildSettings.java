@@ -0,0 +1,23 @@
+package pl.mg6.common;
+
+// compile time switches, kept apart from Settings so the Android-free code can read them
+public final class BuildSettings {
+	
+	private BuildSettings() {
+	}
+	
+	public static final boolean LOG_LIFECYCLE = false;
+	public static final boolean LOG_SERVER_COMMUNICATION = false;
+	public static final boolean LOG_MOVE_LATENCY = false;
+	public static final boolean LOG_ADS = false;
+	// writes inbound frames to files/session-<time>.cap for replay with CaptureReplay
+	public static final boolean CAPTURE_SESSION = false;
+	// initial state of PipelineTrace; it can also be switched on from the pipeline stats screen
+	public static final boolean TRACE_PIPELINE = false;
+	public static final boolean DEBUG_SCREENS = false;
+	
+	public static final int SOURCE_ANDROID_MARKET = 1;
+	public static final int SOURCE_YAFI_PL = 2;
+	public static final int SOURCE_YAFI_ANDROID_ISSUES = 3;
+	public static final int SOURCE_ID = SOURCE_ANDROID_MARKET;
+}
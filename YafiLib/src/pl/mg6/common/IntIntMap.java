@@ -0,0 +1,104 @@
+package pl.mg6.common;
+
+import java.util.Arrays;
+
+public final class IntIntMap {
+
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+
+	public IntIntMap(int capacity) {
+		int length = 16;
+		while (length < capacity * 2) {
+			length <<= 1;
+		}
+		keys = new int[length];
+		values = new int[length];
+		Arrays.fill(keys, FREE);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int get(int key, int defaultValue) {
+		int index = find(key);
+		return keys[index] == FREE ? defaultValue : values[index];
+	}
+
+	public void put(int key, int value) {
+		if (key == FREE) {
+			throw new IllegalArgumentException("key " + key);
+		}
+		int index = find(key);
+		if (keys[index] == FREE) {
+			if (2 * (size + 1) > keys.length) {
+				grow();
+				index = find(key);
+			}
+			keys[index] = key;
+			size++;
+		}
+		values[index] = value;
+	}
+
+	public int remove(int key, int defaultValue) {
+		int index = find(key);
+		if (keys[index] == FREE) {
+			return defaultValue;
+		}
+		int value = values[index];
+		// backward shift keeps probe sequences intact without tombstones
+		int mask = keys.length - 1;
+		int next = (index + 1) & mask;
+		while (keys[next] != FREE) {
+			int home = hash(keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - index) & mask)) {
+				keys[index] = keys[next];
+				values[index] = values[next];
+				index = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[index] = FREE;
+		size--;
+		return value;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		size = 0;
+	}
+
+	private int find(int key) {
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while (keys[index] != FREE && keys[index] != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[2 * oldKeys.length];
+		values = new int[2 * oldKeys.length];
+		Arrays.fill(keys, FREE);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				int index = find(oldKeys[i]);
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
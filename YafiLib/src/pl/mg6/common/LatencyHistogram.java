@@ -0,0 +1,86 @@
+package pl.mg6.common;
+
+// Log-linear histogram in the spirit of HdrHistogram: values below 2 * SUB_BUCKETS are exact,
+// above that every power of two is split into SUB_BUCKETS buckets, so any reported value
+// is within about 3% of what was recorded. Not thread safe.
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_VALUE_BITS = 32;
+	private static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final int[] counts = new int[BUCKETS];
+	private long count;
+	private long total;
+	private long max;
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[getIndex(value)]++;
+		count++;
+		total += value;
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public long getMean() {
+		return count > 0 ? total / count : 0;
+	}
+
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(getHighestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = 0;
+		}
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+
+	private static int getIndex(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		if (shift >= MAX_VALUE_BITS - SUB_BUCKET_BITS) {
+			// 2^MAX_VALUE_BITS and above all land in the last bucket
+			return BUCKETS - 1;
+		}
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	private static long getHighestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
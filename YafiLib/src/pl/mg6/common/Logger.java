@@ -0,0 +1,60 @@
+package pl.mg6.common;
+
+// Logging for code that also runs outside Android; the app routes it to logcat with LogcatSink.
+public final class Logger {
+
+	// same values as android.util.Log
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	private static volatile Sink sink = new StandardErrorSink();
+
+	private Logger() {
+	}
+
+	public static void setSink(Sink s) {
+		sink = s != null ? s : new StandardErrorSink();
+	}
+
+	public static void d(String tag, String msg) {
+		sink.log(DEBUG, tag, msg, null);
+	}
+
+	public static void i(String tag, String msg) {
+		sink.log(INFO, tag, msg, null);
+	}
+
+	public static void w(String tag, String msg) {
+		sink.log(WARN, tag, msg, null);
+	}
+
+	public static void e(String tag, String msg) {
+		sink.log(ERROR, tag, msg, null);
+	}
+
+	public static void e(String tag, String msg, Throwable tr) {
+		sink.log(ERROR, tag, msg, tr);
+	}
+
+	public interface Sink {
+
+		void log(int level, String tag, String msg, Throwable tr);
+	}
+
+	private static final class StandardErrorSink implements Sink {
+
+		private static final String LEVELS = "??VDIWEA";
+
+		@Override
+		public void log(int level, String tag, String msg, Throwable tr) {
+			synchronized (System.err) {
+				System.err.println(LEVELS.charAt(level) + "/" + tag + ": " + msg);
+				if (tr != null) {
+					tr.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -18,15 +18,6 @@ public final class Settings {
 	private Settings() {
 	}
 	
-	public static final boolean LOG_LIFECYCLE = false;
-	public static final boolean LOG_SERVER_COMMUNICATION = false;
-	public static final boolean LOG_ADS = false;
-	
-	public static final int SOURCE_ANDROID_MARKET = 1;
-	public static final int SOURCE_YAFI_PL = 2;
-	public static final int SOURCE_YAFI_ANDROID_ISSUES = 3;
-	public static final int SOURCE_ID = SOURCE_ANDROID_MARKET;
-	
 	public static final String PREF_CONFIRM_DISCONNECT = "user_pref.confirm_disconnect";
 	private static final boolean CONFIRM_DISCONNECT_DEFAULT_VALUE = true;
 	private static final String PREF_USERNAME = "user_pref.username";
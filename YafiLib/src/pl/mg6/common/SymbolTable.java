@@ -0,0 +1,63 @@
+package pl.mg6.common;
+
+import java.util.Arrays;
+
+public final class SymbolTable {
+
+	private final String[] symbols;
+	private final int maxCount;
+	private int count;
+
+	public SymbolTable(int capacity) {
+		int size = 16;
+		while (size < capacity * 2) {
+			size <<= 1;
+		}
+		symbols = new String[size];
+		maxCount = size / 2;
+	}
+
+	public synchronized String get(CharSequence s, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + s.charAt(i);
+		}
+		int mask = symbols.length - 1;
+		int index = (hash ^ (hash >>> 16)) & mask;
+		String symbol = symbols[index];
+		while (symbol != null) {
+			if (symbol.hashCode() == hash && contentEquals(symbol, s, start, end)) {
+				return symbol;
+			}
+			index = (index + 1) & mask;
+			symbol = symbols[index];
+		}
+		if (count == maxCount) {
+			// names and moves come and go with games, so start over rather than grow
+			Arrays.fill(symbols, null);
+			count = 0;
+			index = (hash ^ (hash >>> 16)) & mask;
+		}
+		symbol = s.subSequence(start, end).toString();
+		symbols[index] = symbol;
+		count++;
+		return symbol;
+	}
+
+	public synchronized int size() {
+		return count;
+	}
+
+	private static boolean contentEquals(String symbol, CharSequence s, int start, int end) {
+		int length = end - start;
+		if (symbol.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (symbol.charAt(i) != s.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -3,7 +3,7 @@ package pl.mg6.common.android;
 import java.util.ArrayList;
 import java.util.List;
 
-import pl.mg6.common.Settings;
+import pl.mg6.common.BuildSettings;
 import pl.mg6.common.android.tracker.TrackedActivity;
 import android.content.Intent;
 import android.os.Bundle;
@@ -16,7 +16,7 @@ public class BaseActivity extends TrackedActivity {
 	private static List<String> aliveActivities = new ArrayList<String>();
 	
 	public BaseActivity() {
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			aliveActivities.add(getClass().getSimpleName() + hashCode());
 			Log.d(TAG, this + " constructor; count=" + aliveActivities.size());
 		}
@@ -25,7 +25,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void finalize() throws Throwable {
 		super.finalize();
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			aliveActivities.remove(getClass().getSimpleName() + hashCode());
 			Log.d(TAG, this + " finalize; count=" + aliveActivities.size());
 		}
@@ -34,7 +34,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onCreate " + savedInstanceState);
 		}
 	}
@@ -42,7 +42,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onRestart() {
 		super.onRestart();
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onRestart");
 		}
 	}
@@ -50,7 +50,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onStart() {
 		super.onStart();
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onStart");
 		}
 	}
@@ -58,7 +58,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onResume() {
 		super.onResume();
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onResume");
 		}
 	}
@@ -66,7 +66,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onPause() {
 		super.onPause();
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onPause");
 		}
 	}
@@ -74,7 +74,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onStop() {
 		super.onStop();
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onStop");
 		}
 	}
@@ -82,7 +82,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onDestroy");
 		}
 	}
@@ -90,7 +90,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onSaveInstanceState " + outState);
 		}
 	}
@@ -98,7 +98,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onRestoreInstanceState(Bundle savedInstanceState) {
 		super.onRestoreInstanceState(savedInstanceState);
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onRestoreInstanceState " + savedInstanceState);
 		}
 	}
@@ -106,7 +106,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	public Object onRetainNonConfigurationInstance() {
 		Object o = super.onRetainNonConfigurationInstance();
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onRetainNonConfigurationInstance");
 		}
 		return o;
@@ -115,7 +115,7 @@ public class BaseActivity extends TrackedActivity {
 	@Override
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
 		super.onActivityResult(requestCode, resultCode, data);
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onActivityResult " + requestCode + " " + resultCode + " " + data);
 		}
 	}
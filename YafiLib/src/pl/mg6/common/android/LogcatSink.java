@@ -0,0 +1,15 @@
+package pl.mg6.common.android;
+
+import pl.mg6.common.Logger;
+import android.util.Log;
+
+public final class LogcatSink implements Logger.Sink {
+
+	@Override
+	public void log(int level, String tag, String msg, Throwable tr) {
+		if (tr != null) {
+			msg = msg + '\n' + Log.getStackTraceString(tr);
+		}
+		Log.println(level, tag, msg);
+	}
+}
@@ -1,6 +1,6 @@
 package pl.mg6.common.android.ads;
 
-import pl.mg6.common.Settings;
+import pl.mg6.common.BuildSettings;
 
 import android.util.Log;
 
@@ -14,35 +14,35 @@ public class BaseAdListener implements AdListener {
 	
 	@Override
 	public void onDismissScreen(Ad ad) {
-		if (Settings.LOG_ADS) {
+		if (BuildSettings.LOG_ADS) {
 			Log.i(TAG, "onDismissScreen " + ad);
 		}
 	}
 	
 	@Override
 	public void onFailedToReceiveAd(Ad ad, ErrorCode code) {
-		if (Settings.LOG_ADS) {
+		if (BuildSettings.LOG_ADS) {
 			Log.i(TAG, "onFailedToReceiveAd " + ad + " " + code);
 		}
 	}
 	
 	@Override
 	public void onLeaveApplication(Ad ad) {
-		if (Settings.LOG_ADS) {
+		if (BuildSettings.LOG_ADS) {
 			Log.i(TAG, "onLeaveApplication " + ad);
 		}
 	}
 	
 	@Override
 	public void onPresentScreen(Ad ad) {
-		if (Settings.LOG_ADS) {
+		if (BuildSettings.LOG_ADS) {
 			Log.i(TAG, "onPresentScreen " + ad);
 		}
 	}
 	
 	@Override
 	public void onReceiveAd(Ad ad) {
-		if (Settings.LOG_ADS) {
+		if (BuildSettings.LOG_ADS) {
 			Log.i(TAG, "onReceiveAd " + ad);
 		}
 	}
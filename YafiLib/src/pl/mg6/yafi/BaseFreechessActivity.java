@@ -2,6 +2,7 @@ package pl.mg6.yafi;
 
 import java.util.UUID;
 
+import pl.mg6.common.BuildSettings;
 import pl.mg6.common.Settings;
 import pl.mg6.common.TimeUtils;
 import pl.mg6.common.android.BaseActivity;
@@ -10,6 +11,7 @@ import pl.mg6.common.android.tracker.Tracking;
 import pl.mg6.yafi.lib.R;
 import pl.mg6.yafi.model.FreechessService;
 import pl.mg6.yafi.model.FreechessService.FreechessServiceInterface;
+import pl.mg6.yafi.model.PipelineTrace;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.ComponentName;
@@ -55,7 +57,7 @@ public class BaseFreechessActivity extends BaseActivity implements ServiceConnec
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
-		handler = new Handler(this);
+		handler = new TracedHandler(this);
 		setVolumeControlStream(AudioManager.STREAM_MUSIC);
 	}
 	
@@ -132,7 +134,7 @@ public class BaseFreechessActivity extends BaseActivity implements ServiceConnec
 	
 	@Override
 	public void onServiceConnected(ComponentName name, IBinder binder) {
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onServiceConnected " + name + " " + binder);
 		}
 		if (!stopped) {
@@ -151,7 +153,7 @@ public class BaseFreechessActivity extends BaseActivity implements ServiceConnec
 	
 	@Override
 	public void onServiceDisconnected(ComponentName name) {
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onServiceDisconnected " + name);
 		}
 	}
@@ -222,4 +224,20 @@ public class BaseFreechessActivity extends BaseActivity implements ServiceConnec
 		}
 		super.onActivityResult(requestCode, resultCode, data);
 	}
+	
+	// records the dispatch stage for messages FreechessService sent while parsing a traced frame
+	private static class TracedHandler extends Handler {
+		
+		public TracedHandler(Callback callback) {
+			super(callback);
+		}
+		
+		@Override
+		public void dispatchMessage(Message msg) {
+			if (msg.arg1 != 0 && PipelineTrace.isEnabled()) {
+				PipelineTrace.record(msg.arg1 - 1, PipelineTrace.STAGE_DISPATCHED, msg.arg2);
+			}
+			super.dispatchMessage(msg);
+		}
+	}
 }
@@ -1,8 +1,6 @@
 package pl.mg6.yafi;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.UUID;
 
 import pl.mg6.common.Settings;
@@ -13,6 +11,7 @@ import pl.mg6.yafi.model.FreechessService;
 import pl.mg6.yafi.model.FreechessUtils;
 import pl.mg6.yafi.model.data.Color;
 import pl.mg6.yafi.model.data.Game;
+import pl.mg6.yafi.model.data.GameSnapshot;
 import pl.mg6.yafi.model.data.Position;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
@@ -68,7 +67,7 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	private boolean showLag;
 	
 	private boolean premove;
-	private Queue<String> premoveQueue = new LinkedList<String>();
+	private UUID premoveSentGameId;
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -141,7 +140,7 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 		boardView.setStateNone();
 	}
 	
-	private void showGameEndDialog(Game game) {
+	private void showGameEndDialog(GameSnapshot game) {
 		if (Settings.isShowGameEndDialog(this) && (gameEndDialog == null || !gameEndDialog.isShowing())) {
 			gameEndDialog = null;
 			AlertDialog.Builder builder = new AlertDialog.Builder(this);
@@ -188,11 +187,12 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	}
 	
 	public void onFirstClick(View view) {
-		Game game = service.getGame(currentGameId);
+		GameSnapshot game = service.getGame(currentGameId);
 		if (game != null) {
 			if (game.getRelation() == Game.RELATION_EXAMINING) {
 				service.sendInput("backward 999\n");
-			} else if (currentPosition > 0) {
+			}
+			if (currentPosition > 0) {
 				currentPosition = 0;
 				Position pos = game.getPosition(currentPosition);
 				boardView.setPosition(pos);
@@ -201,11 +201,12 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	}
 	
 	public void onPreviousClick(View view) {
-		Game game = service.getGame(currentGameId);
+		GameSnapshot game = service.getGame(currentGameId);
 		if (game != null) {
 			if (game.getRelation() == Game.RELATION_EXAMINING) {
 				service.sendInput("backward\n");
-			} else if (currentPosition > 0) {
+			}
+			if (currentPosition > 0) {
 				currentPosition--;
 				Position pos = game.getPosition(currentPosition);
 				boardView.setPosition(pos);
@@ -214,11 +215,12 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	}
 	
 	public void onNextClick(View view) {
-		Game game = service.getGame(currentGameId);
+		GameSnapshot game = service.getGame(currentGameId);
 		if (game != null) {
 			if (game.getRelation() == Game.RELATION_EXAMINING) {
 				service.sendInput("forward\n");
-			} else if (currentPosition < game.getPositionCount() - 1) {
+			}
+			if (currentPosition < game.getPositionCount() - 1) {
 				currentPosition++;
 				Position pos = game.getPosition(currentPosition);
 				boardView.setPosition(pos);
@@ -227,11 +229,12 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	}
 	
 	public void onLastClick(View view) {
-		Game game = service.getGame(currentGameId);
+		GameSnapshot game = service.getGame(currentGameId);
 		if (game != null) {
 			if (game.getRelation() == Game.RELATION_EXAMINING) {
 				service.sendInput("forward 999\n");
-			} else if (currentPosition < game.getPositionCount() - 1) {
+			}
+			if (currentPosition < game.getPositionCount() - 1) {
 				currentPosition = game.getPositionCount() - 1;
 				Position pos = game.getPosition(currentPosition);
 				boardView.setPosition(pos);
@@ -247,12 +250,13 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	}
 	
 	private void updateViews() {
-		Game game = service.getGame(currentGameId);
-		Position pos = game.getPosition(game.getPositionCount() - 1);
+		GameSnapshot game = service.getGame(currentGameId);
+		Position pos = game.getPosition(game.getCurrentIndex());
 		//if (pos.getRelation() == Game.RELATION_EXAMINING || currentPosition >= game.getPositionCount() - 2) {
-			currentPosition = game.getPositionCount() - 1;
+			currentPosition = game.getCurrentIndex();
 			boardView.setPosition(pos);
 			boardView.setFlip(game.isFlip());
+			boardView.setMoveValidation(FreechessUtils.hasStandardMoveRules(game.getType()));
 		//}
 		
 		if (!game.isFlip()) {
@@ -280,9 +284,10 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	private void updateTimes() {
 		whiteTimeField.removeCallbacks(updateTimesCallback);
 		if (service != null) {
-			Game game = service.getGame(currentGameId);
+			GameSnapshot game = service.getGame(currentGameId);
 			if (game != null) {
-				Position pos = game.getPosition(game.getPositionCount() - 1);
+				int current = game.getCurrentIndex();
+				Position pos = game.getPosition(current);
 				String newWhiteTime;
 				String newBlackTime;
 				if (!game.isFlip()) {
@@ -293,15 +298,15 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 					newBlackTime = game.getCurrentWhiteTimeString();
 				}
 				if (showLag) {
-					if (pos.getLag() > 0 || game.getPositionCount() > 2 && (pos = game.getPosition(game.getPositionCount() - 3)).getLag() > 0) {
+					if (pos.getLag() > 0 || current > 1 && (pos = game.getPosition(current - 2)).getLag() > 0) {
 						if (pos.getToMove() == Color.BLACK) {
 							newWhiteTime += " (lag:" + pos.getLag() + "ms)";
 						} else {
 							newBlackTime += " (lag:" + pos.getLag() + "ms)";
 						}
 					}
-					if (game.getPositionCount() > 1) {
-						pos = game.getPosition(game.getPositionCount() - 2);
+					if (current > 0) {
+						pos = game.getPosition(current - 1);
 						if (pos.getLag() > 0) {
 							if (pos.getToMove() == Color.BLACK) {
 								newWhiteTime += " (lag:" + pos.getLag() + "ms)";
@@ -345,8 +350,14 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 				onBoardTabClick(tabs.findViewWithTag(gameId));
 				return true;
 			case FreechessService.MSG_ID_GAME_UPDATE:
+				if (msg.arg1 != 0 && msg.obj.equals(currentGameId)) {
+					boardView.traceNextDraw(msg.arg1 - 1, msg.arg2);
+				}
 				onGameUpdate((UUID) msg.obj);
 				return true;
+			case FreechessService.MSG_ID_PREMOVE_SENT:
+				premoveSentGameId = (UUID) msg.obj;
+				return true;
 			case FreechessService.MSG_ID_ILLEGAL_MOVE:
 				onIllegalMove();
 				break;
@@ -361,10 +372,14 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	}
 	
 	private void onGameUpdate(UUID gameId) {
-		Game game = service.getGame(gameId);
+		GameSnapshot game = service.getGame(gameId);
 		if (game == null) {
 			return;
 		}
+		boolean premoveSent = gameId.equals(premoveSentGameId);
+		if (premoveSent) {
+			premoveSentGameId = null;
+		}
 		if (!allGamesIds.contains(gameId)) {
 			allGamesIds.add(gameId);
 			addTab(gameId);
@@ -382,8 +397,7 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 			updateViews();
 		} else if (currentGameId.equals(gameId)) {
 			updateViews();
-			while (premoveQueue.size() > 0) {
-				service.sendInput(premoveQueue.poll());
+			if (premoveSent) {
 				boardView.setMoveSent();
 			}
 			if (game.getResult() != null && Math.abs(game.getPosition(0).getRelation()) == 1) {
@@ -412,14 +426,14 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	}
 	
 	private void addTab(UUID id) {
-		Game game = service.getGame(id);
+		GameSnapshot game = service.getGame(id);
 		View tab = getLayoutInflater().inflate(R.layout.board_tab, tabs, false);
 		tab.setTag(id);
 		tab.setOnCreateContextMenuListener(new View.OnCreateContextMenuListener() {
 			@Override
 			public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo menuInfo) {
 				UUID id = (UUID) v.getTag();
-				Game game = service.getGame(id);
+				GameSnapshot game = service.getGame(id);
 				String myName = service.getRealUsername();
 				final String format = "%s %s";
 				if (!myName.equals(game.getWhiteName())) {
@@ -446,7 +460,7 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 		int index;
 		for (index = 0; index < tabs.getChildCount(); index++) {
 			UUID otherId = (UUID) tabs.getChildAt(index).getTag();
-			Game other = service.getGame(otherId);
+			GameSnapshot other = service.getGame(otherId);
 			if (game.getGameTimestamp() > other.getGameTimestamp()) {
 				break;
 			}
@@ -469,7 +483,7 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	
 	public void onBoardCloseClick(View view) {
 		UUID gameId = (UUID) ((View) view.getParent()).getTag();
-		Game game = service.getGame(gameId);
+		GameSnapshot game = service.getGame(gameId);
 		int relation = Game.RELATION_UNKNOWN;
 		if (game != null) {
 			relation = game.getRelation();
@@ -531,15 +545,15 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	}
 	
 	@Override
-	public void onMove(int initFile, int initRank, int destFile, int destRank) {
+	public void onMove(int initFile, int initRank, int destFile, int destRank, char promotion, long touchTime) {
 		if (service != null) {
-			String move = FreechessUtils.moveToString(initFile, initRank, destFile, destRank) + "\n";
-			Game game = service.getGame(currentGameId);
-			Position last = game.getPosition(game.getPositionCount() - 1);
+			String move = FreechessUtils.moveToString(initFile, initRank, destFile, destRank, promotion) + "\n";
+			GameSnapshot game = service.getGame(currentGameId);
+			Position last = game.getPosition(game.getCurrentIndex());
 			if (last.getRelation() > 0) {
-				service.sendInput(move);
+				service.sendMove(move, touchTime);
 			} else if (premove) {
-				premoveQueue.offer(move);
+				service.addPremove(currentGameId, move);
 			}
 		}
 	}
@@ -559,7 +573,7 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 	@Override
 	public boolean onPrepareOptionsMenu(Menu menu) {
 		super.onPrepareOptionsMenu(menu);
-		Game currentGame = service.getGame(currentGameId);
+		GameSnapshot currentGame = service.getGame(currentGameId);
 		int relation = Game.RELATION_UNKNOWN;
 		if (currentGame != null) {
 			relation = currentGame.getRelation();
@@ -568,6 +582,7 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 		menu.setGroupVisible(R.id.mg_play, playing);
 		if (playing) {
 			menu.findItem(R.id.mi_resign).setEnabled(currentGame.getPositionCount() > 2);
+			menu.findItem(R.id.mi_cancel_premoves).setVisible(premove);
 		}
 		menu.setGroupVisible(R.id.mg_observe, relation == Game.RELATION_OBSERVING || relation == Game.RELATION_OBSERVING_EXAMINED);
 		menu.setGroupVisible(R.id.mg_examine, relation == Game.RELATION_EXAMINING);
@@ -589,20 +604,21 @@ public class BoardActivity extends BaseFreechessActivity implements BoardView.On
 			service.sendInput("draw\n");
 		} else if (id == R.id.mi_resign) {
 			service.sendInput("resign\n");
+		} else if (id == R.id.mi_cancel_premoves) {
+			service.cancelPremoves(currentGameId);
 		} else if (id == R.id.mi_unobserve) {
 			service.sendInput("unobserve " + service.getGame(currentGameId).getId() + "\n");
 		} else if (id == R.id.mi_unexamine) {
 			service.sendInput("unexamine\n");
 		} else if (id == R.id.mi_flip) {
-			Game game = service.getGame(currentGameId);
-			game.toggleUserFlip();
+			service.toggleUserFlip(currentGameId);
 			updateViews();
 		} else if (id == R.id.mi_review) {
 			reviewOverlay.setVisibility(reviewOverlay.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE);
 			if (reviewOverlay.getVisibility() == View.GONE) {
-				Game game = service.getGame(currentGameId);
-				if (game != null && currentPosition < game.getPositionCount() - 1) {
-					currentPosition = game.getPositionCount() - 1;
+				GameSnapshot game = service.getGame(currentGameId);
+				if (game != null && currentPosition != game.getCurrentIndex()) {
+					currentPosition = game.getCurrentIndex();
 					Position pos = game.getPosition(currentPosition);
 					boardView.setPosition(pos);
 				}
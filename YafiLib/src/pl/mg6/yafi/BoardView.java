@@ -5,6 +5,8 @@ import java.util.Map;
 
 import pl.mg6.common.Settings;
 import pl.mg6.yafi.lib.R;
+import pl.mg6.yafi.model.MoveGenerator;
+import pl.mg6.yafi.model.PipelineTrace;
 import pl.mg6.yafi.model.data.Position;
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -51,6 +53,11 @@ public class BoardView extends View {
 	private int lightSquareColor;
 	private int darkSquareColor;
 	private boolean premove;
+	private boolean moveValidation;
+	
+	private MoveGenerator generator;
+	private int destinationsSquare = -1;
+	private long destinations;
 	
 	private int state;
 	private static final int NONE = 0;
@@ -59,6 +66,9 @@ public class BoardView extends View {
 	private static final int CLICK = 3;
 	private static final int CLICK_CLICK = 4;
 	private static final int MOVE_SENT = 666;
+	
+	private int traceType = -1;
+	private int traceStart;
 
 	public BoardView(Context context) {
 		super(context);
@@ -154,6 +164,18 @@ public class BoardView extends View {
 				listener.onUnsupportedDrawPicture();
 			}
 		}
+		if (traceType != -1) {
+			PipelineTrace.record(traceType, PipelineTrace.STAGE_DRAWN, traceStart);
+			traceType = -1;
+		}
+	}
+	
+	// the next draw completes the traced frame; when several updates come before it, the oldest counts
+	public void traceNextDraw(int type, int start) {
+		if (traceType == -1) {
+			traceType = type;
+			traceStart = start;
+		}
 	}
 	
 	private void drawSelf(Canvas canvas) {
@@ -232,6 +254,17 @@ public class BoardView extends View {
 				paint.setStyle(Paint.Style.FILL);
 			}
 			paint.setAlpha(255);
+			if (moveValidation && (state == INITIAL || state == DRAGGING || state == CLICK || state == CLICK_CLICK)) {
+				paint.setColor(0x66000000);
+				long bits = getDestinations();
+				while (bits != 0) {
+					int square = Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					canvas.drawCircle((flip(square & 7) + 0.5f) * squareWidth, (flip(square >> 3) + 0.5f) * squareHeight,
+							squareWidth / 6.0f, paint);
+				}
+				paint.setAlpha(255);
+			}
 			for (int y = 0; y < 8; y++) {
 				for (int x = 0; x < 8; x++) {
 					if (state != NONE && flip(initFile) == x && flip(initRank) == y) {
@@ -372,7 +405,8 @@ public class BoardView extends View {
 						state = NONE;
 					}
 				} else if (state == DRAGGING || state == CLICK_CLICK) {
-					if ((destFile != initFile || destRank != initRank) && 0 <= destFile && destFile < 8 && 0 <= destRank && destRank < 8) {
+					if ((destFile != initFile || destRank != initRank) && 0 <= destFile && destFile < 8 && 0 <= destRank && destRank < 8
+							&& (getDestinations() & (1L << (8 * destRank + destFile))) != 0) {
 						state = MOVE_SENT;
 						notifyMove(initFile, initRank, destFile, destRank);
 					} else {
@@ -399,19 +433,51 @@ public class BoardView extends View {
 	}
 	
 	private void notifyMove(int initFile, int initRank, int destFile, int destRank) {
+		long touchTime = System.nanoTime();
+		// without validation the server promotes to the piece set in its promote variable
+		char promotion = moveValidation && MoveGenerator.isPromotion(position, 8 * initRank + initFile, 8 * destRank + destFile) ? 'q' : 0;
 		if (listener != null) {
-			listener.onMove(initFile, initRank, destFile, destRank);
+			listener.onMove(initFile, initRank, destFile, destRank, promotion, touchTime);
 		}
 	}
 	
+	private long getDestinations() {
+		if (!moveValidation) {
+			return -1L;
+		}
+		int square = 8 * initRank + initFile;
+		if (destinationsSquare != square) {
+			if (position.getRelation() > 0) {
+				if (generator == null) {
+					generator = new MoveGenerator(position);
+				}
+				destinations = generator.getDestinations(square);
+			} else {
+				destinations = MoveGenerator.getPremoveDestinations(position, square);
+			}
+			destinationsSquare = square;
+		}
+		return destinations;
+	}
+	
 	public void setPosition(Position pos) {
 		if (state == MOVE_SENT || pos.getPieceAt(initFile, initRank) == '-') {
 			state = NONE;
 		}
 		this.position = pos;
+		generator = null;
+		destinationsSquare = -1;
 		invalidate();
 	}
 	
+	public void setMoveValidation(boolean moveValidation) {
+		if (this.moveValidation != moveValidation) {
+			this.moveValidation = moveValidation;
+			destinationsSquare = -1;
+			invalidate();
+		}
+	}
+	
 	public void setFlip(boolean flip) {
 		this.flip = flip;
 		invalidate();
@@ -455,7 +521,7 @@ public class BoardView extends View {
 	
 	public interface OnMoveListener {
 		
-		void onMove(int initFile, int initRank, int destFile, int destRank);
+		void onMove(int initFile, int initRank, int destFile, int destRank, char promotion, long touchTime);
 		
 		void onUnsupportedDrawPicture();
 	}
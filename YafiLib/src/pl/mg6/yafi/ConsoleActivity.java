@@ -1,30 +1,41 @@
 package pl.mg6.yafi;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import pl.mg6.common.Settings;
-import pl.mg6.common.android.OnSizeChangedListener;
-import pl.mg6.common.android.ScrollViewEx;
-import pl.mg6.common.android.ViewUtils;
 import pl.mg6.common.android.tracker.Tracking;
 import pl.mg6.yafi.lib.R;
+import pl.mg6.yafi.model.ConsoleLog;
 import pl.mg6.yafi.model.FreechessService;
+import android.content.Context;
+import android.graphics.Canvas;
 import android.os.Bundle;
 import android.os.Message;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
 import android.view.ContextMenu;
 import android.view.KeyEvent;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.TextView;
 
 public class ConsoleActivity extends BaseFreechessActivity {
 	
-	private TextView outputField;
+	private static final int MAX_LINES = 5000;
+	
+	private ListView outputList;
+	private ConsoleAdapter outputAdapter;
 	private EditText inputField;
-	private ScrollViewEx outputScroll;
+	private long outputSequence;
 
 	private LinearLayout tabs;
 	
@@ -32,7 +43,11 @@ public class ConsoleActivity extends BaseFreechessActivity {
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.console_view);
-		outputField = (TextView) findViewById(R.id.console_output);
+		outputAdapter = new ConsoleAdapter(this);
+		outputList = (ListView) findViewById(R.id.console_output);
+		outputList.setTranscriptMode(ListView.TRANSCRIPT_MODE_NORMAL);
+		outputList.setStackFromBottom(true);
+		outputList.setAdapter(outputAdapter);
 		inputField = (EditText) findViewById(R.id.console_input);
 		inputField.setOnEditorActionListener(new TextView.OnEditorActionListener() {
 			@Override
@@ -40,25 +55,6 @@ public class ConsoleActivity extends BaseFreechessActivity {
 				return sendCommand();
 			}
 		});
-		outputScroll = (ScrollViewEx) findViewById(R.id.console_output_scroll);
-		outputScroll.setOnSizeChangedListener(new OnSizeChangedListener() {
-			@Override
-			public void onSizeChanged(View view, int w, int h, int oldw, int oldh) {
-				int textViewHeight = outputField.getHeight();
-				int scrollViewHeight = oldh;
-				int scrollViewPosition = outputScroll.getScrollY();
-				if (scrollViewPosition + scrollViewHeight >= textViewHeight - 10) {
-					outputScroll.post(new Runnable() {
-						@Override
-						public void run() {
-							int textViewHeight = outputField.getHeight();
-							int scrollViewHeight = outputScroll.getHeight();
-							outputScroll.smoothScrollTo(0, textViewHeight - scrollViewHeight);
-						}
-					});
-				}
-			}
-		});
 		tabs = (LinearLayout) findViewById(R.id.console_tabs);
 		List<String> frequentlyUsedCommands = Settings.getFrequentlyUsedCommands(this);
 		if (frequentlyUsedCommands != null) {
@@ -130,24 +126,204 @@ public class ConsoleActivity extends BaseFreechessActivity {
 	@Override
 	protected void onStartHandlingMessages(boolean firstTime) {
 		super.onStartHandlingMessages(firstTime);
-		String output = service.getOutput();
-		outputField.setText("");
-		ViewUtils.setTextAndScroll(outputScroll, outputField, output);
+		setOutput(service.getOutput());
 	}
 	
 	@Override
 	public boolean handleMessage(Message msg) {
 		switch (msg.what) {
 			case FreechessService.MSG_ID_RECEIVED_OUTPUT: {
-				String output = (String) msg.obj;
-				setOutput(output);
+				ConsoleLog.Entry entry = (ConsoleLog.Entry) msg.obj;
+				appendOutput(entry);
 				return true;
 			}
 		}
 		return super.handleMessage(msg);
 	}
 	
-	private void setOutput(String output) {
-		ViewUtils.setTextAndScroll(outputScroll, outputField, output);
+	private void setOutput(ConsoleLog.Entry snapshot) {
+		outputSequence = snapshot.getSequence();
+		outputAdapter.clear();
+		outputAdapter.append(snapshot.getText());
+		trimOutput(false);
+		outputAdapter.notifyDataSetChanged();
+		outputList.setSelection(outputAdapter.getCount() - 1);
+	}
+	
+	private void appendOutput(ConsoleLog.Entry entry) {
+		long sequence = entry.getSequence();
+		if (sequence == outputSequence + 1) {
+			outputSequence = sequence;
+			boolean following = outputList.getLastVisiblePosition() >= outputAdapter.getCount() - 1;
+			outputAdapter.append(entry.getText());
+			trimOutput(!following);
+			outputAdapter.notifyDataSetChanged();
+		} else if (sequence > outputSequence) {
+			setOutput(service.getOutput());
+		}
+	}
+	
+	private void trimOutput(boolean keepPosition) {
+		int excess = outputAdapter.getCount() - MAX_LINES;
+		if (excess <= 0) {
+			return;
+		}
+		// trim in batches so the list is not shifted on every message
+		excess += MAX_LINES / 10;
+		int first = outputList.getFirstVisiblePosition();
+		View top = outputList.getChildAt(0);
+		int offset = top != null ? top.getTop() : 0;
+		outputAdapter.removeFirst(excess);
+		if (keepPosition) {
+			outputList.setSelectionFromTop(Math.max(0, first - excess), offset);
+		}
+	}
+	
+	private static class ConsoleAdapter extends BaseAdapter {
+		
+		private final Context context;
+		private final TextPaint paint;
+		
+		private final List<Line> lines = new ArrayList<Line>();
+		private int removed;
+		
+		public ConsoleAdapter(Context context) {
+			this.context = context;
+			TextView template = new TextView(context);
+			paint = new TextPaint(template.getPaint());
+			paint.setColor(template.getCurrentTextColor());
+		}
+		
+		@Override
+		public int getCount() {
+			return lines.size();
+		}
+		
+		@Override
+		public Line getItem(int position) {
+			return lines.get(position);
+		}
+		
+		@Override
+		public long getItemId(int position) {
+			return removed + position;
+		}
+		
+		@Override
+		public boolean hasStableIds() {
+			return true;
+		}
+		
+		@Override
+		public boolean areAllItemsEnabled() {
+			return false;
+		}
+		
+		@Override
+		public boolean isEnabled(int position) {
+			return false;
+		}
+		
+		@Override
+		public View getView(int position, View convertView, ViewGroup parent) {
+			LineView view = (LineView) convertView;
+			if (view == null) {
+				view = new LineView(context, paint);
+				view.setLayoutParams(new AbsListView.LayoutParams(AbsListView.LayoutParams.FILL_PARENT, AbsListView.LayoutParams.WRAP_CONTENT));
+			}
+			view.setLine(getItem(position));
+			return view;
+		}
+		
+		public void clear() {
+			removed += lines.size();
+			lines.clear();
+		}
+		
+		public void append(String text) {
+			int start = 0;
+			int length = text.length();
+			while (start < length) {
+				int end = text.indexOf('\n', start);
+				boolean complete = end != -1;
+				if (!complete) {
+					end = length;
+				}
+				Line last = lines.isEmpty() ? null : lines.get(lines.size() - 1);
+				if (last != null && !last.complete) {
+					if (end > start) {
+						last.setText(last.text + text.substring(start, end));
+					}
+					last.complete = complete;
+				} else {
+					Line line = new Line();
+					line.setText(text.substring(start, end));
+					line.complete = complete;
+					lines.add(line);
+				}
+				start = end + 1;
+			}
+		}
+		
+		public void removeFirst(int count) {
+			count = Math.min(count, lines.size());
+			lines.subList(0, count).clear();
+			removed += count;
+		}
+	}
+	
+	private static class Line {
+		
+		private String text;
+		private boolean complete;
+		private StaticLayout layout;
+		
+		private void setText(String text) {
+			this.text = text;
+			layout = null;
+		}
+		
+		private StaticLayout getLayout(TextPaint paint, int width) {
+			if (layout == null || layout.getWidth() != width) {
+				layout = new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+			}
+			return layout;
+		}
+	}
+	
+	private static class LineView extends View {
+		
+		private final TextPaint paint;
+		private Line line;
+		
+		public LineView(Context context, TextPaint paint) {
+			super(context);
+			this.paint = paint;
+		}
+		
+		public void setLine(Line line) {
+			if (this.line != line || line.layout == null) {
+				this.line = line;
+				requestLayout();
+			}
+			invalidate();
+		}
+		
+		@Override
+		protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+			int width = MeasureSpec.getSize(widthMeasureSpec);
+			int height = 0;
+			if (line != null && width > 0) {
+				height = line.getLayout(paint, width).getHeight();
+			}
+			setMeasuredDimension(width, height);
+		}
+		
+		@Override
+		protected void onDraw(Canvas canvas) {
+			if (line != null && getWidth() > 0) {
+				line.getLayout(paint, getWidth()).draw(canvas);
+			}
+		}
 	}
 }
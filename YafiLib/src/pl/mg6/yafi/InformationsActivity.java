@@ -1,7 +1,9 @@
 package pl.mg6.yafi;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import pl.mg6.common.StringUtils;
 import pl.mg6.common.android.AndroidUtils;
@@ -15,7 +17,6 @@ import pl.mg6.yafi.model.data.HistoricalGameEntry;
 import pl.mg6.yafi.model.data.HistoryInfo;
 import pl.mg6.yafi.model.data.JournalInfo;
 import pl.mg6.yafi.model.data.RatingInfo;
-import pl.mg6.yafi.model.data.UserTitle;
 import pl.mg6.yafi.model.data.VariablesInfo;
 import android.os.Bundle;
 import android.os.Message;
@@ -44,6 +45,27 @@ public class InformationsActivity extends BaseFreechessActivity {
 	private static final int STATE_AFTER_ADJOURNED = 4;
 	private int state;
 	
+	private static final Map<String, Integer> titleTextIds = new HashMap<String, Integer>();
+	
+	static {
+		titleTextIds.put("*", R.string.title_admin);
+		titleTextIds.put("SR", R.string.title_sr);
+		titleTextIds.put("TM", R.string.title_tm);
+		titleTextIds.put("TD", R.string.title_td);
+		titleTextIds.put("CA", R.string.title_advisor);
+		titleTextIds.put("C", R.string.title_comp);
+		titleTextIds.put("U", R.string.title_unreg);
+		titleTextIds.put("B", R.string.title_blind);
+		titleTextIds.put("T", R.string.title_team);
+		titleTextIds.put("D", R.string.title_demo);
+		titleTextIds.put("GM", R.string.title_gm);
+		titleTextIds.put("IM", R.string.title_im);
+		titleTextIds.put("FM", R.string.title_fm);
+		titleTextIds.put("WGM", R.string.title_wgm);
+		titleTextIds.put("WIM", R.string.title_wim);
+		titleTextIds.put("WFM", R.string.title_wfm);
+	}
+	
 	private static final int[] notesIds = {
 		R.id.info_finger_note_1,
 		R.id.info_finger_note_2,
@@ -163,7 +185,7 @@ public class InformationsActivity extends BaseFreechessActivity {
 				TextView titlesField = (TextView) finger.findViewById(R.id.info_finger_titles);
 				String[] titles = new String[info.getTitles().length];
 				for (int i = 0; i < titles.length; i++) {
-					titles[i] = getString(UserTitle.abbrToText(info.getTitles()[i]));
+					titles[i] = getString(titleTextIds.get(info.getTitles()[i]));
 				}
 				titlesField.setText(StringUtils.join(", ", titles));
 			}
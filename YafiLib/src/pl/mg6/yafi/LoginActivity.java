@@ -1,6 +1,7 @@
 package pl.mg6.yafi;
 
 import pl.mg6.common.FileUtils;
+import pl.mg6.common.BuildSettings;
 import pl.mg6.common.Settings;
 import pl.mg6.common.android.AndroidUtils;
 import pl.mg6.common.android.tracker.Tracking;
@@ -234,8 +235,8 @@ public class LoginActivity extends BaseFreechessActivity {
 			int rotation = getWindowManager().getDefaultDisplay().getOrientation();
 			int density = (int) (DisplayMetrics.DENSITY_DEFAULT * dm.density);
 			trackEvent(Tracking.CATEGORY_LOGIN, Tracking.ACTION_SCREEN, width + "x" + height + "@" + density + "dpi", rotation);
-			trackEvent(Tracking.CATEGORY_LOGIN, Tracking.ACTION_SOURCE, Tracking.LABEL_ARRAY_SOURCES[Settings.SOURCE_ID],
-					Settings.SOURCE_ID);
+			trackEvent(Tracking.CATEGORY_LOGIN, Tracking.ACTION_SOURCE, Tracking.LABEL_ARRAY_SOURCES[BuildSettings.SOURCE_ID],
+					BuildSettings.SOURCE_ID);
 			String content = FileUtils.tryReadFile("/etc/hosts");
 			if (content != null) {
 				content = content.toLowerCase();
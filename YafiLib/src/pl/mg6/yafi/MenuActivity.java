@@ -3,6 +3,7 @@ package pl.mg6.yafi;
 import java.util.List;
 import java.util.Random;
 
+import pl.mg6.common.BuildSettings;
 import pl.mg6.common.Settings;
 import pl.mg6.common.android.tracker.Tracking;
 import pl.mg6.yafi.lib.R;
@@ -254,6 +255,7 @@ public class MenuActivity extends BaseFreechessActivity {
 	public boolean onCreateOptionsMenu(Menu menu) {
 		super.onCreateOptionsMenu(menu);
 		getMenuInflater().inflate(R.menu.main, menu);
+		menu.findItem(R.id.mi_pipeline_stats).setVisible(BuildSettings.DEBUG_SCREENS);
 		return true;
 	}
 	
@@ -266,6 +268,8 @@ public class MenuActivity extends BaseFreechessActivity {
 		} else if (id == R.id.mi_observe_standard) {
 			service.sendInput("observe /s\n");
 			trackEvent(Tracking.CATEGORY_SHOW_GAME, Tracking.ACTION_OBSERVE, Tracking.LABEL_HIGH_RATED_STANDARD, 0);
+		} else if (id == R.id.mi_pipeline_stats) {
+			startActivity(new Intent(this, PipelineStatsActivity.class));
 		} else {
 			return super.onOptionsItemSelected(item);
 		}
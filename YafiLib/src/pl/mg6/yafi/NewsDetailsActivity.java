@@ -25,7 +25,7 @@ public class NewsDetailsActivity extends BaseFreechessActivity {
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.news_details_view);
-		news = getIntent().getParcelableExtra(EXTRA_NAME_NEWS);
+		news = (NewsItem) getIntent().getSerializableExtra(EXTRA_NAME_NEWS);
 		
 		loading = findViewById(R.id.news_details_loading);
 		date = (TextView) findViewById(R.id.news_details_date);
@@ -0,0 +1,79 @@
+package pl.mg6.yafi;
+
+import pl.mg6.yafi.lib.R;
+import pl.mg6.yafi.model.PipelineTrace;
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+public class PipelineStatsActivity extends BaseFreechessActivity {
+	
+	private static final long REFRESH_INTERVAL = 1000L;
+	
+	private TextView stats;
+	
+	private final Runnable refresh = new Runnable() {
+		@Override
+		public void run() {
+			updateStats();
+			handler.postDelayed(this, REFRESH_INTERVAL);
+		}
+	};
+	
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.pipeline_stats_view);
+		stats = (TextView) findViewById(R.id.pipeline_stats);
+		checkLoggedOn = false;
+	}
+	
+	@Override
+	protected void onStartHandlingMessages(boolean firstTime) {
+		super.onStartHandlingMessages(firstTime);
+		handler.post(refresh);
+	}
+	
+	@Override
+	protected void onStopHandlingMessages() {
+		handler.removeCallbacks(refresh);
+		super.onStopHandlingMessages();
+	}
+	
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		super.onCreateOptionsMenu(menu);
+		getMenuInflater().inflate(R.menu.pipeline_stats, menu);
+		return true;
+	}
+	
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		super.onPrepareOptionsMenu(menu);
+		menu.findItem(R.id.mi_trace_pipeline).setChecked(PipelineTrace.isEnabled());
+		return true;
+	}
+	
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		int id = item.getItemId();
+		if (id == R.id.mi_trace_pipeline) {
+			PipelineTrace.setEnabled(!PipelineTrace.isEnabled());
+		} else if (id == R.id.mi_reset_stats) {
+			PipelineTrace.reset();
+		} else {
+			return super.onOptionsItemSelected(item);
+		}
+		updateStats();
+		return true;
+	}
+	
+	private void updateStats() {
+		String text = PipelineTrace.dump();
+		if (service != null) {
+			text += "\n" + service.getLagStats();
+		}
+		stats.setText(text);
+	}
+}
@@ -1,14 +1,18 @@
 package pl.mg6.yafi;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 
+import pl.mg6.common.IntIntMap;
 import pl.mg6.common.Settings;
 import pl.mg6.common.TimeUtils;
 import pl.mg6.common.android.tracker.Tracking;
 import pl.mg6.yafi.lib.R;
 import pl.mg6.yafi.model.FreechessService;
 import pl.mg6.yafi.model.FreechessUtils;
+import pl.mg6.yafi.model.SeekBook;
 import pl.mg6.yafi.model.data.SeekInfo;
 import pl.mg6.yafi.model.data.SeekInfoList;
 import pl.mg6.yafi.model.data.seek.filters.AllSeekFilter;
@@ -18,12 +22,12 @@ import pl.mg6.yafi.model.data.seek.filters.GuestSeekFilter;
 import pl.mg6.yafi.model.data.seek.filters.RatingSeekFilter;
 import pl.mg6.yafi.model.data.seek.filters.RegisteredUserSeekFilter;
 import pl.mg6.yafi.model.data.seek.filters.SeekFilter;
+import pl.mg6.yafi.model.data.seek.filters.SeekFilterIndex;
 import pl.mg6.yafi.model.data.seek.filters.TimeSeekFilter;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Message;
-import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.LayoutInflater;
@@ -43,14 +47,14 @@ public class SoughtActivity extends BaseFreechessActivity {
 	private static final int REQUEST_ID_CHAT = 60001;
 	private static final int REQUEST_ID_INFO = 60002;
 	
-	private boolean recevingSeeks;
+	private long seekSequence = -1;
 	
 	private SoughtAdapter soughtAdapter;
 	private GridView soughtList;
 	private TextView emptyView;
 	
 	private Spinner gameTypeFilter;
-	private String[] gameTypeFilterPatterns;
+	private SeekFilter[] gameTypeFilterPatterns;
 	
 	private Spinner opponentFilter;
 	private SeekFilter[] opponentFilterPatterns;
@@ -64,18 +68,48 @@ public class SoughtActivity extends BaseFreechessActivity {
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.sought_view);
-		soughtAdapter = new SoughtAdapter(this);
+		String[] gameTypePatterns = getResources().getStringArray(R.array.sought_game_types_pattern);
+		gameTypeFilterPatterns = new SeekFilter[gameTypePatterns.length];
+		for (int i = 0; i < gameTypePatterns.length; i++) {
+			gameTypeFilterPatterns[i] = new GameTypeSeekFilter(gameTypePatterns[i]);
+		}
+		opponentFilterPatterns = new SeekFilter[] {
+			new AllSeekFilter(),
+			new RegisteredUserSeekFilter(),
+			new GuestSeekFilter(),
+			new ComputerSeekFilter(),
+			new RatingSeekFilter(1, 1199),
+			new RatingSeekFilter(1000, 1499),
+			new RatingSeekFilter(1300, 1799),
+			new RatingSeekFilter(1600, 2099),
+			new RatingSeekFilter(1900, 9999),
+		};
+		timeFilterPatterns = new SeekFilter[] {
+			new AllSeekFilter(),
+			new TimeSeekFilter(3, 14),
+			new TimeSeekFilter(3, 3),
+			new TimeSeekFilter(5, 5),
+			new TimeSeekFilter(10, 10),
+			new TimeSeekFilter(15, 9999),
+			new TimeSeekFilter(15, 15),
+			new TimeSeekFilter(0, 2),
+		};
+		
+		List<SeekFilter> filters = new ArrayList<SeekFilter>();
+		filters.addAll(Arrays.asList(gameTypeFilterPatterns));
+		filters.addAll(Arrays.asList(opponentFilterPatterns));
+		filters.addAll(Arrays.asList(timeFilterPatterns));
+		soughtAdapter = new SoughtAdapter(this, new SeekFilterIndex(filters.toArray(new SeekFilter[filters.size()])));
 		setupSoughtList();
 		emptyView = (TextView) findViewById(R.id.sought_empty_view);
 		emptyView.setText(R.string.getting_sought_items);
 		soughtList.setEmptyView(emptyView);
 		
-		gameTypeFilterPatterns = getResources().getStringArray(R.array.sought_game_types_pattern);
 		gameTypeFilter = (Spinner) findViewById(R.id.sought_game_type);
 		gameTypeFilter.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
 			@Override
 			public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-				soughtAdapter.setGameTypeFilter(new GameTypeSeekFilter(gameTypeFilterPatterns[position]));
+				soughtAdapter.setGameTypeFilter(gameTypeFilterPatterns[position]);
 			}
 			@Override
 			public void onNothingSelected(AdapterView<?> parent) {
@@ -83,17 +117,6 @@ public class SoughtActivity extends BaseFreechessActivity {
 		});
 		gameTypeFilter.setSelection(Settings.getSoughtGameType(this));
 		
-		opponentFilterPatterns = new SeekFilter[] {
-			new AllSeekFilter(),
-			new RegisteredUserSeekFilter(),
-			new GuestSeekFilter(),
-			new ComputerSeekFilter(),
-			new RatingSeekFilter(1, 1199),
-			new RatingSeekFilter(1000, 1499),
-			new RatingSeekFilter(1300, 1799),
-			new RatingSeekFilter(1600, 2099),
-			new RatingSeekFilter(1900, 9999),
-		};
 		opponentFilter = (Spinner) findViewById(R.id.sought_opponent);
 		opponentFilter.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
 			@Override
@@ -106,16 +129,6 @@ public class SoughtActivity extends BaseFreechessActivity {
 		});
 		opponentFilter.setSelection(Settings.getSoughtOpponent(this));
 		
-		timeFilterPatterns = new SeekFilter[] {
-			new AllSeekFilter(),
-			new TimeSeekFilter(3, 14),
-			new TimeSeekFilter(3, 3),
-			new TimeSeekFilter(5, 5),
-			new TimeSeekFilter(10, 10),
-			new TimeSeekFilter(15, 9999),
-			new TimeSeekFilter(15, 15),
-			new TimeSeekFilter(0, 2),
-		};
 		timeFilter = (Spinner) findViewById(R.id.sought_time);
 		timeFilter.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
 			@Override
@@ -216,6 +229,7 @@ public class SoughtActivity extends BaseFreechessActivity {
 	@Override
 	protected void onStartHandlingMessages(boolean firstTime) {
 		super.onStartHandlingMessages(firstTime);
+		showSeeks();
 		service.sendInput("iset seekinfo 1\n");
 		emptyView.setText(R.string.getting_sought_items);
 	}
@@ -224,24 +238,22 @@ public class SoughtActivity extends BaseFreechessActivity {
 	protected void onStopHandlingMessages() {
 		super.onStopHandlingMessages();
 		service.sendInput("iset seekinfo 0\n");
-		recevingSeeks = false;
-		soughtAdapter.removeAll();
 	}
 	
 	@Override
 	public boolean handleMessage(Message msg) {
 		switch (msg.what) {
 			case FreechessService.MSG_ID_SEEKINFO_SET:
-				onSeekInfoSet((SeekInfoList) msg.obj);
+				onSeekInfoSet((SeekBook.Change) msg.obj);
 				return true;
 			case FreechessService.MSG_ID_SEEKINFO_SET_ERROR:
 				onSeekInfoSetError();
 				return true;
 			case FreechessService.MSG_ID_RECEIVED_SEEK:
-				onReceivedSeek((SeekInfo) msg.obj);
+				onSeeksChanged((SeekBook.Change) msg.obj);
 				return true;
 			case FreechessService.MSG_ID_REMOVED_SEEKS:
-				onRemovedSeeks((SeekInfoList) msg.obj);
+				onSeeksChanged((SeekBook.Change) msg.obj);
 				return true;
 			case FreechessService.MSG_ID_SEEK_NOT_AVAILABLE:
 				Toast.makeText(this, "That seek is not available.", Toast.LENGTH_SHORT).show();
@@ -250,9 +262,8 @@ public class SoughtActivity extends BaseFreechessActivity {
 		return super.handleMessage(msg);
 	}
 	
-	private void onSeekInfoSet(SeekInfoList seeks) {
-		recevingSeeks = true;
-		soughtAdapter.addAll(seeks);
+	private void onSeekInfoSet(SeekBook.Change change) {
+		onSeeksChanged(change);
 		emptyView.setText(R.string.no_sought_items);
 	}
 	
@@ -260,20 +271,29 @@ public class SoughtActivity extends BaseFreechessActivity {
 		emptyView.setText(R.string.you_are_playing_or_examining);
 	}
 	
-	private void onReceivedSeek(SeekInfo seek) {
-		if (recevingSeeks) {
-			soughtAdapter.add(seek);
-		} else {
-			Log.i("tag", "onReceivedSeek when not recevingSeeks");
+	private void onSeeksChanged(SeekBook.Change change) {
+		// changes already covered by the snapshot taken in showSeeks are still queued
+		if (change.getSequence() <= seekSequence) {
+			return;
+		}
+		seekSequence = change.getSequence();
+		switch (change.getType()) {
+			case SeekBook.CHANGE_RESET:
+				soughtAdapter.setAll(change.getSeeks());
+				break;
+			case SeekBook.CHANGE_ADD:
+				soughtAdapter.addAll(change.getSeeks());
+				break;
+			case SeekBook.CHANGE_REMOVE:
+				soughtAdapter.removeAll(change.getSeeks());
+				break;
 		}
 	}
 	
-	private void onRemovedSeeks(SeekInfoList seeks) {
-		if (recevingSeeks) {
-			soughtAdapter.removeAll(seeks);
-		} else {
-			Log.i("tag", "onRemovedSeeks when not recevingSeeks");
-		}
+	private void showSeeks() {
+		SeekBook.Change snapshot = service.getSeeks();
+		seekSequence = snapshot.getSequence();
+		soughtAdapter.setAll(snapshot.getSeeks());
 	}
 	
 	private static class SoughtAdapter extends BaseAdapter {
@@ -284,15 +304,22 @@ public class SoughtActivity extends BaseFreechessActivity {
 		
 		private LayoutInflater layoutInflater;
 		
-		private List<SeekInfo> allItems = new ArrayList<SeekInfo>();
 		private List<ItemStrategy> items = new ArrayList<ItemStrategy>();
+		private IntIntMap positionsById = new IntIntMap(256);
+		private LinkedList<EmptyItemStrategy> emptyItems = new LinkedList<EmptyItemStrategy>();
+		private int seekCount;
+		
+		private SeekFilterIndex filterIndex;
+		private SeekFilterIndex.Selection selection;
 		
 		private SeekFilter gameTypeFilter;
 		private SeekFilter oppFilter;
 		private SeekFilter etimeFilter;
 
-		public SoughtAdapter(Context context) {
+		public SoughtAdapter(Context context, SeekFilterIndex filterIndex) {
 			layoutInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+			this.filterIndex = filterIndex;
+			selection = filterIndex.select();
 		}
 		
 		@Override
@@ -335,96 +362,98 @@ public class SoughtActivity extends BaseFreechessActivity {
 			return items.get(position).getItemId();
 		}
 		
-		private boolean isExpired(int position) {
-			return items.get(position).isExpired();
+		private boolean put(SeekInfo seek) {
+			filterIndex.add(seek);
+			return show(seek);
 		}
 		
-		private boolean matches(SeekInfo seek) {
-			return (gameTypeFilter == null || gameTypeFilter.matches(seek))
-					&& (oppFilter == null || oppFilter.matches(seek)
-					&& (etimeFilter == null || etimeFilter.matches(seek)));
+		private boolean show(SeekInfo seek) {
+			int position = positionsById.get(seek.getId(), -1);
+			if (position != -1) {
+				if (selection.matches(seek)) {
+					items.set(position, new SeekItemStrategy(layoutInflater, seek));
+					return true;
+				}
+				return hide(seek);
+			}
+			if (!selection.matches(seek)) {
+				return false;
+			}
+			SeekItemStrategy sis = new SeekItemStrategy(layoutInflater, seek);
+			// empty items expire in the order they were created, so only the oldest needs checking
+			EmptyItemStrategy empty = emptyItems.peek();
+			if (empty != null && empty.isExpired()) {
+				emptyItems.poll();
+				position = empty.getPosition();
+				items.set(position, sis);
+			} else {
+				position = items.size();
+				items.add(sis);
+			}
+			positionsById.put(seek.getId(), position);
+			seekCount++;
+			return true;
 		}
 		
-		public void add(SeekInfo seek) {
-			if (matches(seek)) {
-				int index = -1;
-				for (int i = 0; i < getCount(); i++) {
-					if (isExpired(i)) {
-						index = i;
-						break;
-					}
-				}
-				SeekItemStrategy sis = new SeekItemStrategy(layoutInflater, seek);
-				if (index == -1) {
-					items.add(sis);
-				} else {
-					items.set(index, sis);
-				}
-				notifyDataSetChanged();
+		private boolean remove(SeekInfo seek) {
+			filterIndex.remove(seek);
+			return hide(seek);
+		}
+		
+		private boolean hide(SeekInfo seek) {
+			int position = positionsById.remove(seek.getId(), -1);
+			if (position == -1) {
+				return false;
 			}
-			allItems.add(seek);
+			seekCount--;
+			if (seekCount == 0) {
+				clearItems();
+			} else {
+				EmptyItemStrategy empty = new EmptyItemStrategy(layoutInflater, position);
+				items.set(position, empty);
+				emptyItems.add(empty);
+			}
+			return true;
+		}
+		
+		private void clear() {
+			filterIndex.clear();
+			clearItems();
+		}
+		
+		private void clearItems() {
+			items.clear();
+			positionsById.clear();
+			emptyItems.clear();
+			seekCount = 0;
 		}
 		
 		public void addAll(SeekInfoList seeks) {
-			int index;
+			boolean changed = false;
 			for (SeekInfo seek : seeks) {
-				if (matches(seek)) {
-					index = -1;
-					for (int i = 0; i < getCount(); i++) {
-						if (isExpired(i)) {
-							index = i;
-							break;
-						}
-					}
-					SeekItemStrategy sis = new SeekItemStrategy(layoutInflater, seek);
-					if (index == -1) {
-						items.add(sis);
-					} else {
-						items.set(index, sis);
-					}
-				}
-				allItems.add(seek);
+				changed |= put(seek);
+			}
+			if (changed) {
+				notifyDataSetChanged();
 			}
-			notifyDataSetChanged();
 		}
 		
 		public void removeAll(SeekInfoList seeks) {
-			int index;
-			boolean removed = false;
+			boolean changed = false;
 			for (SeekInfo seek : seeks) {
-				index = -1;
-				for (int i = 0; i < getCount(); i++) {
-					if (seek.equals(getItem(i))) {
-						index = i;
-					}
-				}
-				if (index != -1) {
-					items.set(index, new EmptyItemStrategy(layoutInflater));
-					removed = true;
-				}
-				allItems.remove(seek);
-			}
-			if (removed) {
-				boolean clear = true;
-				for (ItemStrategy item : items) {
-					if (item.isEnabled()) {
-						clear = false;
-						break;
-					}
-				}
-				if (clear) {
-					items.clear();
-				}
+				changed |= remove(seek);
+			}
+			if (changed) {
 				notifyDataSetChanged();
 			}
 		}
 		
-		private void removeAll() {
-			if (!items.isEmpty()) {
-				items.clear();
-				notifyDataSetChanged();
+		public void setAll(SeekInfoList seeks) {
+			clear();
+			for (SeekInfo seek : seeks) {
+				put(seek);
 			}
-			allItems.clear();
+			notifyDataSetChanged();
 		}
 		
 		public void setGameTypeFilter(SeekFilter filter) {
@@ -443,13 +472,12 @@ public class SoughtActivity extends BaseFreechessActivity {
 		}
 		
 		private void refilter() {
-			List<SeekInfo> all = new ArrayList<SeekInfo>(allItems);
-			removeAll();
-			SeekInfoList list = new SeekInfoList();
-			for (SeekInfo seekInfo : all) {
-				list.add(seekInfo);
+			selection = filterIndex.select(gameTypeFilter, oppFilter, etimeFilter);
+			clearItems();
+			for (SeekInfo seek : selection.getSeeks()) {
+				show(seek);
 			}
-			addAll(list);
+			notifyDataSetChanged();
 		}
 		
 		private interface ItemStrategy {
@@ -463,8 +491,6 @@ public class SoughtActivity extends BaseFreechessActivity {
 			SeekInfo getItem();
 			
 			long getItemId();
-			
-			boolean isExpired();
 		}
 		
 		private static class SeekItemStrategy implements ItemStrategy {
@@ -520,11 +546,6 @@ public class SoughtActivity extends BaseFreechessActivity {
 				return seekInfo.getId();
 			}
 			
-			@Override
-			public boolean isExpired() {
-				return false;
-			}
-			
 			private static class ViewHolder {
 				
 				public TextView name;
@@ -538,12 +559,18 @@ public class SoughtActivity extends BaseFreechessActivity {
 			
 			private LayoutInflater layoutInflater;
 			
-			private Long expiryTime;
+			private int position;
+			private long expiryTime;
 			
-			public EmptyItemStrategy(LayoutInflater layoutInflater) {
+			public EmptyItemStrategy(LayoutInflater layoutInflater, int position) {
 				this.layoutInflater = layoutInflater;
+				this.position = position;
 				this.expiryTime = TimeUtils.getTimestamp() + 3000L;
 			}
+			
+			public int getPosition() {
+				return position;
+			}
 
 			@Override
 			public boolean isEnabled() {
@@ -573,7 +600,6 @@ public class SoughtActivity extends BaseFreechessActivity {
 				return 0;
 			}
 			
-			@Override
 			public boolean isExpired() {
 				return expiryTime < TimeUtils.getTimestamp();
 			}
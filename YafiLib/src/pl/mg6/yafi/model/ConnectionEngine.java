@@ -0,0 +1,391 @@
+package pl.mg6.yafi.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import pl.mg6.common.Logger;
+import pl.mg6.common.TimeUtils;
+
+public final class ConnectionEngine implements Runnable {
+
+	private static final String TAG = ConnectionEngine.class.getSimpleName();
+
+	private static final int READ_BUFFER_SIZE = 8192;
+	private static final int WRITE_BUFFER_SIZE = 1024;
+	private static final long SELECT_TIMEOUT = 1000L;
+
+	private final String name;
+	private final long idleTimeout;
+
+	private volatile Selector selector;
+	private volatile Thread thread;
+	private volatile boolean running;
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final Queue<Runnable> urgentTasks = new ConcurrentLinkedQueue<Runnable>();
+	private final List<Link> links = new ArrayList<Link>();
+
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+	public ConnectionEngine(String name, long idleTimeout) {
+		this.name = name;
+		this.idleTimeout = idleTimeout;
+	}
+
+	public synchronized void start() throws IOException {
+		if (thread == null) {
+			selector = Selector.open();
+			running = true;
+			thread = new Thread(this, name);
+			thread.start();
+		}
+	}
+
+	public void stop() {
+		running = false;
+		Selector s = selector;
+		if (s != null) {
+			s.wakeup();
+		}
+	}
+
+	public boolean isEngineThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	public void execute(Runnable task) {
+		tasks.offer(task);
+		Selector s = selector;
+		if (s != null) {
+			s.wakeup();
+		}
+	}
+	
+	public void executeUrgent(Runnable task) {
+		urgentTasks.offer(task);
+		Selector s = selector;
+		if (s != null) {
+			s.wakeup();
+		}
+	}
+
+	public Link open(final String[] hosts, final int[] ports, Session session) {
+		final Link link = new Link(session);
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				link.connect(hosts, ports);
+			}
+		});
+		return link;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				runTasks();
+				if (!running) {
+					break;
+				}
+				selector.select(SELECT_TIMEOUT);
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					Link link = (Link) key.attachment();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isConnectable()) {
+							link.finishConnect(key);
+						} else {
+							if (key.isReadable()) {
+								link.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								link.flush();
+							}
+						}
+					} catch (Throwable ex) {
+						link.close(ex);
+					}
+				}
+				checkTimeouts();
+			}
+		} catch (Throwable ex) {
+			Logger.e(TAG, "engine error", ex);
+		} finally {
+			running = false;
+			tasks.clear();
+			urgentTasks.clear();
+			for (Link link : new ArrayList<Link>(links)) {
+				link.close(null);
+			}
+			try {
+				selector.close();
+			} catch (IOException ex) {
+				// ignore
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task = nextTask();
+		while (task != null) {
+			try {
+				task.run();
+			} catch (Throwable ex) {
+				Logger.e(TAG, "task error", ex);
+			}
+			task = nextTask();
+		}
+	}
+	
+	private Runnable nextTask() {
+		Runnable task = urgentTasks.poll();
+		if (task == null) {
+			task = tasks.poll();
+		}
+		return task;
+	}
+
+	private void checkTimeouts() {
+		if (idleTimeout <= 0) {
+			return;
+		}
+		long now = TimeUtils.getTimestamp();
+		for (int i = links.size() - 1; i >= 0; i--) {
+			Link link = links.get(i);
+			if (now - link.lastActivity > idleTimeout) {
+				link.close(new SocketTimeoutException("no data for " + idleTimeout + "ms"));
+			}
+		}
+	}
+
+	public interface Session {
+
+		void onConnected(Link link) throws IOException;
+
+		void onReceived(Link link, ByteBuffer buffer) throws IOException;
+
+		void onClosed(Link link, Throwable cause);
+	}
+
+	public final class Link {
+
+		private final Session session;
+
+		private final List<SelectionKey> pending = new ArrayList<SelectionKey>();
+		private IOException connectError;
+
+		private SocketChannel channel;
+		private SelectionKey key;
+
+		private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+		private final OutputStream outputStream = new LinkOutputStream();
+
+		private long lastActivity;
+		private boolean closed;
+
+		private Link(Session session) {
+			this.session = session;
+		}
+
+		public OutputStream getOutputStream() {
+			return outputStream;
+		}
+
+		public void close() {
+			if (isEngineThread()) {
+				close(null);
+			} else {
+				execute(new Runnable() {
+					@Override
+					public void run() {
+						close(null);
+					}
+				});
+			}
+		}
+
+		private void connect(String[] hosts, int[] ports) {
+			links.add(this);
+			lastActivity = TimeUtils.getTimestamp();
+			for (int i = 0; i < hosts.length; i++) {
+				SocketChannel ch = null;
+				try {
+					InetSocketAddress address = new InetSocketAddress(hosts[i], ports[i]);
+					if (address.isUnresolved()) {
+						throw new UnknownHostException(hosts[i]);
+					}
+					ch = SocketChannel.open();
+					ch.configureBlocking(false);
+					ch.connect(address);
+					pending.add(ch.register(selector, SelectionKey.OP_CONNECT, this));
+				} catch (IOException ex) {
+					// UnknownHostException: freechess.org
+					// ConnectException: /69.36.243.188:23 - Network is unreachable
+					if (connectError == null) {
+						connectError = ex;
+					}
+					closeQuietly(ch);
+				}
+			}
+			if (pending.isEmpty()) {
+				close(connectError);
+			}
+		}
+
+		private void finishConnect(SelectionKey k) throws IOException {
+			SocketChannel ch = (SocketChannel) k.channel();
+			pending.remove(k);
+			try {
+				ch.finishConnect();
+			} catch (IOException ex) {
+				if (connectError == null) {
+					connectError = ex;
+				}
+				k.cancel();
+				closeQuietly(ch);
+				if (pending.isEmpty() && channel == null) {
+					close(connectError);
+				}
+				return;
+			}
+			for (SelectionKey other : pending) {
+				other.cancel();
+				closeQuietly((SocketChannel) other.channel());
+			}
+			pending.clear();
+			channel = ch;
+			key = k;
+			key.interestOps(SelectionKey.OP_READ);
+			lastActivity = TimeUtils.getTimestamp();
+			session.onConnected(this);
+		}
+
+		private void read() throws IOException {
+			readBuffer.clear();
+			int count = channel.read(readBuffer);
+			if (count == -1) {
+				close(null);
+				return;
+			}
+			lastActivity = TimeUtils.getTimestamp();
+			readBuffer.flip();
+			session.onReceived(this, readBuffer);
+		}
+
+		private void write(byte[] buffer, int offset, int count) {
+			if (writeBuffer.remaining() < count) {
+				int capacity = writeBuffer.capacity() << 1;
+				while (capacity - writeBuffer.position() < count) {
+					capacity <<= 1;
+				}
+				ByteBuffer tmp = ByteBuffer.allocateDirect(capacity);
+				writeBuffer.flip();
+				tmp.put(writeBuffer);
+				writeBuffer = tmp;
+			}
+			writeBuffer.put(buffer, offset, count);
+		}
+
+		private void flush() throws IOException {
+			if (channel == null || closed) {
+				return;
+			}
+			writeBuffer.flip();
+			try {
+				channel.write(writeBuffer);
+			} finally {
+				writeBuffer.compact();
+			}
+			if (key.isValid()) {
+				if (writeBuffer.position() > 0) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				} else {
+					key.interestOps(SelectionKey.OP_READ);
+				}
+			}
+		}
+
+		private void close(Throwable cause) {
+			if (closed) {
+				return;
+			}
+			if (cause == null && channel != null && writeBuffer.position() > 0) {
+				try {
+					writeBuffer.flip();
+					channel.write(writeBuffer);
+				} catch (IOException ex) {
+					// ignore
+				}
+			}
+			closed = true;
+			links.remove(this);
+			for (SelectionKey k : pending) {
+				k.cancel();
+				closeQuietly((SocketChannel) k.channel());
+			}
+			pending.clear();
+			if (key != null) {
+				key.cancel();
+			}
+			closeQuietly(channel);
+			try {
+				session.onClosed(this, cause);
+			} catch (Throwable ex) {
+				Logger.e(TAG, "session error", ex);
+			}
+		}
+
+		private void closeQuietly(SocketChannel ch) {
+			if (ch != null) {
+				try {
+					ch.close();
+				} catch (IOException ex) {
+					// ignore
+				}
+			}
+		}
+
+		private class LinkOutputStream extends OutputStream {
+
+			private final byte[] single = new byte[1];
+
+			@Override
+			public void write(int b) throws IOException {
+				single[0] = (byte) b;
+				write(single, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] buffer, int offset, int count) throws IOException {
+				if (closed) {
+					throw new ClosedChannelException();
+				}
+				Link.this.write(buffer, offset, count);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				Link.this.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package pl.mg6.yafi.model;
+
+import java.util.LinkedList;
+
+public final class ConsoleLog {
+
+	private static final int CHUNK_SIZE = 4096;
+
+	private final int maxLines;
+	private final int maxChars;
+
+	private final LinkedList<char[]> chunks = new LinkedList<char[]>();
+	private char[] spare;
+	private int head;
+	private int tail = CHUNK_SIZE;
+	private int length;
+	private int lineCount;
+
+	private long sequence;
+
+	public ConsoleLog(int maxLines, int maxChars) {
+		this.maxLines = maxLines;
+		this.maxChars = maxChars;
+	}
+
+	public synchronized Entry append(String text) {
+		int count = text.length();
+		int offset = 0;
+		while (offset < count) {
+			if (tail == CHUNK_SIZE) {
+				chunks.addLast(newChunk());
+				tail = 0;
+			}
+			char[] chunk = chunks.getLast();
+			int n = Math.min(count - offset, CHUNK_SIZE - tail);
+			text.getChars(offset, offset + n, chunk, tail);
+			for (int i = tail; i < tail + n; i++) {
+				if (chunk[i] == '\n') {
+					lineCount++;
+				}
+			}
+			tail += n;
+			offset += n;
+		}
+		length += count;
+		while (lineCount > maxLines || length > maxChars) {
+			evictLine();
+		}
+		sequence++;
+		return new Entry(sequence, text);
+	}
+
+	public synchronized Entry getSnapshot() {
+		StringBuilder builder = new StringBuilder(length);
+		int start = head;
+		int i = 0;
+		int last = chunks.size() - 1;
+		for (char[] chunk : chunks) {
+			builder.append(chunk, start, (i == last ? tail : CHUNK_SIZE) - start);
+			start = 0;
+			i++;
+		}
+		return new Entry(sequence, builder.toString());
+	}
+
+	private void evictLine() {
+		// drops the oldest line including its '\n', or just enough of a single overlong line
+		int excess = length - maxChars;
+		while (length > 0) {
+			char[] chunk = chunks.getFirst();
+			int end = chunks.size() == 1 ? tail : CHUNK_SIZE;
+			int i = head;
+			while (i < end && chunk[i] != '\n' && (lineCount > 0 || excess > 0)) {
+				i++;
+				excess--;
+			}
+			boolean newline = i < end && chunk[i] == '\n';
+			if (newline) {
+				i++;
+				lineCount--;
+			}
+			length -= i - head;
+			head = i;
+			if (head == end) {
+				spare = chunks.removeFirst();
+				head = 0;
+				if (chunks.isEmpty()) {
+					tail = CHUNK_SIZE;
+				}
+			}
+			if (newline || lineCount == 0 && excess <= 0) {
+				return;
+			}
+		}
+	}
+
+	private char[] newChunk() {
+		char[] chunk = spare;
+		if (chunk == null) {
+			return new char[CHUNK_SIZE];
+		}
+		spare = null;
+		return chunk;
+	}
+
+	public static final class Entry {
+
+		private final long sequence;
+		private final String text;
+
+		private Entry(long sequence, String text) {
+			this.sequence = sequence;
+			this.text = text;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public String getText() {
+			return text;
+		}
+	}
+}
@@ -1,19 +1,16 @@
 package pl.mg6.yafi.model;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-import pl.mg6.common.Settings;
-import android.os.Build;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Message;
-import android.util.Log;
+import pl.mg6.common.BuildSettings;
+import pl.mg6.common.Logger;
 
-public final class FreechessConnection implements Runnable, Handler.Callback {
+public final class FreechessConnection implements ConnectionEngine.Session, FreechessDecoder.Listener {
 	
 	private static final String TAG = FreechessConnection.class.getSimpleName();
 	
@@ -24,25 +21,45 @@ public final class FreechessConnection implements Runnable, Handler.Callback {
 	private static final String ALT_SERVER_NAME = "167.114.65.195";
 	private static final int ALT_SERVER_PORT = 23;
 	
+	private static final long READ_TIMEOUT = 5 * 60 * 1000;
+	
 	private final String username;
 	private final String password;
 	private final String interfaceName;
+	private final String deviceName;
 	private String realUsername;
 	private boolean registered;
+	private String[] serverNames = { SERVER_NAME, ALT_SERVER_NAME };
+	private int[] serverPorts = { SERVER_PORT, ALT_SERVER_PORT };
 	
 	private ConnectionState state;
 	
-	private Thread readerThread;
-	private HandlerThread writerThread;
-	private Handler writerHandler;
+	// null while disconnected, so commands sent then are dropped
+	private volatile ConnectionEngine engine;
+	private ConnectionEngine sharedEngine;
+	private ConnectionEngine.Link link;
 	
-	private static final int MSG_ID_COMMAND = 666;
+	private final List<Queue<String>> commands;
+	private final Runnable writeCommands = new Runnable() {
+		@Override
+		public void run() {
+			writeCommands();
+		}
+	};
 	
-	private ConnectionProtocol protocol;
+	private TimesealProtocolImpl protocol;
+	private FreechessDecoder decoder;
 	
 	private StringBuilder readerBuffer;
 	
-	public FreechessConnection(String username, String password, String interfaceName) {
+	private SessionCapture capture;
+	private LagEstimator lagEstimator;
+	
+	private int readTime;
+	private int frameStart;
+	private boolean framePending;
+	
+	public FreechessConnection(String username, String password, String interfaceName, String deviceName) {
 		if (username.length() == 0 || "g".equalsIgnoreCase(username)) {
 			username = "guest";
 		}
@@ -52,15 +69,61 @@ public final class FreechessConnection implements Runnable, Handler.Callback {
 		this.username = username;
 		this.password = password;
 		this.interfaceName = interfaceName;
+		this.deviceName = deviceName;
 		state = ConnectionState.NotConnected;
+		commands = new ArrayList<Queue<String>>(FreechessUtils.PRIORITY_COUNT);
+		for (int i = 0; i < FreechessUtils.PRIORITY_COUNT; i++) {
+			commands.add(new ConcurrentLinkedQueue<String>());
+		}
+	}
+	
+	// points the connection at another server, e.g. a local simulator
+	public void setServer(String name, int port) {
+		serverNames = new String[] { name };
+		serverPorts = new int[] { port };
+	}
+	
+	// records every inbound frame; the capture is closed with the connection
+	public void setCapture(SessionCapture capture) {
+		this.capture = capture;
+	}
+	
+	// times pings and moves; the model completes the round trips
+	public void setLagEstimator(LagEstimator lagEstimator) {
+		this.lagEstimator = lagEstimator;
+	}
+	
+	// runs the connection on an engine shared with other connections instead of a thread of its own;
+	// whoever owns the engine starts and stops it
+	public void setEngine(ConnectionEngine engine) {
+		sharedEngine = engine;
 	}
 	
 	public void connect() {
 		if (!FreechessUtils.validateUsername(username)) {
 			notifyInvalidUsername();
 		} else {
-			readerThread = new Thread(this, getClass().getSimpleName() + "Reader");
-			readerThread.start();
+			ConnectionEngine current = sharedEngine;
+			if (current == null) {
+				current = new ConnectionEngine(getClass().getSimpleName() + "Engine", READ_TIMEOUT);
+				try {
+					current.start();
+				} catch (IOException ex) {
+					Logger.e(TAG, "connection error", ex);
+					state = ConnectionState.Disconnected;
+					notifyDisconnected();
+					return;
+				}
+			}
+			engine = current;
+			current.execute(new Runnable() {
+				@Override
+				public void run() {
+					state = ConnectionState.Connecting;
+					notifyConnecting();
+				}
+			});
+			link = current.open(serverNames, serverPorts, this);
 		}
 	}
 	
@@ -74,6 +137,9 @@ public final class FreechessConnection implements Runnable, Handler.Callback {
 	
 	public void forceEnd() {
 		state = ConnectionState.Disconnected;
+		if (link != null) {
+			link.close();
+		}
 	}
 	
 	public String getRealUsername() {
@@ -85,169 +151,153 @@ public final class FreechessConnection implements Runnable, Handler.Callback {
 	}
 	
 	@Override
-	public void run() {
-		Thread current = Thread.currentThread();
-		if (current == readerThread) {
-			runReaderThread();
+	public void onConnected(ConnectionEngine.Link link) throws IOException {
+		readerBuffer = new StringBuilder(4096);
+		decoder = new FreechessDecoder(this);
+		protocol = new TimesealProtocolImpl(link.getOutputStream());
+		
+		write(String.format("TIMESTAMP|%s|%s|\n", interfaceName, deviceName));
+		// compressmove audiochat    seekremove   defprompt
+		// lock         startpos     block        gameinfo
+		// [xdr]        pendinfo     graph        seekinfo
+		// extascii     nohighlight  vthighlight  showserver
+		// pin          ms           pinginfo     boardinfo
+		// extuserinfo  seekca       showownseek  premove
+		// smartmove    movecase     suicide      crazyhouse
+		// losers       wildcastle   fr           nowrap
+		// allresults   [obsping]    singleboard
+		write("%b00011000000001000100100000000001000\n");
+		writeCommands();
+	}
+	
+	@Override
+	public void onReceived(ConnectionEngine.Link link, ByteBuffer buffer) throws IOException {
+		if (PipelineTrace.isEnabled()) {
+			readTime = PipelineTrace.getTime();
+			if (!framePending) {
+				frameStart = readTime;
+			}
+			decoder.decode(buffer);
+			framePending = decoder.hasPartialFrame();
+		} else {
+			decoder.decode(buffer);
+		}
+		if (lagEstimator != null && state == ConnectionState.LoggedOn && lagEstimator.startPing()) {
+			writePing();
+		}
+		if (state == ConnectionState.Disconnected) {
+			link.close();
 		}
 	}
 	
-	private void runReaderThread() {
-		final Object[] socketAndErrors = new Object[3];
-		Socket socket = null;
-		InputStream istream = null;
-		OutputStream ostream = null;
+	@Override
+	public void onClosed(ConnectionEngine.Link link, Throwable cause) {
 		try {
-			state = ConnectionState.Connecting;
-			notifyConnecting();
-			
-			synchronized (socketAndErrors) {
-				
-				new Thread() {
-					@Override
-					public void run() {
-						try {
-							Socket s = new Socket(SERVER_NAME, SERVER_PORT);
-							synchronized (socketAndErrors) {
-								if (socketAndErrors[0] == null) {
-									socketAndErrors[0] = s;
-									socketAndErrors.notify();
-								} else {
-									s.close();
-								}
-							}
-						} catch (IOException ex) {
-							synchronized (socketAndErrors) {
-								socketAndErrors[1] = ex;
-								if (socketAndErrors[2] != null) {
-									socketAndErrors.notify();
-								}
-							}
-						}
-					}
-				}.start();
-				
-				new Thread() {
-					@Override
-					public void run() {
-						try {
-							Socket s = new Socket(ALT_SERVER_NAME, ALT_SERVER_PORT);
-							synchronized (socketAndErrors) {
-								if (socketAndErrors[0] == null) {
-									socketAndErrors[0] = s;
-									socketAndErrors.notify();
-								} else {
-									s.close();
-								}
-							}
-						} catch (IOException ex) {
-							synchronized (socketAndErrors) {
-								socketAndErrors[2] = ex;
-								if (socketAndErrors[1] != null) {
-									socketAndErrors.notify();
-								}
-							}
-						}
-					}
-				}.start();
-				
-				socketAndErrors.wait();
-				socket = (Socket) socketAndErrors[0];
-				if (socket == null) {
-					throw (Exception) socketAndErrors[1];
+			if (cause == null && protocol != null) {
+				if (state != ConnectionState.Disconnected) {
+					decoder.finish();
+				}
+				int len = "fics% ".length();
+				while (readerBuffer.length() >= len && readerBuffer.substring(0, len).equals("fics% ")) {
+					readerBuffer.delete(0, len);
+				}
+				if (readerBuffer.length() > 0) {
+					notifyReceivedOutput(readerBuffer.toString());
 				}
 			}
-			socket.setSoTimeout(5 * 60 * 1000);
-			istream = new BufferedInputStream(socket.getInputStream());
-			ostream = socket.getOutputStream();
-			protocol = new TimesealProtocolImpl(istream, ostream);
-			
-			writerThread = new HandlerThread(getClass().getSimpleName() + "Writer");
-			writerThread.start();
-			writerHandler = new Handler(writerThread.getLooper(), this);
-			
-			send(String.format("TIMESTAMP|%s|%s|\n", interfaceName, Build.MODEL));
-			// compressmove audiochat    seekremove   defprompt
-			// lock         startpos     block        gameinfo
-			// [xdr]        pendinfo     graph        seekinfo
-			// extascii     nohighlight  vthighlight  showserver
-			// pin          ms           pinginfo     boardinfo
-			// extuserinfo  seekca       showownseek  premove
-			// smartmove    movecase     suicide      crazyhouse
-			// losers       wildcastle   fr           nowrap
-			// allresults   [obsping]    singleboard
-			send("%b00011000000001000100100000000001000\n");
-			
-			loop();
-			
 		} catch (Throwable ex) {
+			Logger.e(TAG, "connection error", ex);
+		}
+		if (cause != null) {
 			// UnknownHostException: freechess.org
 			// SocketException: Connection reset by peer
 			// SocketTimeoutException: Connection timed out
 			// ConnectException: /69.36.243.188:23 - Network is unreachable
-			Log.e(TAG, "connection error", ex);
-		} finally {
-			
-			state = ConnectionState.Disconnected;
-			notifyDisconnected();
-			
-			if (writerHandler != null) {
-				writerHandler.getLooper().quit();
-				writerHandler = null;
-				writerThread = null;
-			}
-			
-			protocol = null;
-			
-			if (ostream != null) {
-				try {
-					ostream.flush();
-					ostream.close();
-				} catch (IOException ex) {
-					// ignore
-				}
-				ostream = null;
-			}
-			if (istream != null) {
-				try {
-					istream.close();
-				} catch (IOException ex) {
-					// ignore
-				}
-				istream = null;
-			}
-			if (socketAndErrors[0] != null) {
-				try {
-					socket.close();
-				} catch (IOException ex) {
-					// ignore
-				}
-				socket = null;
+			Logger.e(TAG, "connection error", cause);
+		}
+		
+		state = ConnectionState.Disconnected;
+		notifyDisconnected();
+		closeCapture();
+		
+		protocol = null;
+		for (Queue<String> queue : commands) {
+			queue.clear();
+		}
+		ConnectionEngine closedEngine = engine;
+		engine = null;
+		if (closedEngine != null && closedEngine != sharedEngine) {
+			closedEngine.stop();
+		}
+	}
+	
+	@Override
+	public void onStamp() throws IOException {
+		protocol.writeStampReply();
+		protocol.flush();
+		if (capture != null) {
+			try {
+				capture.writeStamp();
+			} catch (IOException ex) {
+				Logger.e(TAG, "capture error", ex);
+				closeCapture();
 			}
 		}
 	}
 	
-	private void loop() throws IOException {
-		readerBuffer = new StringBuilder(4096);
-		byte[] readBuffer = new byte[4096];
-		int count = protocol.read(readBuffer);
-		while (state != ConnectionState.Disconnected && count != -1) {
-			parse(readBuffer, count);
-			count = protocol.read(readBuffer);
+	@Override
+	public void onData(byte[] buffer, int offset, int count) {
+		parse(new String(buffer, offset, count));
+	}
+	
+	@Override
+	public void onLine(byte[] buffer, int offset, int count, boolean first) {
+		notifyReceivedLine(buffer, offset, count, first);
+	}
+	
+	@Override
+	public void onFrame(byte[] buffer, int offset, int count) {
+		if (capture != null) {
+			try {
+				capture.writeFrame(buffer, offset, count);
+			} catch (IOException ex) {
+				Logger.e(TAG, "capture error", ex);
+				closeCapture();
+			}
 		}
-		int len = "fics% ".length();
-		while (readerBuffer.length() >= len && readerBuffer.substring(0, len).equals("fics% ")) {
-			readerBuffer.delete(0, len);
+		String output = new String(buffer, offset, count);
+		if (PipelineTrace.isEnabled()) {
+			// the rest of the current read belongs to the next frame
+			int start = frameStart;
+			frameStart = readTime;
+			int type = PipelineTrace.getType(output);
+			PipelineTrace.record(type, PipelineTrace.STAGE_FRAMED, start);
+			PipelineTrace.beginFrame(type, start);
+			try {
+				notifyReceivedOutput(output);
+			} finally {
+				PipelineTrace.endFrame();
+			}
+			PipelineTrace.record(type, PipelineTrace.STAGE_PARSED, start);
+		} else {
+			notifyReceivedOutput(output);
 		}
-		if (readerBuffer.length() > 0) {
-			notifyReceivedOutput(readerBuffer.toString());
+	}
+	
+	private void closeCapture() {
+		if (capture != null) {
+			try {
+				capture.close();
+			} catch (IOException ex) {
+				// ignore
+			}
+			capture = null;
 		}
 	}
 	
-	private void parse(byte[] buffer, int count) {
-		String str = new String(buffer, 0, count);
-		if (Settings.LOG_SERVER_COMMUNICATION) {
-			//Log.i(TAG, "data: [" + str.replace("\n\n\n\n", "\n \n \n \n").replace("\n\n\n", "\n \n \n").replace("\n\n", "\n \n") + "]");
+	private void parse(String str) {
+		if (BuildSettings.LOG_SERVER_COMMUNICATION) {
+			//Logger.i(TAG, "data: [" + str.replace("\n\n\n\n", "\n \n \n \n").replace("\n\n\n", "\n \n \n").replace("\n\n", "\n \n") + "]");
 		}
 		readerBuffer.append(str);
 		int index;
@@ -322,6 +372,10 @@ public final class FreechessConnection implements Runnable, Handler.Callback {
 					send("finger yafi\n");
 					state = ConnectionState.LoggedOn;
 					notifyLoggedOn();
+					byte[] rest = readerBuffer.toString().getBytes();
+					readerBuffer.setLength(0);
+					decoder.setFraming(true);
+					decoder.frame(rest, 0, rest.length);
 					break;
 				}
 				index = readerBuffer.indexOf(" is already logged in ***");
@@ -332,22 +386,6 @@ public final class FreechessConnection implements Runnable, Handler.Callback {
 				}
 				break;
 			}
-			case LoggedOn: {
-				int len = "fics% ".length();
-				while (readerBuffer.length() >= len && readerBuffer.substring(0, len).equals("fics% ")) {
-					readerBuffer.delete(0, len);
-				}
-				index = readerBuffer.indexOf("\nfics% ");
-				while (index != -1) {
-					String output = readerBuffer.substring(0, index + "\n".length());
-					readerBuffer.delete(0, index + "\nfics% ".length());
-					notifyReceivedOutput(output);
-					while (readerBuffer.length() >= len && readerBuffer.substring(0, len).equals("fics% ")) {
-						readerBuffer.delete(0, len);
-					}
-					index = readerBuffer.indexOf("\nfics% ");
-				}
-			}
 		}
 	}
 	
@@ -363,27 +401,103 @@ public final class FreechessConnection implements Runnable, Handler.Callback {
 	}
 	
 	public void send(String cmd) {
-		if (writerHandler != null) {
-			writerHandler.sendMessage(writerHandler.obtainMessage(MSG_ID_COMMAND, cmd));
+		send(cmd, FreechessUtils.getCommandPriority(cmd));
+	}
+	
+	public void send(String cmd, int priority) {
+		ConnectionEngine current = engine;
+		if (current != null) {
+			commands.get(priority).offer(cmd);
+			if (priority == FreechessUtils.PRIORITY_MOVE) {
+				current.executeUrgent(writeCommands);
+			} else {
+				current.execute(writeCommands);
+			}
 		}
 	}
 	
-	@Override
-	public boolean handleMessage(Message msg) {
-		String cmd = (String) msg.obj;
-		write(cmd);
-		return true;
+	public void execute(Runnable task) {
+		ConnectionEngine current = engine;
+		if (current != null) {
+			current.execute(task);
+		}
+	}
+	
+	public void sendMove(final String move, final long touchTime) {
+		ConnectionEngine current = engine;
+		if (current == null) {
+			return;
+		}
+		if (current.isEngineThread()) {
+			writeMove(move, touchTime);
+		} else {
+			current.executeUrgent(new Runnable() {
+				@Override
+				public void run() {
+					writeMove(move, touchTime);
+				}
+			});
+		}
+	}
+	
+	private void writeMove(String move, long touchTime) {
+		if (protocol == null) {
+			return;
+		}
+		if (lagEstimator != null) {
+			lagEstimator.onMoveSent();
+		}
+		write(move);
+		try {
+			protocol.flush();
+		} catch (Throwable ex) {
+			// SocketException: Broken pipe
+			Logger.e(TAG, "writing error", ex);
+		}
+		if (BuildSettings.LOG_MOVE_LATENCY && touchTime != 0) {
+			Logger.d(TAG, "move [" + move.trim() + "] touch-to-wire " + (System.nanoTime() - touchTime) / 1000 + "us");
+		}
+	}
+	
+	// written right away, so the round trip does not include time spent in the queue
+	private void writePing() {
+		write(FreechessUtils.PING_CMD + "\n");
+		try {
+			protocol.flush();
+		} catch (Throwable ex) {
+			// SocketException: Broken pipe
+			Logger.e(TAG, "writing error", ex);
+		}
+	}
+	
+	private void writeCommands() {
+		if (protocol == null) {
+			return;
+		}
+		for (Queue<String> queue : commands) {
+			String cmd = queue.poll();
+			while (cmd != null) {
+				write(cmd);
+				cmd = queue.poll();
+			}
+		}
+		try {
+			protocol.flush();
+		} catch (Throwable ex) {
+			// SocketException: Broken pipe
+			Logger.e(TAG, "writing error", ex);
+		}
 	}
 	
 	private void write(String cmd) {
 		try {
 			protocol.write(cmd.getBytes());
-			if (Settings.LOG_SERVER_COMMUNICATION) {
-				Log.d(TAG, "sent: [" + (cmd.endsWith("\n") ? cmd.substring(0, cmd.length() - 1) : cmd) + "]");
+			if (BuildSettings.LOG_SERVER_COMMUNICATION) {
+				Logger.d(TAG, "sent: [" + (cmd.endsWith("\n") ? cmd.substring(0, cmd.length() - 1) : cmd) + "]");
 			}
 		} catch (Throwable ex) {
 			// SocketException: Broken pipe
-			Log.e(TAG, "writing error", ex);
+			Logger.e(TAG, "writing error", ex);
 		}
 	}
 	
@@ -435,6 +549,12 @@ public final class FreechessConnection implements Runnable, Handler.Callback {
 		}
 	}
 	
+	private void notifyReceivedLine(byte[] buffer, int offset, int count, boolean first) {
+		if (listener != null) {
+			listener.onReceivedLine(buffer, offset, count, first);
+		}
+	}
+	
 	private void notifyReceivedOutput(String output) {
 		if (listener != null) {
 			listener.onReceivedOutput(output);
@@ -463,6 +583,8 @@ public final class FreechessConnection implements Runnable, Handler.Callback {
 		
 		void onDisconnected();
 		
+		void onReceivedLine(byte[] buffer, int offset, int count, boolean first);
+		
 		void onReceivedOutput(String output);
 	}
 }
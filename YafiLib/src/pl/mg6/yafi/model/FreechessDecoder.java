@@ -0,0 +1,200 @@
+package pl.mg6.yafi.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public final class FreechessDecoder {
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+
+	private static final byte[] stamp = "\n[G]\n".getBytes();
+	private static final int[] stampFallback = { 0, 0, 0, 0, 1 };
+	private static final byte[] prompt = "\nfics% ".getBytes();
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int READ_SIZE = 4096;
+
+	private final Listener listener;
+
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int frameOffset;
+	private int lineOffset;
+	private int limit;
+
+	private boolean framing;
+	private boolean frameStart = true;
+	private int stampMatched;
+	private int promptMatched;
+
+	public FreechessDecoder(Listener listener) {
+		this.listener = listener;
+	}
+
+	public boolean isFraming() {
+		return framing;
+	}
+
+	public void setFraming(boolean framing) {
+		this.framing = framing;
+	}
+
+	// whether some bytes of the next frame have already been decoded
+	public boolean hasPartialFrame() {
+		return limit > frameOffset;
+	}
+
+	public void decode(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			int count = Math.min(data.remaining(), READ_SIZE);
+			int offset = reserve(count + stamp.length) + stamp.length;
+			data.get(buffer, offset, count);
+			decode(offset, count);
+		}
+	}
+
+	public void decode(byte[] data, int offset, int count) throws IOException {
+		int position = reserve(count + stamp.length) + stamp.length;
+		System.arraycopy(data, offset, buffer, position, count);
+		decode(position, count);
+	}
+
+	private void decode(int offset, int count) throws IOException {
+		// decoded bytes are written back in place, behind the read position;
+		// the gap of stamp.length bytes leaves room for a held partial stamp
+		int matched = stampMatched;
+		int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			byte b = buffer[i];
+			if (b == CR) {
+				continue;
+			}
+			while (matched > 0 && b != stamp[matched]) {
+				int fallback = stampFallback[matched - 1];
+				for (int j = 0; j < matched - fallback; j++) {
+					put(stamp[j]);
+				}
+				matched = fallback;
+			}
+			if (b == stamp[matched]) {
+				matched++;
+				if (matched == stamp.length) {
+					matched = 0;
+					listener.onStamp();
+				}
+			} else {
+				put(b);
+			}
+		}
+		stampMatched = matched;
+		flushData();
+	}
+
+	public void frame(byte[] data, int offset, int count) {
+		reserve(count);
+		int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			put(data[i]);
+		}
+		flushData();
+	}
+
+	public void finish() {
+		reserve(stampMatched);
+		for (int i = 0; i < stampMatched; i++) {
+			put(stamp[i]);
+		}
+		stampMatched = 0;
+		flushData();
+		if (limit > frameOffset) {
+			int offset = frameOffset;
+			frameOffset = limit;
+			listener.onFrame(buffer, offset, limit - offset);
+		}
+		frameOffset = 0;
+		lineOffset = 0;
+		limit = 0;
+	}
+
+	private int reserve(int count) {
+		if (buffer.length - limit < count) {
+			int length = limit - frameOffset;
+			byte[] dest = buffer;
+			if (dest.length - length < count) {
+				int capacity = dest.length << 1;
+				while (capacity - length < count) {
+					capacity <<= 1;
+				}
+				dest = new byte[capacity];
+			}
+			System.arraycopy(buffer, frameOffset, dest, 0, length);
+			buffer = dest;
+			lineOffset -= frameOffset;
+			frameOffset = 0;
+			limit = length;
+		}
+		return limit;
+	}
+
+	private void put(byte b) {
+		buffer[limit++] = b;
+		if (!framing) {
+			return;
+		}
+		if (frameStart) {
+			int index = limit - frameOffset;
+			if (b == prompt[index]) {
+				if (index == prompt.length - 1) {
+					frameOffset = limit;
+					lineOffset = limit;
+				}
+				return;
+			}
+			frameStart = false;
+		}
+		if (b == prompt[promptMatched]) {
+			promptMatched++;
+			if (promptMatched == prompt.length) {
+				int offset = frameOffset;
+				frameOffset = limit;
+				lineOffset = limit;
+				promptMatched = 0;
+				frameStart = true;
+				listener.onFrame(buffer, offset, limit - offset - (prompt.length - 1));
+				return;
+			}
+		} else {
+			promptMatched = b == prompt[0] ? 1 : 0;
+		}
+		if (b == LF) {
+			// lines are reported while the rest of the frame is still arriving
+			int offset = lineOffset;
+			lineOffset = limit;
+			listener.onLine(buffer, offset, limit - offset, offset == frameOffset);
+		}
+	}
+
+	private void flushData() {
+		if (!framing && limit > frameOffset) {
+			int offset = frameOffset;
+			frameOffset = limit;
+			listener.onData(buffer, offset, limit - offset);
+		}
+		if (frameOffset == limit) {
+			frameOffset = 0;
+			lineOffset = 0;
+			limit = 0;
+		}
+	}
+
+	public interface Listener {
+
+		void onStamp() throws IOException;
+
+		void onData(byte[] buffer, int offset, int count);
+
+		void onLine(byte[] buffer, int offset, int count, boolean first);
+
+		void onFrame(byte[] buffer, int offset, int count);
+	}
+}
@@ -4,16 +4,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 
-import pl.mg6.common.Settings;
+import pl.mg6.common.BuildSettings;
+import pl.mg6.common.Logger;
 import pl.mg6.yafi.model.data.AdjournedInfo;
 import pl.mg6.yafi.model.data.Communication;
 import pl.mg6.yafi.model.data.FingerInfo;
 import pl.mg6.yafi.model.data.Game;
+import pl.mg6.yafi.model.data.GameSnapshot;
 import pl.mg6.yafi.model.data.HistoryInfo;
 import pl.mg6.yafi.model.data.InchannelInfo;
 import pl.mg6.yafi.model.data.JournalInfo;
@@ -25,35 +30,60 @@ import pl.mg6.yafi.model.data.SeekInfo;
 import pl.mg6.yafi.model.data.SeekInfoList;
 import pl.mg6.yafi.model.data.VariablesInfo;
 import pl.mg6.yafi.model.data.WelcomeData;
-import android.util.Log;
 
 public class FreechessModel {
 	
 	private static final String TAG = FreechessModel.class.getSimpleName();
 	
+	private static final int CONSOLE_MAX_LINES = 5000;
+	private static final int CONSOLE_MAX_CHARS = 256 * 1024;
+	
+	private static final byte[] SEEKINFO_SET_LINE = "seekinfo set.\n".getBytes();
+	private static final byte[] SEEKINFO_CLEAR_LINE = "<sc>\n".getBytes();
+	
+	private static final int SEEKINFO_NONE = 0;
+	private static final int SEEKINFO_SET_STARTED = 1;
+	private static final int SEEKINFO_SET_STREAMING = 2;
+	
+	private static final int SEEKINFO_BATCH_MIN = 8;
+	private static final int SEEKINFO_BATCH_MAX = 128;
+	
 	private Listener listener;
 	
-	private String output;
+	private ConsoleLog console;
 	
 	private Map<Integer, Game> activeGames;
 	private Map<UUID, Game> allGames;
 	
+	private Map<UUID, Queue<String>> premoves;
+	// ply of the position the last premove was fired at, until the server moves past it
+	private Map<UUID, Integer> firedPremoves;
+	
 	private Map<String, List<Communication>> allCommunication;
 	
 	private int currentVersion = Integer.MAX_VALUE;
 	private boolean currentVersionOld;
 	
 	private WelcomeData welcomeData;
+	
+	private final LagEstimator lagEstimator = new LagEstimator();
 	private boolean yafiFingered;
 	
+	private int seekInfoState;
+	private SeekInfoList seekInfoBatch;
+	private int seekInfoBatchSize;
+	private boolean seekInfoSetSent;
+	
 	public FreechessModel() {
 		init();
 	}
 	
 	private void init() {
-		output = "";
+		console = new ConsoleLog(CONSOLE_MAX_LINES, CONSOLE_MAX_CHARS);
 		activeGames = new HashMap<Integer, Game>();
-		allGames = new HashMap<UUID, Game>();
+		allGames = new ConcurrentHashMap<UUID, Game>();
+		premoves = new HashMap<UUID, Queue<String>>();
+		firedPremoves = new HashMap<UUID, Integer>();
 		allCommunication = new HashMap<String, List<Communication>>();
 	}
 	
@@ -65,14 +95,60 @@ public class FreechessModel {
 		return currentVersionOld;
 	}
 	
-	public String getOutput() {
-		return output;
+	public ConsoleLog.Entry getOutput() {
+		return console.getSnapshot();
+	}
+	
+	private void appendOutput(String text) {
+		notifyOutput(console.append(text));
 	}
 	
 	public Game getGame(UUID gameId) {
 		return allGames.get(gameId);
 	}
 	
+	public void addPremove(UUID gameId, String move) {
+		Queue<String> queue = premoves.get(gameId);
+		if (queue == null) {
+			queue = new LinkedList<String>();
+			premoves.put(gameId, queue);
+		}
+		queue.offer(move);
+		Game game = allGames.get(gameId);
+		if (game != null) {
+			firePremove(game);
+		}
+	}
+	
+	public void cancelPremoves(UUID gameId) {
+		premoves.remove(gameId);
+	}
+	
+	private void firePremove(Game game) {
+		UUID gameId = game.getUUID();
+		Queue<String> queue = premoves.get(gameId);
+		if (queue == null || game.getRelation() != Game.RELATION_PLAYING_MY_MOVE) {
+			return;
+		}
+		int ply = game.getPosition(game.getPositionCount() - 1).getMoveIndex();
+		Integer fired = firedPremoves.get(gameId);
+		if (fired != null && fired.intValue() == ply) {
+			// a premove for this turn is still on its way
+			return;
+		}
+		firedPremoves.put(gameId, ply);
+		String move = queue.poll();
+		if (queue.isEmpty()) {
+			premoves.remove(gameId);
+		}
+		notifyPremove(gameId, move);
+	}
+	
+	private void dropPremoves(UUID gameId) {
+		premoves.remove(gameId);
+		firedPremoves.remove(gameId);
+	}
+	
 	public List<UUID> getAllGamesIds() {
 		List<UUID> allGamesIds = new ArrayList<UUID>(allGames.size());
 		UUID[] array = allGames.keySet().toArray(new UUID[allGames.size()]);
@@ -82,8 +158,19 @@ public class FreechessModel {
 		return allGamesIds;
 	}
 	
+	public GameSnapshot getGameSnapshot(UUID gameId) {
+		Game game = allGames.get(gameId);
+		return game != null ? game.getSnapshot() : null;
+	}
+	
+	public void toggleUserFlip(UUID gameId) {
+		Game game = allGames.get(gameId);
+		if (game != null) {
+			game.toggleUserFlip();
+		}
+	}
+	
 	public void removeGame(UUID gameId) {
-		activeGames.remove(gameId);
 		allGames.remove(gameId);
 	}
 	
@@ -122,445 +209,620 @@ public class FreechessModel {
 		return allCommunicationIds;
 	}
 	
+	public LagEstimator getLagEstimator() {
+		return lagEstimator;
+	}
+	
 	public WelcomeData getWelcomeData() {
 		return welcomeData;
 	}
 	
-	public boolean parse(String output) {
-		Matcher m;
-		m = FreechessUtils.HACK_MULTIPLE_ACCEPTS.matcher(output);
-		if (m.find()) {
-			this.output += m.group() + "yafi% ";
-			parse(output.substring(m.end()));
-			return true;
-		}
-		m = FreechessUtils.HACK_POSTED_MANUAL_SEEK.matcher(output);
-		if (m.find()) {
-			this.output += m.group() + "yafi% ";
-			parse(output.substring(m.end()));
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_MOVE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoMove(m);
-			return false;
-		}
-		m = FreechessUtils.GAMEINFO_ACCEPT_DECLINE_MOVE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoAcceptDeclineMove(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_ILLEGAL_MOVE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoIllegalMove(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_CREATING.matcher(output);
-		if (m.matches()) {
-			parseGameInfoCreating(m);
-			this.output += m.group(1) + m.group(6) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_OBSERVING.matcher(output);
-		if (m.matches()) {
-			parseGameInfoObserving(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_FOLLOWING.matcher(output);
-		if (m.matches()) {
-			parseGameInfoFollowing(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_EXAMINING.matcher(output);
-		if (m.matches()) {
-			parseGameInfoExamining(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_NOTE_MOVE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoNoteMove(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_NOTE_MOVE_NOTE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoNoteMoveNote(m);
-			this.output += m.group(1) + m.group(4) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_MOVE_NOTE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoMoveNote(m);
-			this.output += m.group(2) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_MORETIME_MOVE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoMoretimeMove(m);
-			this.output += m.group(1) + "yafi% ";
-		}
-		m = FreechessUtils.GAMEINFO_MOVE_END.matcher(output);
-		if (m.matches()) {
-			parseGameInfoMoveEnd(m);
-			this.output += m.group(2) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_END_MOVE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoEndMove(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_AUTOFLAGGING_MOVE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoAutoflaggingMove(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.SEEKINFO_SET.matcher(output);
-		if (m.matches()) {
-			parseSeekInfoSet(m);
-			return false;
+	public void parseLine(byte[] buffer, int offset, int count, boolean first) {
+		if (first) {
+			seekInfoState = isLine(buffer, offset, count, SEEKINFO_SET_LINE) ? SEEKINFO_SET_STARTED : SEEKINFO_NONE;
+		} else if (seekInfoState == SEEKINFO_SET_STARTED) {
+			if (isLine(buffer, offset, count, SEEKINFO_CLEAR_LINE)) {
+				seekInfoState = SEEKINFO_SET_STREAMING;
+				seekInfoBatch = new SeekInfoList();
+				seekInfoBatchSize = SEEKINFO_BATCH_MIN;
+				seekInfoSetSent = false;
+			} else {
+				seekInfoState = SEEKINFO_NONE;
+			}
+		} else if (seekInfoState == SEEKINFO_SET_STREAMING) {
+			SeekInfo seekInfo = SeekInfo.fromLine(buffer, offset, count);
+			if (seekInfo != null && !"crazyhouse".equals(seekInfo.getType())) {
+				seekInfoBatch.add(seekInfo);
+				if (seekInfoBatch.size() == seekInfoBatchSize) {
+					// first rows go out quickly, later batches grow to keep the message count down
+					flushSeekInfoBatch();
+					seekInfoBatchSize = Math.min(2 * seekInfoBatchSize, SEEKINFO_BATCH_MAX);
+				}
+			}
 		}
-		m = FreechessUtils.SEEKINFO_SET_ERROR.matcher(output);
-		if (m.matches()) {
-			parseSeekInfoSetError(m);
+	}
+	
+	private static boolean isLine(byte[] buffer, int offset, int count, byte[] line) {
+		if (count != line.length) {
 			return false;
 		}
-		m = FreechessUtils.SEEKINFO_SEEK.matcher(output);
-		if (m.matches()) {
-			parseSeekInfoSeek(m);
-			return false;
+		for (int i = 0; i < count; i++) {
+			if (buffer[offset + i] != line[i]) {
+				return false;
+			}
 		}
-		m = FreechessUtils.SEEKINFO_REMOVE.matcher(output);
-		if (m.matches()) {
-			parseSeekInfoRemove(m);
-			return false;
+		return true;
+	}
+	
+	private void flushSeekInfoBatch() {
+		if (!seekInfoSetSent) {
+			seekInfoSetSent = true;
+			notifySeekInfoSet(seekInfoBatch);
+		} else if (seekInfoBatch.size() > 0) {
+			notifySeekInfoSeeks(seekInfoBatch);
 		}
-		m = FreechessUtils.SEEKINFO_UNSET.matcher(output);
-		if (m.matches()) {
+		seekInfoBatch = new SeekInfoList();
+	}
+	
+	public boolean parse(String output) {
+		if (seekInfoState == SEEKINFO_SET_STREAMING && output.startsWith("seekinfo set.\n<sc>\n")) {
+			// the seeks have already been parsed line by line
+			seekInfoState = SEEKINFO_NONE;
+			flushSeekInfoBatch();
+			seekInfoBatch = null;
 			return false;
 		}
-		m = FreechessUtils.PENDING.matcher(output);
-		if (m.matches()) {
-			parsePending(m);
-			this.output += output + "yafi% ";
-			return true;
-		}
-		m = FreechessUtils.GAMEINFO_REMOVING_OBSERVED.matcher(output);
-		if (m.matches()) {
-			parseGameInfoRemovingObserved(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
+		char first = output.length() > 0 ? output.charAt(0) : 0;
+		boolean style12 = output.indexOf("\n<12> ") != -1;
+		Matcher m;
+		if (first == '\n' && output.indexOf(" accepts your seek.\n") != -1) {
+			m = FreechessUtils.HACK_MULTIPLE_ACCEPTS.matcher(output);
+			if (m.find()) {
+				appendOutput(m.group() + "yafi% ");
+				parse(output.substring(m.end()));
+				return true;
+			}
 		}
-		m = FreechessUtils.GAMEINFO_ACCEPT_REMOVING_OBSERVED.matcher(output);
-		if (m.matches()) {
-			parseGameInfoAcceptRemovingObserved(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
+		if (output.startsWith("\nYour seek matches one posted by ")) {
+			m = FreechessUtils.HACK_POSTED_MANUAL_SEEK.matcher(output);
+			if (m.find()) {
+				appendOutput(m.group() + "yafi% ");
+				parse(output.substring(m.end()));
+				return true;
+			}
 		}
-		m = FreechessUtils.COMMAND_NOT_FOUND.matcher(output);
-		if (m.matches()) {
-			if (parseCommandNotFound(m)) {
-				this.output += output + "yafi% ";
+		if (style12) {
+			m = FreechessUtils.GAMEINFO_MOVE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoMove(output, m);
+				return false;
+			}
+			m = FreechessUtils.GAMEINFO_ACCEPT_DECLINE_MOVE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoAcceptDeclineMove(output, m);
+				appendOutput(m.group(1) + "yafi% ");
 				return true;
-			} else {
+			}
+			m = FreechessUtils.GAMEINFO_ILLEGAL_MOVE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoIllegalMove(output, m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_CREATING.matcher(output);
+			if (m.matches()) {
+				parseGameInfoCreating(output, m);
+				appendOutput(m.group(1) + m.group(7) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_OBSERVING.matcher(output);
+			if (m.matches()) {
+				parseGameInfoObserving(output, m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_FOLLOWING.matcher(output);
+			if (m.matches()) {
+				parseGameInfoFollowing(output, m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_EXAMINING.matcher(output);
+			if (m.matches()) {
+				parseGameInfoExamining(output, m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_NOTE_MOVE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoNoteMove(output, m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_NOTE_MOVE_NOTE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoNoteMoveNote(output, m);
+				appendOutput(m.group(1) + m.group(4) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_MOVE_NOTE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoMoveNote(output, m);
+				appendOutput(m.group(2) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_MORETIME_MOVE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoMoretimeMove(output, m);
+				appendOutput(m.group(1) + "yafi% ");
+			}
+			m = FreechessUtils.GAMEINFO_MOVE_END.matcher(output);
+			if (m.matches()) {
+				parseGameInfoMoveEnd(output, m);
+				appendOutput(m.group(2) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_END_MOVE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoEndMove(output, m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
+			m = FreechessUtils.GAMEINFO_AUTOFLAGGING_MOVE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoAutoflaggingMove(output, m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
+		}
+		if (output.startsWith("seekinfo set.\n")) {
+			m = FreechessUtils.SEEKINFO_SET.matcher(output);
+			if (m.matches()) {
+				parseSeekInfoSet(m);
+				return false;
+			}
+			m = FreechessUtils.SEEKINFO_SET_ERROR.matcher(output);
+			if (m.matches()) {
+				parseSeekInfoSetError(m);
 				return false;
 			}
 		}
-		m = FreechessUtils.FINGER.matcher(output);
-		if (m.matches()) {
-			if (parseFinger(m) && !yafiFingered) {
-				yafiFingered = true;
+		if (output.startsWith("\n<s> ")) {
+			m = FreechessUtils.SEEKINFO_SEEK.matcher(output);
+			if (m.matches()) {
+				parseSeekInfoSeek(m);
 				return false;
-			} else {
-				this.output += output + "yafi% ";
-				return true;
 			}
 		}
-		m = FreechessUtils.GAMEINFO_MEXAMINED.matcher(output);
-		if (m.matches()) {
-			parseGameInfoMexamined(m);
-			this.output += m.group(1) + "yafi% ";
-			return true;
+		if (output.startsWith("\n<sr> ")) {
+			m = FreechessUtils.SEEKINFO_REMOVE.matcher(output);
+			if (m.matches()) {
+				parseSeekInfoRemove(m);
+				return false;
+			}
 		}
-		this.output += output + "yafi% ";
-		m = FreechessUtils.GAMEINFO_REMOVING_EXAMINED.matcher(output);
-		if (m.matches()) {
-			parseGameInfoRemovingExamined(m);
-			return true;
+		if (output.startsWith("seekinfo unset.\n")) {
+			m = FreechessUtils.SEEKINFO_UNSET.matcher(output);
+			if (m.matches()) {
+				return false;
+			}
 		}
-		m = FreechessUtils.DECLINE_MATCH.matcher(output);
-		if (m.matches()) {
-			parseDeclineMatch(m);
-			return true;
+		if (output.startsWith("There are no offers pending to other players.\n") || output.startsWith("Offers to other players:\n")) {
+			m = FreechessUtils.PENDING.matcher(output);
+			if (m.matches()) {
+				parsePending(m);
+				appendOutput(output + "yafi% ");
+				return true;
+			}
 		}
-		m = FreechessUtils.DECLINED_MATCH.matcher(output);
-		if (m.matches()) {
-			parseDeclinedMatch(m);
-			return true;
+		if (output.startsWith("Removing game ") || output.startsWith("\nRemoving game ")) {
+			m = FreechessUtils.GAMEINFO_REMOVING_OBSERVED.matcher(output);
+			if (m.matches()) {
+				parseGameInfoRemovingObserved(m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
 		}
-		m = FreechessUtils.WITHDRAW_MATCH.matcher(output);
-		if (m.matches()) {
-			parseWithdrawMatch(m);
-			return true;
+		if (output.startsWith("You accept the match offer from ") || first == '\n' && output.indexOf(" accepts the match offer.\n") != -1) {
+			m = FreechessUtils.GAMEINFO_ACCEPT_REMOVING_OBSERVED.matcher(output);
+			if (m.matches()) {
+				parseGameInfoAcceptRemovingObserved(m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
 		}
-		m = FreechessUtils.WITHDRAWN_MATCH.matcher(output);
-		if (m.matches()) {
-			parseWithdrawnMatch(m);
-			return true;
+		if (output.endsWith(": Command not found.\n")) {
+			m = FreechessUtils.COMMAND_NOT_FOUND.matcher(output);
+			if (m.matches()) {
+				if (parseCommandNotFound(m)) {
+					appendOutput(output + "yafi% ");
+					return true;
+				} else {
+					return false;
+				}
+			}
 		}
-		m = FreechessUtils.REMOVED_MATCH.matcher(output);
-		if (m.matches()) {
-			parseRemovedMatch(m);
-			return true;
+		if (output.startsWith("Finger of ")) {
+			m = FreechessUtils.FINGER.matcher(output);
+			if (m.matches()) {
+				if (parseFinger(m) && !yafiFingered) {
+					yafiFingered = true;
+					return false;
+				} else {
+					appendOutput(output + "yafi% ");
+					return true;
+				}
+			}
 		}
-		m = FreechessUtils.GAMEINFO_NOTE.matcher(output);
-		if (m.matches()) {
-			parseGameInfoNote(m);
-			return true;
+		if (style12 && output.startsWith("Removing game ")) {
+			m = FreechessUtils.GAMEINFO_MEXAMINED.matcher(output);
+			if (m.matches()) {
+				parseGameInfoMexamined(output, m);
+				appendOutput(m.group(1) + "yafi% ");
+				return true;
+			}
 		}
-		m = FreechessUtils.GAMEINFO_END.matcher(output);
-		if (m.matches()) {
-			parseGameInfoEnd(m);
-			return true;
+		appendOutput(output + "yafi% ");
+		if (output.startsWith("You are no longer examining game ") || output.startsWith("\nYou are no longer examining game ")) {
+			m = FreechessUtils.GAMEINFO_REMOVING_EXAMINED.matcher(output);
+			if (m.matches()) {
+				parseGameInfoRemovingExamined(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.GAMEINFO_NOTE_END.matcher(output);
-		if (m.matches()) {
-			parseGameInfoNoteEnd(m);
-			return true;
+		if (output.startsWith("You decline the match offer from ")) {
+			m = FreechessUtils.DECLINE_MATCH.matcher(output);
+			if (m.matches()) {
+				parseDeclineMatch(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.GAMEINFO_ABORTED_END.matcher(output);
-		if (m.matches()) {
-			parseGameInfoAbortedEnd(m);
-			return true;
+		if (output.endsWith(" declines the match offer.\n")) {
+			m = FreechessUtils.DECLINED_MATCH.matcher(output);
+			if (m.matches()) {
+				parseDeclinedMatch(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.GAMEINFO_DRAW_OFFER.matcher(output);
-		if (m.matches()) {
-			parseGameInfoDrawOffer(m);
-			return true;
+		if (output.startsWith("You withdraw the match offer to ")) {
+			m = FreechessUtils.WITHDRAW_MATCH.matcher(output);
+			if (m.matches()) {
+				parseWithdrawMatch(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.GAMEINFO_ABORT_REQUEST.matcher(output);
-		if (m.matches()) {
-			parseGameInfoAbortRequest(m);
-			return true;
+		if (output.endsWith(" withdraws the match offer.\n")) {
+			m = FreechessUtils.WITHDRAWN_MATCH.matcher(output);
+			if (m.matches()) {
+				parseWithdrawnMatch(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.PRIVATE_TELL.matcher(output);
-		if (m.matches()) {
-			parsePrivateTell(m);
-			return true;
+		if (output.indexOf(", who was challenging you, has joined a match with ") != -1) {
+			m = FreechessUtils.REMOVED_MATCH.matcher(output);
+			if (m.matches()) {
+				parseRemovedMatch(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.SAY.matcher(output);
-		if (m.matches()) {
-			parseSay(m);
-			return true;
+		if (output.startsWith("\nGame ")) {
+			m = FreechessUtils.GAMEINFO_NOTE.matcher(output);
+			if (m.matches()) {
+				parseGameInfoNote(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.PARTNER_TELL.matcher(output);
-		if (m.matches()) {
-			parsePartnerTell(m);
-			return true;
+		if (output.startsWith("\n{Game ")) {
+			m = FreechessUtils.GAMEINFO_END.matcher(output);
+			if (m.matches()) {
+				parseGameInfoEnd(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.CHANNEL_TELL.matcher(output);
-		if (m.matches()) {
-			parseChannelTell(m);
-			return true;
+		if (output.startsWith("\nGame ")) {
+			m = FreechessUtils.GAMEINFO_NOTE_END.matcher(output);
+			if (m.matches()) {
+				parseGameInfoNoteEnd(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.SHOUT.matcher(output);
-		if (m.matches()) {
-			parseShout(m);
-			return true;
+		if (output.startsWith("The game has been aborted on move one.\n") || output.startsWith("\nYour opponent has aborted the game on move one.\n")) {
+			m = FreechessUtils.GAMEINFO_ABORTED_END.matcher(output);
+			if (m.matches()) {
+				parseGameInfoAbortedEnd(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.SHOUT_IT.matcher(output);
-		if (m.matches()) {
-			parseShoutIt(m);
-			return true;
+		if (output.endsWith(" offers you a draw.\n")) {
+			m = FreechessUtils.GAMEINFO_DRAW_OFFER.matcher(output);
+			if (m.matches()) {
+				parseGameInfoDrawOffer(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.CHESS_SHOUT.matcher(output);
-		if (m.matches()) {
-			parseChessShout(m);
-			return true;
+		if (output.endsWith(" would like to abort the game; type \"abort\" to accept.\n")) {
+			m = FreechessUtils.GAMEINFO_ABORT_REQUEST.matcher(output);
+			if (m.matches()) {
+				parseGameInfoAbortRequest(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.ANNOUNCEMENT.matcher(output);
-		if (m.matches()) {
-			parseAnnouncement(m);
-			return true;
+		if (first == '\n' && output.indexOf(" tells you: ") != -1) {
+			m = FreechessUtils.PRIVATE_TELL.matcher(output);
+			if (m.matches()) {
+				parsePrivateTell(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.KIBITZ_WHISPER.matcher(output);
-		if (m.matches()) {
-			parseKibitzWhisper(m);
-			return true;
+		if (first == '\n' && output.indexOf(" says: ") != -1) {
+			m = FreechessUtils.SAY.matcher(output);
+			if (m.matches()) {
+				parseSay(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.LISTINFO_SHOW.matcher(output);
-		if (m.matches()) {
-			parseListInfoShow(m);
-			return true;
+		if (first == '\n' && output.indexOf(" (your partner) tells you: ") != -1) {
+			m = FreechessUtils.PARTNER_TELL.matcher(output);
+			if (m.matches()) {
+				parsePartnerTell(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.LISTINFO_ADD.matcher(output);
-		if (m.matches()) {
-			parseListInfoAdd(m);
-			return true;
+		if (first == '\n' && output.indexOf("): ") != -1) {
+			m = FreechessUtils.CHANNEL_TELL.matcher(output);
+			if (m.matches()) {
+				parseChannelTell(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.LISTINFO_SUB.matcher(output);
-		if (m.matches()) {
-			parseListInfoSub(m);
-			return true;
+		if (first == '\n' && output.indexOf(" shouts: ") != -1) {
+			m = FreechessUtils.SHOUT.matcher(output);
+			if (m.matches()) {
+				parseShout(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.FINGER.matcher(output);
-		if (m.matches()) {
-			parseFinger(m);
-			return true;
+		if (output.startsWith("\n--> ")) {
+			m = FreechessUtils.SHOUT_IT.matcher(output);
+			if (m.matches()) {
+				parseShoutIt(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.VARIABLES.matcher(output);
-		if (m.matches()) {
-			parseVariables(m);
-			return true;
+		if (first == '\n' && output.indexOf(" c-shouts: ") != -1) {
+			m = FreechessUtils.CHESS_SHOUT.matcher(output);
+			if (m.matches()) {
+				parseChessShout(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.HISTORY.matcher(output);
-		if (m.matches()) {
-			parseHistory(m);
-			return true;
+		if (output.startsWith("\n\n ")) {
+			m = FreechessUtils.ANNOUNCEMENT.matcher(output);
+			if (m.matches()) {
+				parseAnnouncement(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.JOURNAL.matcher(output);
-		if (m.matches()) {
-			parseJournal(m);
-			return true;
+		if (first == '\n' && (output.indexOf("] kibitzes: ") != -1 || output.indexOf("] whispers: ") != -1)) {
+			m = FreechessUtils.KIBITZ_WHISPER.matcher(output);
+			if (m.matches()) {
+				parseKibitzWhisper(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.ADJOURNED.matcher(output);
-		if (m.matches()) {
-			parseAdjourned(m);
-			return true;
+		if (output.startsWith("-- ")) {
+			m = FreechessUtils.LISTINFO_SHOW.matcher(output);
+			if (m.matches()) {
+				parseListInfoShow(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.NO_HISTORY.matcher(output);
-		if (m.matches()) {
-			parseNoHistory(m);
-			return true;
+		if (first == '[') {
+			m = FreechessUtils.LISTINFO_ADD.matcher(output);
+			if (m.matches()) {
+				parseListInfoAdd(m);
+				return true;
+			}
+			m = FreechessUtils.LISTINFO_SUB.matcher(output);
+			if (m.matches()) {
+				parseListInfoSub(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.NO_JOURNAL.matcher(output);
-		if (m.matches()) {
-			parseNoJournal(m);
-			return true;
+		if (output.startsWith("Finger of ")) {
+			m = FreechessUtils.FINGER.matcher(output);
+			if (m.matches()) {
+				parseFinger(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.PRIVATE_JOURNAL.matcher(output);
-		if (m.matches()) {
-			parsePrivateJournal(m);
-			return true;
+		if (output.startsWith("Variable settings of ")) {
+			m = FreechessUtils.VARIABLES.matcher(output);
+			if (m.matches()) {
+				parseVariables(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.UNREG_JOURNAL.matcher(output);
-		if (m.matches()) {
-			parseUnregJournal(m);
-			return true;
+		if (output.startsWith("\nHistory for ")) {
+			m = FreechessUtils.HISTORY.matcher(output);
+			if (m.matches()) {
+				parseHistory(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.NO_ADJOURNED.matcher(output);
-		if (m.matches()) {
-			parseNoAdjourned(m);
-			return true;
+		if (output.startsWith("\nJournal for ")) {
+			m = FreechessUtils.JOURNAL.matcher(output);
+			if (m.matches()) {
+				parseJournal(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.INCHANNEL_NUMBER.matcher(output);
-		if (m.matches()) {
-			parseInchannelNumber(m);
-			return true;
+		if (output.startsWith("\nStored games for ")) {
+			m = FreechessUtils.ADJOURNED.matcher(output);
+			if (m.matches()) {
+				parseAdjourned(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.HANDLE_PREFIX.matcher(output);
-		if (m.matches()) {
-			parseHandlePrefix(m);
-			return true;
+		if (output.endsWith(" has no history games.\n")) {
+			m = FreechessUtils.NO_HISTORY.matcher(output);
+			if (m.matches()) {
+				parseNoHistory(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.WHO_IBSLWBSLX.matcher(output);
-		if (m.find()) {
-			parseWhoIbslwbslx(output);
-			return true;
+		if (output.endsWith(" has no journal entries.\n")) {
+			m = FreechessUtils.NO_JOURNAL.matcher(output);
+			if (m.matches()) {
+				parseNoJournal(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.CANT_PLAY_VARIANTS_UNTIMED.matcher(output);
-		if (m.matches()) {
-			parseCantPlayVariantsUntimed(m);
-			return true;
+		if (output.startsWith("That journal is private.\n")) {
+			m = FreechessUtils.PRIVATE_JOURNAL.matcher(output);
+			if (m.matches()) {
+				parsePrivateJournal(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.TIME_CONTROLS_TOO_LARGE.matcher(output);
-		if (m.matches()) {
-			parseTimeControlsTooLarge(m);
-			return true;
+		if (output.startsWith("Only registered players may keep a journal.\n")) {
+			m = FreechessUtils.UNREG_JOURNAL.matcher(output);
+			if (m.matches()) {
+				parseUnregJournal(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.ALREADY_HAVE_SAME_SEEK.matcher(output);
-		if (m.matches()) {
-			parseAlreadyHaveSameSeek(m);
-			return true;
+		if (output.endsWith(" has no adjourned games.\n")) {
+			m = FreechessUtils.NO_ADJOURNED.matcher(output);
+			if (m.matches()) {
+				parseNoAdjourned(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.CANNOT_CHALLENGE_WHILE_EXAMINING.matcher(output);
-		if (m.matches()) {
-			parseCannotChallengeWhileExamining(m);
-			return true;
+		if (output.startsWith("Channel ")) {
+			m = FreechessUtils.INCHANNEL_NUMBER.matcher(output);
+			if (m.matches()) {
+				parseInchannelNumber(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.CANNOT_CHALLENGE_WHILE_PLAYING.matcher(output);
-		if (m.matches()) {
-			parseCannotChallengeWhilePlaying(m);
-			return true;
+		if (output.startsWith("-- Matches: ")) {
+			m = FreechessUtils.HANDLE_PREFIX.matcher(output);
+			if (m.matches()) {
+				parseHandlePrefix(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.CAN_HAVE_3_SEEKS.matcher(output);
-		if (m.matches()) {
-			parseCanHave3Seeks(m);
-			return true;
+		if ('A' <= first && first <= 'Z' || 'a' <= first && first <= 'z') {
+			m = FreechessUtils.WHO_IBSLWBSLX.matcher(output);
+			if (m.find()) {
+				parseWhoIbslwbslx(output);
+				return true;
+			}
 		}
-		m = FreechessUtils.SEEK_NOT_AVAILABLE.matcher(output);
-		if (m.matches()) {
-			parseSeekNotAvailable(m);
-			return true;
+		if (first == 'Y' || first == 'T') {
+			m = FreechessUtils.CANT_PLAY_VARIANTS_UNTIMED.matcher(output);
+			if (m.matches()) {
+				parseCantPlayVariantsUntimed(m);
+				return true;
+			}
+			m = FreechessUtils.TIME_CONTROLS_TOO_LARGE.matcher(output);
+			if (m.matches()) {
+				parseTimeControlsTooLarge(m);
+				return true;
+			}
+			m = FreechessUtils.ALREADY_HAVE_SAME_SEEK.matcher(output);
+			if (m.matches()) {
+				parseAlreadyHaveSameSeek(m);
+				return true;
+			}
+			m = FreechessUtils.CANNOT_CHALLENGE_WHILE_EXAMINING.matcher(output);
+			if (m.matches()) {
+				parseCannotChallengeWhileExamining(m);
+				return true;
+			}
+			m = FreechessUtils.CANNOT_CHALLENGE_WHILE_PLAYING.matcher(output);
+			if (m.matches()) {
+				parseCannotChallengeWhilePlaying(m);
+				return true;
+			}
+			m = FreechessUtils.CAN_HAVE_3_SEEKS.matcher(output);
+			if (m.matches()) {
+				parseCanHave3Seeks(m);
+				return true;
+			}
+			m = FreechessUtils.SEEK_NOT_AVAILABLE.matcher(output);
+			if (m.matches()) {
+				parseSeekNotAvailable(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.NOT_LOGGED_IN.matcher(output);
-		if (m.matches()) {
-			parseNotLoggedIn(m);
-			return true;
+		if (output.endsWith(" is not logged in.\n")) {
+			m = FreechessUtils.NOT_LOGGED_IN.matcher(output);
+			if (m.matches()) {
+				parseNotLoggedIn(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.MOTD_EXTENDED.matcher(output);
-		if (m.find()) {
-			parseMotdExtended(m);
-			return true;
+		if (output.indexOf("\n\nYou have ") != -1) {
+			m = FreechessUtils.MOTD_EXTENDED.matcher(output);
+			if (m.find()) {
+				parseMotdExtended(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.NEWS.matcher(output);
-		if (m.find()) {
-			parseNews(output);
-			return true;
+		if (output.startsWith("Index of ")) {
+			m = FreechessUtils.NEWS.matcher(output);
+			if (m.find()) {
+				parseNews(output);
+				return true;
+			}
 		}
-		m = FreechessUtils.NEWS_DETAILS.matcher(output);
-		if (m.matches()) {
-			parseNewsDetails(m);
-			return true;
+		if (first == ' ' || '0' <= first && first <= '9') {
+			m = FreechessUtils.NEWS_DETAILS.matcher(output);
+			if (m.matches()) {
+				parseNewsDetails(m);
+				return true;
+			}
 		}
-		m = FreechessUtils.MESSAGES.matcher(output);
-		if (m.find()) {
-			parseMessages(output);
-			return true;
+		if (output.startsWith("Messages:\n") || output.startsWith("Unread messages:\n")) {
+			m = FreechessUtils.MESSAGES.matcher(output);
+			if (m.find()) {
+				parseMessages(output);
+				return true;
+			}
 		}
-		if (Settings.LOG_SERVER_COMMUNICATION) {
-			Log.w(TAG, "not parsed: [" + output.replace("\n\n\n\n", "\n \n \n \n").replace("\n\n\n", "\n \n \n").replace("\n\n", "\n \n") + "]");
+		if (BuildSettings.LOG_SERVER_COMMUNICATION) {
+			Logger.w(TAG, "not parsed: [" + output.replace("\n\n\n\n", "\n \n \n \n").replace("\n\n\n", "\n \n \n").replace("\n\n", "\n \n") + "]");
 		}
 		return true;
 	}
 	
-	private void parseGameInfoMove(Matcher m) {
-		parseMove(m);
-		String additionalMoves = m.group(2);
-		if (additionalMoves.length() > 0) {
-			m = FreechessUtils.GAMEINFO_MOVE_ADDITIONAL.matcher(additionalMoves);
+	private void parseGameInfoMove(String output, Matcher m) {
+		parseMove(output, m);
+		if (m.end(2) > m.start(2)) {
+			m = FreechessUtils.GAMEINFO_MOVE_ADDITIONAL.matcher(output).region(m.start(2), m.end(2));
 			while (m.find()) {
-				parseMove(m);
+				parseMove(output, m);
 			}
 		}
 	}
 	
-	private void parseMove(Matcher m) {
-		String style12 = m.group(1);
-		Position pos = Position.fromStyle12(style12);
+	private void parseMove(String output, Matcher m) {
+		Position pos = Position.fromStyle12(output, m.start(1), m.end(1));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
+			int relation = game.getRelation();
+			if (pos.getRelation() == Game.RELATION_PLAYING_OPPONENT_MOVE && relation == Game.RELATION_PLAYING_MY_MOVE) {
+				lagEstimator.onMoveEcho(pos.getLag());
+			}
 			game.addPosition(pos);
+			if (relation != Game.RELATION_PLAYING_MY_MOVE) {
+				firePremove(game);
+			}
 			notifyGameUpdate(game.getUUID());
 		} else if (pos.getRelation() == Game.RELATION_EXAMINING) {
-			game = new Game();
+			game = new Game(lagEstimator);
 			game.addPosition(pos);
 			activeGames.put(game.getId(), game);
 			allGames.put(game.getUUID(), game);
@@ -569,36 +831,41 @@ public class FreechessModel {
 		}
 	}
 	
-	private void parseGameInfoAcceptDeclineMove(Matcher m) {
-		String style12 = m.group(2);
-		Position pos = Position.fromStyle12(style12);
+	private void parseGameInfoAcceptDeclineMove(String output, Matcher m) {
+		Position pos = Position.fromStyle12(output, m.start(2), m.end(2));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
+			int relation = game.getRelation();
 			game.addPosition(pos);
+			if (relation != Game.RELATION_PLAYING_MY_MOVE) {
+				firePremove(game);
+			}
 			notifyGameUpdate(game.getUUID());
 		}
 	}
 	
-	private void parseGameInfoIllegalMove(Matcher m) {
-		String style12 = m.group(2);
-		Position pos = Position.fromStyle12(style12);
+	private void parseGameInfoIllegalMove(String output, Matcher m) {
+		Position pos = Position.fromStyle12(output, m.start(2), m.end(2));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
+			dropPremoves(game.getUUID());
+			lagEstimator.onMoveRejected();
 			game.addPosition(pos);
 			notifyGameUpdate(game.getUUID());
 		}
 		notifyIllegalMove();
 	}
 	
-	private void parseGameInfoCreating(Matcher m) {
+	private void parseGameInfoCreating(String output, Matcher m) {
 		String removingObservedGames = m.group(2);
 		String whiteRating = m.group(3);
 		String blackRating = m.group(4);
-		String style12 = m.group(5);
-		Position pos = Position.fromStyle12(style12);
-		Game game = new Game();
+		String type = m.group(5);
+		Position pos = Position.fromStyle12(output, m.start(6), m.end(6));
+		Game game = new Game(lagEstimator);
 		game.setWhiteRating(whiteRating);
 		game.setBlackRating(blackRating);
+		game.setType(type);
 		game.addPosition(pos);
 		activeGames.put(game.getId(), game);
 		allGames.put(game.getUUID(), game);
@@ -617,12 +884,11 @@ public class FreechessModel {
 		}
 	}
 	
-	private void parseGameInfoObserving(Matcher m) {
+	private void parseGameInfoObserving(String output, Matcher m) {
 		String whiteRating = m.group(2);
 		String blackRating = m.group(3);
-		String style12 = m.group(4);
-		Position pos = Position.fromStyle12(style12);
-		Game game = new Game();
+		Position pos = Position.fromStyle12(output, m.start(4), m.end(4));
+		Game game = new Game(lagEstimator);
 		game.setWhiteRating(whiteRating);
 		game.setBlackRating(blackRating);
 		game.addPosition(pos);
@@ -632,11 +898,10 @@ public class FreechessModel {
 		notifyGameUpdate(game.getUUID());
 	}
 	
-	private void parseGameInfoFollowing(Matcher m) {
+	private void parseGameInfoFollowing(String output, Matcher m) {
 		String removed = m.group(2);
 		String whiteRating = m.group(3);
 		String blackRating = m.group(4);
-		String style12 = m.group(5);
 		if (removed != null) {
 			m = FreechessUtils.GAME_ID.matcher(removed);
 			while (m.find()) {
@@ -649,8 +914,8 @@ public class FreechessModel {
 				}
 			}
 		}
-		Position pos = Position.fromStyle12(style12);
-		Game game = new Game();
+		Position pos = Position.fromStyle12(output, m.start(5), m.end(5));
+		Game game = new Game(lagEstimator);
 		game.setWhiteRating(whiteRating);
 		game.setBlackRating(blackRating);
 		game.addPosition(pos);
@@ -660,10 +925,9 @@ public class FreechessModel {
 		notifyGameUpdate(game.getUUID());
 	}
 	
-	private void parseGameInfoExamining(Matcher m) {
-		String style12 = m.group(2);
-		Position pos = Position.fromStyle12(style12);
-		Game game = new Game();
+	private void parseGameInfoExamining(String output, Matcher m) {
+		Position pos = Position.fromStyle12(output, m.start(2), m.end(2));
+		Game game = new Game(lagEstimator);
 		game.addPosition(pos);
 		activeGames.put(game.getId(), game);
 		allGames.put(game.getUUID(), game);
@@ -671,10 +935,9 @@ public class FreechessModel {
 		notifyGameUpdate(game.getUUID());
 	}
 	
-	private void parseGameInfoNoteMove(Matcher m) {
+	private void parseGameInfoNoteMove(String output, Matcher m) {
 		String note = m.group(2);
-		String style12 = m.group(3);
-		Position pos = Position.fromStyle12(style12);
+		Position pos = Position.fromStyle12(output, m.start(3), m.end(3));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
 			game.addNote(note);
@@ -683,11 +946,10 @@ public class FreechessModel {
 		}
 	}
 	
-	private void parseGameInfoNoteMoveNote(Matcher m) {
+	private void parseGameInfoNoteMoveNote(String output, Matcher m) {
 		String note1 = m.group(2);
-		String style12 = m.group(3);
 		String note2 = m.group(5);
-		Position pos = Position.fromStyle12(style12);
+		Position pos = Position.fromStyle12(output, m.start(3), m.end(3));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
 			game.addNote(note1);
@@ -703,11 +965,10 @@ public class FreechessModel {
 		}
 	}
 	
-	private void parseGameInfoMoveNote(Matcher m) {
-		String style12 = m.group(1);
+	private void parseGameInfoMoveNote(String output, Matcher m) {
 		String note = m.group(3);
 		String note2 = m.group(4);
-		Position pos = Position.fromStyle12(style12);
+		Position pos = Position.fromStyle12(output, m.start(1), m.end(1));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
 			game.addPosition(pos);
@@ -717,7 +978,7 @@ public class FreechessModel {
 			}
 			notifyGameUpdate(game.getUUID());
 		} else if (pos.getRelation() == Game.RELATION_EXAMINING) {
-			game = new Game();
+			game = new Game(lagEstimator);
 			game.addPosition(pos);
 			activeGames.put(game.getId(), game);
 			allGames.put(game.getUUID(), game);
@@ -726,9 +987,8 @@ public class FreechessModel {
 		}
 	}
 	
-	private void parseGameInfoMoretimeMove(Matcher m) {
-		String style12 = m.group(2);
-		Position pos = Position.fromStyle12(style12);
+	private void parseGameInfoMoretimeMove(String output, Matcher m) {
+		Position pos = Position.fromStyle12(output, m.start(2), m.end(2));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
 			game.addPosition(pos);
@@ -736,11 +996,10 @@ public class FreechessModel {
 		}
 	}
 	
-	private void parseGameInfoMoveEnd(Matcher m) {
-		String style12 = m.group(1);
+	private void parseGameInfoMoveEnd(String output, Matcher m) {
 		String description = m.group(3);
 		String result = m.group(4);
-		Position pos = Position.fromStyle12(style12);
+		Position pos = Position.fromStyle12(output, m.start(1), m.end(1));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
 			game.addPosition(pos);
@@ -750,9 +1009,8 @@ public class FreechessModel {
 		}
 	}
 	
-	private void parseGameInfoAutoflaggingMove(Matcher m) {
-		String style12 = m.group(2);
-		Position pos = Position.fromStyle12(style12);
+	private void parseGameInfoAutoflaggingMove(String output, Matcher m) {
+		Position pos = Position.fromStyle12(output, m.start(2), m.end(2));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
 			game.addPosition(pos);
@@ -812,7 +1070,7 @@ public class FreechessModel {
 	private boolean parseCommandNotFound(Matcher m) {
 		String cmd = m.group(1);
 		if (FreechessUtils.PING_CMD.equals(cmd)) {
-			//notifyPingCommand();
+			lagEstimator.onPingReply();
 			return false;
 		} else {
 			return true;
@@ -829,9 +1087,8 @@ public class FreechessModel {
 		}
 	}
 	
-	private void parseGameInfoMexamined(Matcher m) {
-		String style12 = m.group(2);
-		Position pos = Position.fromStyle12(style12);
+	private void parseGameInfoMexamined(String output, Matcher m) {
+		Position pos = Position.fromStyle12(output, m.start(2), m.end(2));
 		Game game = activeGames.get(pos.getGameId());
 		if (game != null) {
 			game.addPosition(pos);
@@ -886,12 +1143,11 @@ public class FreechessModel {
 		}
 	}
 	
-	private void parseGameInfoEndMove(Matcher m) {
+	private void parseGameInfoEndMove(String output, Matcher m) {
 		int gameId = Integer.parseInt(m.group(2));
 		String description = m.group(3);
 		String result = m.group(4);
-		String style12 = m.group(5);
-		Position pos = Position.fromStyle12(style12);
+		Position pos = Position.fromStyle12(output, m.start(5), m.end(5));
 		Game game = activeGames.remove(gameId);
 		if (game != null) {
 			game.addPosition(pos);
@@ -1086,7 +1342,7 @@ public class FreechessModel {
 					String[] values = setting.split("\\|");
 					if ("android".equalsIgnoreCase(values[0])) {
 						try {
-							int newestVersion = Integer.parseInt(values[Settings.SOURCE_ID]);
+							int newestVersion = Integer.parseInt(values[BuildSettings.SOURCE_ID]);
 							currentVersionOld = newestVersion > currentVersion;
 						} catch (NumberFormatException ex) {
 							// ignore
@@ -1276,12 +1532,43 @@ public class FreechessModel {
 		}
 	}
 	
+	private static boolean isPlaying(Game game) {
+		int relation = game.getRelation();
+		return relation == Game.RELATION_PLAYING_MY_MOVE || relation == Game.RELATION_PLAYING_OPPONENT_MOVE;
+	}
+	
+	private boolean isPlaying() {
+		for (Game game : activeGames.values()) {
+			if (isPlaying(game)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	private void notifyGameUpdate(UUID gameId) {
+		Game game = allGames.get(gameId);
+		if (game == null || !isPlaying(game)) {
+			dropPremoves(gameId);
+		}
+		lagEstimator.setPlaying(isPlaying());
 		if (listener != null) {
 			listener.onGameUpdate(gameId);
 		}
 	}
 	
+	private void notifyPremove(UUID gameId, String move) {
+		if (listener != null) {
+			listener.onPremove(gameId, move);
+		}
+	}
+	
+	private void notifyOutput(ConsoleLog.Entry entry) {
+		if (listener != null) {
+			listener.onOutput(entry);
+		}
+	}
+	
 	private void notifyIllegalMove() {
 		if (listener != null) {
 			listener.onIllegalMove();
@@ -1324,6 +1611,12 @@ public class FreechessModel {
 		}
 	}
 	
+	private void notifySeekInfoSeeks(SeekInfoList seeks) {
+		if (listener != null) {
+			listener.onReceivedSeeks(seeks);
+		}
+	}
+	
 	private void notifySeekInfoRemove(SeekInfoList list) {
 		if (listener != null) {
 			listener.onRemovedSeeks(list);
@@ -1504,10 +1797,14 @@ public class FreechessModel {
 	
 	public static interface Listener {
 		
+		void onOutput(ConsoleLog.Entry entry);
+		
 		void onGameCreate(UUID gameId);
 		
 		void onGameUpdate(UUID gameId);
 		
+		void onPremove(UUID gameId, String move);
+		
 		void onIllegalMove();
 		
 		void onPendingInfo(PendingInfo info);
@@ -1522,6 +1819,8 @@ public class FreechessModel {
 		
 		void onReceivedSeek(SeekInfo seek);
 		
+		void onReceivedSeeks(SeekInfoList seeks);
+		
 		void onRemovedSeeks(SeekInfoList list);
 		
 		void onCommunication(Communication c);
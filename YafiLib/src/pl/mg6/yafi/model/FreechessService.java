@@ -1,11 +1,17 @@
 package pl.mg6.yafi.model;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
+import pl.mg6.common.BuildSettings;
+import pl.mg6.common.Logger;
 import pl.mg6.common.Settings;
 import pl.mg6.common.android.AndroidUtils;
+import pl.mg6.common.android.LogcatSink;
 import pl.mg6.yafi.SelfFinishingActivity;
 import pl.mg6.yafi.lib.R;
 import pl.mg6.yafi.model.FreechessConnection.ConnectionState;
@@ -13,6 +19,7 @@ import pl.mg6.yafi.model.data.AdjournedInfo;
 import pl.mg6.yafi.model.data.Communication;
 import pl.mg6.yafi.model.data.FingerInfo;
 import pl.mg6.yafi.model.data.Game;
+import pl.mg6.yafi.model.data.GameSnapshot;
 import pl.mg6.yafi.model.data.HistoryInfo;
 import pl.mg6.yafi.model.data.InchannelInfo;
 import pl.mg6.yafi.model.data.JournalInfo;
@@ -31,6 +38,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.media.MediaPlayer;
 import android.os.Binder;
+import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
@@ -68,6 +76,7 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 	public static final int MSG_ID_RECEIVED_SEEK = 3008;
 	public static final int MSG_ID_REMOVED_SEEKS = 3009;
 	public static final int MSG_ID_COMMUNICATION = 3010;
+	public static final int MSG_ID_PREMOVE_SENT = 3011;
 	
 	public static final int MSG_ID_FINGER = 4000;
 	public static final int MSG_ID_VARIABLES = 4001;
@@ -102,6 +111,7 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 	
 	private FreechessConnection connection;
 	private FreechessModel model;
+	private final SeekBook seekBook = new SeekBook();
 	
 	private MediaPlayer movePlayer;
 	private MediaPlayer tellPlayer;
@@ -110,9 +120,10 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 	
 	@Override
 	public void onCreate() {
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onCreate");
 		}
+		Logger.setSink(new LogcatSink());
 		movePlayer = MediaPlayer.create(this, R.raw.move);
 		tellPlayer = MediaPlayer.create(this, R.raw.tell);
 		
@@ -125,7 +136,7 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 	
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onStartCommand " + intent + " " + flags + " " + startId);
 		}
 		String username = intent.getStringExtra(EXTRA_NAME_USERNAME);
@@ -140,7 +151,7 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 	
 	@Override
 	public IBinder onBind(Intent intent) {
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onBind " + intent);
 		}
 		return binder;
@@ -148,7 +159,7 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 	
 	@Override
 	public boolean onUnbind(Intent intent) {
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onUnbind " + intent);
 		}
 		return true;
@@ -156,19 +167,31 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 	
 	@Override
 	public void onRebind(Intent intent) {
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onRebind " + intent);
 		}
 	}
 	
 	@Override
 	public void onDestroy() {
-		if (Settings.LOG_LIFECYCLE) {
+		if (BuildSettings.LOG_LIFECYCLE) {
 			Log.d(TAG, this + " onDestroy");
 		}
 		cleanup();
 	}
 	
+	// adb shell dumpsys activity service pl.mg6.yafi.model.FreechessService
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		if (args != null && args.length > 0 && "reset".equals(args[0])) {
+			PipelineTrace.reset();
+		}
+		writer.print(PipelineTrace.dump());
+		if (model != null) {
+			writer.print(model.getLagEstimator().dump());
+		}
+	}
+	
 	private void cleanup() {
 		if (connection != null) {
 			connection.send("quit\n");
@@ -205,12 +228,21 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 		alarmManager.setRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + 60000, 60000, pendingIntent);
 		
 		model = new FreechessModel();
+		seekBook.reset(new SeekInfoList());
 		int currentVersion = AndroidUtils.getVersionCode(this);
 		model.setCurrentVersion(currentVersion);
 		model.setListener(this);
 		String interfaceName = "Yafi " + AndroidUtils.getVersionName(this);
-		connection = new FreechessConnection(username, password, interfaceName);
+		connection = new FreechessConnection(username, password, interfaceName, Build.MODEL);
 		connection.setListener(this);
+		connection.setLagEstimator(model.getLagEstimator());
+		if (BuildSettings.CAPTURE_SESSION) {
+			try {
+				connection.setCapture(new SessionCapture(openFileOutput("session-" + System.currentTimeMillis() + ".cap", MODE_PRIVATE)));
+			} catch (IOException ex) {
+				Log.e(TAG, "capture error", ex);
+			}
+		}
 		connection.connect();
 	}
 	
@@ -286,11 +318,19 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 		stopSelf();
 	}
 	
+	@Override
+	public void onReceivedLine(byte[] buffer, int offset, int count, boolean first) {
+		model.parseLine(buffer, offset, count, first);
+	}
+	
 	@Override
 	public void onReceivedOutput(String output) {
-		if (model.parse(output)) {
-			binder.sendMessage(MSG_ID_RECEIVED_OUTPUT, model.getOutput());
-		}
+		model.parse(output);
+	}
+	
+	@Override
+	public void onOutput(ConsoleLog.Entry entry) {
+		binder.sendMessage(MSG_ID_RECEIVED_OUTPUT, entry);
 	}
 	
 	@Override
@@ -316,6 +356,12 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 		}
 	}
 	
+	@Override
+	public void onPremove(UUID gameId, String move) {
+		connection.sendMove(move, 0);
+		binder.sendMessage(MSG_ID_PREMOVE_SENT, gameId);
+	}
+	
 	@Override
 	public void onIllegalMove() {
 		binder.sendMessage(MSG_ID_ILLEGAL_MOVE);
@@ -338,7 +384,7 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 	
 	@Override
 	public void onSeekInfoSet(SeekInfoList seeks) {
-		binder.sendMessage(MSG_ID_SEEKINFO_SET, seeks);
+		binder.sendMessage(MSG_ID_SEEKINFO_SET, seekBook.reset(seeks));
 	}
 	
 	@Override
@@ -348,12 +394,20 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 	
 	@Override
 	public void onReceivedSeek(SeekInfo seek) {
-		binder.sendMessage(MSG_ID_RECEIVED_SEEK, seek);
+		binder.sendMessage(MSG_ID_RECEIVED_SEEK, seekBook.add(seek));
+	}
+	
+	@Override
+	public void onReceivedSeeks(SeekInfoList seeks) {
+		binder.sendMessage(MSG_ID_RECEIVED_SEEK, seekBook.addAll(seeks));
 	}
 	
 	@Override
 	public void onRemovedSeeks(SeekInfoList list) {
-		binder.sendMessage(MSG_ID_REMOVED_SEEKS, list);
+		SeekBook.Change change = seekBook.remove(list);
+		if (change != null) {
+			binder.sendMessage(MSG_ID_REMOVED_SEEKS, change);
+		}
 	}
 	
 	@Override
@@ -525,9 +579,19 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 		
 		void sendInput(String input);
 		
-		String getOutput();
+		void sendMove(String move, long touchTime);
+		
+		void addPremove(UUID gameId, String move);
+		
+		void cancelPremoves(UUID gameId);
+		
+		ConsoleLog.Entry getOutput();
 		
-		Game getGame(UUID gameId);
+		SeekBook.Change getSeeks();
+		
+		GameSnapshot getGame(UUID gameId);
+		
+		void toggleUserFlip(UUID gameId);
 		
 		List<UUID> getAllGamesIds();
 		
@@ -552,6 +616,8 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 		void quit();
 		
 		boolean isCurrentVersionOld();
+		
+		String getLagStats();
 	}
 	
 	private class LocalBinder extends Binder implements FreechessServiceInterface {
@@ -604,16 +670,61 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 		}
 		
 		@Override
-		public String getOutput() {
+		public void sendMove(String move, long touchTime) {
+			if (connection != null) {
+				connection.sendMove(move, touchTime);
+			}
+		}
+		
+		@Override
+		public void addPremove(final UUID gameId, final String move) {
+			if (connection != null) {
+				final FreechessModel m = model;
+				connection.execute(new Runnable() {
+					@Override
+					public void run() {
+						m.addPremove(gameId, move);
+					}
+				});
+			}
+		}
+		
+		@Override
+		public void cancelPremoves(final UUID gameId) {
+			if (connection != null) {
+				final FreechessModel m = model;
+				connection.execute(new Runnable() {
+					@Override
+					public void run() {
+						m.cancelPremoves(gameId);
+					}
+				});
+			}
+		}
+		
+		@Override
+		public ConsoleLog.Entry getOutput() {
 			return model.getOutput();
 		}
 		
 		@Override
-		public Game getGame(UUID gameId) {
+		public SeekBook.Change getSeeks() {
+			return seekBook.getSnapshot();
+		}
+		
+		@Override
+		public GameSnapshot getGame(UUID gameId) {
 			if (model == null) {
 				return null;
 			}
-			return model.getGame(gameId);
+			return model.getGameSnapshot(gameId);
+		}
+		
+		@Override
+		public void toggleUserFlip(UUID gameId) {
+			if (model != null) {
+				model.toggleUserFlip(gameId);
+			}
 		}
 		
 		@Override
@@ -647,14 +758,19 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 		}
 		
 		synchronized private void sendMessage(int msgId) {
-			for (Handler h : listeners) {
-				h.sendEmptyMessage(msgId);
-			}
+			sendMessage(msgId, null);
 		}
 		
 		synchronized private void sendMessage(int msgId, Object data) {
+			// arg1 and arg2 carry the traced frame, if any, to BaseFreechessActivity
+			int frameTag = 0;
+			int frameStart = 0;
+			if (PipelineTrace.isEnabled()) {
+				frameTag = PipelineTrace.getFrameTag();
+				frameStart = PipelineTrace.getFrameStart();
+			}
 			for (Handler h : listeners) {
-				h.sendMessage(h.obtainMessage(msgId, data));
+				h.sendMessage(h.obtainMessage(msgId, frameTag, frameStart, data));
 			}
 		}
 		
@@ -669,6 +785,11 @@ public class FreechessService extends Service implements FreechessConnection.Lis
 			return model.isCurrentVersionOld();
 		}
 		
+		@Override
+		public String getLagStats() {
+			return model != null ? model.getLagEstimator().dump() : "";
+		}
+		
 //		synchronized private void sendMessage(int msgId, int data) {
 //			sendMessage(msgId, data, 0);
 //		}
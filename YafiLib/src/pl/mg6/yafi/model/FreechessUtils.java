@@ -1,5 +1,8 @@
 package pl.mg6.yafi.model;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import pl.mg6.yafi.model.data.UserTitle;
@@ -30,18 +33,65 @@ public class FreechessUtils {
 	}
 	
 	public static String moveToString(int initFile, int initRank, int destFile, int destRank) {
+		return moveToString(initFile, initRank, destFile, destRank, (char) 0);
+	}
+	
+	public static String moveToString(int initFile, int initRank, int destFile, int destRank, char promotion) {
 		builder.setLength(0);
 		builder.append((char) ('a' + initFile));
 		builder.append((char) ('8' - initRank));
 		builder.append((char) ('a' + destFile));
 		builder.append((char) ('8' - destRank));
+		if (promotion != 0) {
+			builder.append('=');
+			builder.append(promotion);
+		}
 		return builder.toString();
 	}
 	
+	public static boolean hasStandardMoveRules(String type) {
+		// board moves in these follow the usual rules, other variants are left to the server
+		return "lightning".equals(type) || "blitz".equals(type) || "standard".equals(type)
+				|| "untimed".equals(type) || "crazyhouse".equals(type) || "bughouse".equals(type);
+	}
+	
 	public static boolean isGuest(int titles) {
 		return (titles & UserTitle.UNREGISTERED) == UserTitle.UNREGISTERED;
 	}
 	
+	public static final int PRIORITY_MOVE = 0;
+	public static final int PRIORITY_GAME_CONTROL = 1;
+	public static final int PRIORITY_INTERACTIVE = 2;
+	public static final int PRIORITY_BACKGROUND = 3;
+	public static final int PRIORITY_COUNT = 4;
+	
+	private static final Pattern MOVE_CMD = Pattern.compile("^(?:[a-h][1-8][-x]?[a-h][1-8](?:=?[qrbnkQRBNK])?|[PNBRQK]?[a-h]?[1-8]?x?[a-h][1-8](?:=?[QRBN])?[+#]?|[PNBRQ]@[a-h][1-8]|[oO]-[oO](?:-[oO])?)$");
+	
+	private static final Set<String> GAME_CONTROL_CMDS = new HashSet<String>(Arrays.asList(
+			"abort", "accept", "adjourn", "decline", "draw", "flag", "moretime", "resign", "takeback", "withdraw"));
+	
+	private static final Set<String> BACKGROUND_CMDS = new HashSet<String>(Arrays.asList(
+			"$$", "finger", "history", "inchannel", "journal", "messages", "news", "pending", "showlist", "sought", "stored", "vars"));
+	
+	public static int getCommandPriority(String cmd) {
+		int end = 0;
+		while (end < cmd.length() && cmd.charAt(end) > ' ') {
+			end++;
+		}
+		String name = cmd.substring(0, end);
+		if (MOVE_CMD.matcher(name).matches()) {
+			return PRIORITY_MOVE;
+		}
+		name = name.toLowerCase();
+		if (GAME_CONTROL_CMDS.contains(name)) {
+			return PRIORITY_GAME_CONTROL;
+		}
+		if (BACKGROUND_CMDS.contains(name)) {
+			return PRIORITY_BACKGROUND;
+		}
+		return PRIORITY_INTERACTIVE;
+	}
+	
 	public static final String PING_CMD = "__yafi_pong";
 	
 	private static final String STYLE_12_X = "\u0007?\n<12> .*\n(?:<b1> game \\d+ white \\[\\w*\\] black \\[\\w*\\]\n)?";
@@ -153,7 +203,7 @@ public class FreechessUtils {
 			+ "((?:Removing game \\d+ from observation list\\.\n)*)"
 			+ "(?:Challenge to " + HANDLE_X + " withdrawn\\.\n)*"
 			+ "(?:\nChallenge from " + HANDLE_X + " removed\\.\n)*"
-			+ "\nCreating: " + HANDLE_X + " \\( *([-\\d+]+)[PE]?\\) " + HANDLE_X + " \\( *([-\\d+]+)[PE]?\\) (?:un)?rated \\S+ \\d+ \\d+(?: \\(adjourned\\))?\n"
+			+ "\nCreating: " + HANDLE_X + " \\( *([-\\d+]+)[PE]?\\) " + HANDLE_X + " \\( *([-\\d+]+)[PE]?\\) (?:un)?rated (\\S+) \\d+ \\d+(?: \\(adjourned\\))?\n"
 			+ "\\{Game \\d+ \\(" + HANDLE_X + " vs\\. " + HANDLE_X + "\\) (?:Creating|Continuing) (?:un)?rated \\S+ match\\.\\}\n)" + STYLE_12 + "((?:\nGame \\d+: .*\n)?)$");
 	
 	public static final Pattern GAMEINFO_OBSERVING = Pattern.compile("^((?:\n" + HANDLE_X + ", whom you are following, has started (?:a game with " + HANDLE_X + "|examining a game)\\.\n|\nAn observable star game has started\\.\n)?\n{0,2}You are now observing game \\d+\\.\nGame \\d+: " + HANDLE_X + " \\( *([-\\d+]+)[PE]?\\) " + HANDLE_X + " \\( *([-\\d+]+)[PE]?\\) (?:un)?rated \\S+ \\d+ \\d+\n)" + STYLE_12 + "$");
@@ -0,0 +1,136 @@
+package pl.mg6.yafi.model;
+
+import pl.mg6.common.LatencyHistogram;
+import pl.mg6.yafi.model.data.Game;
+
+// Smoothed round trip time to FICS from pings, move echoes and the lag the server reports.
+public final class LagEstimator implements Game.TransitDelaySource {
+
+	public static final int SOURCE_PING = 0;
+	public static final int SOURCE_MOVE = 1;
+	public static final int SOURCE_SERVER_LAG = 2;
+	private static final int SOURCE_COUNT = 3;
+	private static final String[] sourceNames = { "ping", "move", "server" };
+
+	private static final long PING_INTERVAL = 15000L * 1000000L;
+	private static final long PING_TIMEOUT = 60000L * 1000000L;
+	// a move that took longer to come back was most likely a premove waiting for the opponent
+	private static final long MAX_MOVE_ROUND_TRIP = 10000L * 1000L;
+	private static final int MAX_TRANSIT_DELAY = 1000;
+
+	private static final double[] percentiles = { 50, 90, 99 };
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[SOURCE_COUNT];
+
+	// microseconds, -1 until the first sample
+	private long smoothedRoundTrip = -1;
+	private long roundTripVariance;
+
+	// System.nanoTime(), 0 when nothing is outstanding
+	private long pingSentTime;
+	private long lastPingTime;
+	private long moveSentTime;
+	private boolean playing;
+
+	public LagEstimator() {
+		for (int i = 0; i < SOURCE_COUNT; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	public synchronized void setPlaying(boolean playing) {
+		this.playing = playing;
+	}
+
+	// whether it is time for another ping; if so it counts as sent now
+	public synchronized boolean startPing() {
+		if (!playing && smoothedRoundTrip >= 0) {
+			return false;
+		}
+		long now = System.nanoTime();
+		if (pingSentTime != 0 && now - pingSentTime < PING_TIMEOUT) {
+			return false;
+		}
+		if (lastPingTime != 0 && now - lastPingTime < PING_INTERVAL) {
+			return false;
+		}
+		pingSentTime = now;
+		lastPingTime = now;
+		return true;
+	}
+
+	public synchronized void onPingReply() {
+		if (pingSentTime != 0) {
+			addSample(SOURCE_PING, (System.nanoTime() - pingSentTime) / 1000);
+			pingSentTime = 0;
+		}
+	}
+
+	public synchronized void onMoveSent() {
+		moveSentTime = System.nanoTime();
+	}
+
+	// the server refused the move, so no echo is coming
+	public synchronized void onMoveRejected() {
+		moveSentTime = 0;
+	}
+
+	// our move is back in style12 with the lag in ms FICS measured for it
+	public synchronized void onMoveEcho(int lag) {
+		if (moveSentTime != 0) {
+			long roundTrip = (System.nanoTime() - moveSentTime) / 1000;
+			moveSentTime = 0;
+			if (roundTrip < MAX_MOVE_ROUND_TRIP) {
+				addSample(SOURCE_MOVE, roundTrip);
+			}
+		}
+		// 0 is what servers without timeseal support report
+		if (lag > 0) {
+			addSample(SOURCE_SERVER_LAG, lag * 1000L);
+		}
+	}
+
+	private void addSample(int source, long roundTrip) {
+		histograms[source].record(roundTrip);
+		if (smoothedRoundTrip < 0) {
+			smoothedRoundTrip = roundTrip;
+			roundTripVariance = roundTrip / 2;
+		} else {
+			roundTripVariance += (Math.abs(smoothedRoundTrip - roundTrip) - roundTripVariance) / 4;
+			smoothedRoundTrip += (roundTrip - smoothedRoundTrip) / 8;
+		}
+	}
+
+	// ms, -1 when not known yet
+	public synchronized int getRoundTrip() {
+		return smoothedRoundTrip < 0 ? -1 : (int) (smoothedRoundTrip / 1000);
+	}
+
+	public synchronized int getJitter() {
+		return smoothedRoundTrip < 0 ? -1 : (int) (roundTripVariance / 1000);
+	}
+
+	@Override
+	public synchronized int getTransitDelay() {
+		if (smoothedRoundTrip < 0) {
+			return 0;
+		}
+		return (int) Math.min(smoothedRoundTrip / 2000, MAX_TRANSIT_DELAY);
+	}
+
+	public synchronized String dump() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("rtt ").append(getRoundTrip()).append("ms, jitter ").append(getJitter())
+				.append("ms, clock compensation ").append(getTransitDelay()).append("ms\n");
+		builder.append(String.format("%-8s %8s %8s %8s %8s %8s\n", "source", "count", "p50", "p90", "p99", "max"));
+		for (int i = 0; i < SOURCE_COUNT; i++) {
+			LatencyHistogram histogram = histograms[i];
+			builder.append(String.format("%-8s %8d", sourceNames[i], histogram.getCount()));
+			for (double percentile : percentiles) {
+				builder.append(String.format(" %8d", histogram.getValueAtPercentile(percentile) / 1000));
+			}
+			builder.append(String.format(" %8d\n", histogram.getMax() / 1000));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,433 @@
+package pl.mg6.yafi.model;
+
+import pl.mg6.yafi.model.data.Color;
+import pl.mg6.yafi.model.data.Position;
+
+public final class MoveGenerator {
+
+	// squares are numbered 8 * rank + file, rank 0 being the 8th rank as in style12
+
+	public static final int PAWN = 0;
+	public static final int KNIGHT = 1;
+	public static final int BISHOP = 2;
+	public static final int ROOK = 3;
+	public static final int QUEEN = 4;
+	public static final int KING = 5;
+
+	private static final int BLACK = 6;
+	private static final int EMPTY = -1;
+
+	private static final String PIECES = "PNBRQKpnbrqk";
+
+	private static final int FLAG_EN_PASSANT = 1 << 15;
+	private static final int FLAG_CASTLING = 1 << 16;
+
+	private static final int CASTLING_WHITE_SHORT = 1;
+	private static final int CASTLING_WHITE_LONG = 2;
+	private static final int CASTLING_BLACK_SHORT = 4;
+	private static final int CASTLING_BLACK_LONG = 8;
+
+	private static final int MAX_MOVES = 256;
+	private static final int MAX_DEPTH = 64;
+
+	// N, S, E, W, NE, NW, SE, SW
+	private static final int[] DIRECTION_FILE = { 0, 0, 1, -1, 1, -1, 1, -1 };
+	private static final int[] DIRECTION_RANK = { -1, 1, 0, 0, -1, -1, 1, 1 };
+
+	private static final long[][] RAYS = new long[8][64];
+	private static final long[] KNIGHT_ATTACKS = new long[64];
+	private static final long[] KING_ATTACKS = new long[64];
+	private static final long[][] PAWN_ATTACKS = new long[2][64];
+	private static final int[] CASTLING_MASKS = new int[64];
+
+	static {
+		for (int square = 0; square < 64; square++) {
+			int file = square & 7;
+			int rank = square >> 3;
+			for (int d = 0; d < 8; d++) {
+				int f = file + DIRECTION_FILE[d];
+				int r = rank + DIRECTION_RANK[d];
+				if (isOnBoard(f, r)) {
+					KING_ATTACKS[square] |= 1L << (8 * r + f);
+				}
+				while (isOnBoard(f, r)) {
+					RAYS[d][square] |= 1L << (8 * r + f);
+					f += DIRECTION_FILE[d];
+					r += DIRECTION_RANK[d];
+				}
+			}
+			int[] jumps = { 1, 2, 2, 1, -1, 2, -2, 1, 1, -2, 2, -1, -1, -2, -2, -1 };
+			for (int i = 0; i < jumps.length; i += 2) {
+				if (isOnBoard(file + jumps[i], rank + jumps[i + 1])) {
+					KNIGHT_ATTACKS[square] |= 1L << (8 * (rank + jumps[i + 1]) + file + jumps[i]);
+				}
+			}
+			for (int df = -1; df <= 1; df += 2) {
+				if (isOnBoard(file + df, rank - 1)) {
+					PAWN_ATTACKS[0][square] |= 1L << (8 * (rank - 1) + file + df);
+				}
+				if (isOnBoard(file + df, rank + 1)) {
+					PAWN_ATTACKS[1][square] |= 1L << (8 * (rank + 1) + file + df);
+				}
+			}
+			CASTLING_MASKS[square] = 15;
+		}
+		CASTLING_MASKS[60] = ~(CASTLING_WHITE_SHORT | CASTLING_WHITE_LONG);
+		CASTLING_MASKS[63] = ~CASTLING_WHITE_SHORT;
+		CASTLING_MASKS[56] = ~CASTLING_WHITE_LONG;
+		CASTLING_MASKS[4] = ~(CASTLING_BLACK_SHORT | CASTLING_BLACK_LONG);
+		CASTLING_MASKS[7] = ~CASTLING_BLACK_SHORT;
+		CASTLING_MASKS[0] = ~CASTLING_BLACK_LONG;
+	}
+
+	private final long[] pieces = new long[12];
+	private final int[] board = new int[64];
+	private long whiteOccupied;
+	private long blackOccupied;
+	private boolean blackToMove;
+	private int castling;
+	private int enPassant;
+
+	private final int[] undoMoves = new int[MAX_DEPTH];
+	private final int[] undoCaptured = new int[MAX_DEPTH];
+	private final int[] undoCastling = new int[MAX_DEPTH];
+	private final int[] undoEnPassant = new int[MAX_DEPTH];
+	private int ply;
+
+	private final int[][] moveLists = new int[MAX_DEPTH][MAX_MOVES];
+
+	public MoveGenerator(Position pos) {
+		for (int square = 0; square < 64; square++) {
+			int piece = PIECES.indexOf(pos.getPieceAt(square & 7, square >> 3));
+			board[square] = piece;
+			if (piece != EMPTY) {
+				place(piece, square);
+			}
+		}
+		blackToMove = pos.getToMove() == Color.BLACK;
+		boolean[] casting = pos.getCasting();
+		for (int i = 0; i < 4; i++) {
+			if (casting[i]) {
+				castling |= 1 << i;
+			}
+		}
+		int file = pos.getEnPassantFile();
+		enPassant = 0 <= file && file < 8 ? 8 * (blackToMove ? 5 : 2) + file : EMPTY;
+	}
+
+	public boolean isBlackToMove() {
+		return blackToMove;
+	}
+
+	public long getDestinations(int from) {
+		int[] moves = moveLists[ply];
+		int count = generate(moves);
+		long destinations = 0;
+		for (int i = 0; i < count; i++) {
+			if ((moves[i] & 63) == from) {
+				destinations |= 1L << ((moves[i] >> 6) & 63);
+			}
+		}
+		return destinations;
+	}
+
+	public boolean isLegal(int from, int to) {
+		return (getDestinations(from) & (1L << to)) != 0;
+	}
+
+	public static long getPremoveDestinations(Position pos, int from) {
+		// squares the piece could reach after any reply, so blockers are ignored
+		int piece = PIECES.indexOf(pos.getPieceAt(from & 7, from >> 3));
+		if (piece == EMPTY) {
+			return 0;
+		}
+		boolean black = piece >= BLACK;
+		if (black == (pos.getToMove() == Color.BLACK)) {
+			return 0;
+		}
+		switch (piece % BLACK) {
+			case PAWN: {
+				long destinations = PAWN_ATTACKS[black ? 1 : 0][from];
+				int rank = from >> 3;
+				int step = black ? 8 : -8;
+				if (rank != (black ? 7 : 0)) {
+					destinations |= 1L << (from + step);
+				}
+				if (rank == (black ? 1 : 6)) {
+					destinations |= 1L << (from + 2 * step);
+				}
+				return destinations;
+			}
+			case KNIGHT:
+				return KNIGHT_ATTACKS[from];
+			case BISHOP:
+				return RAYS[4][from] | RAYS[5][from] | RAYS[6][from] | RAYS[7][from];
+			case ROOK:
+				return RAYS[0][from] | RAYS[1][from] | RAYS[2][from] | RAYS[3][from];
+			case QUEEN:
+				return RAYS[0][from] | RAYS[1][from] | RAYS[2][from] | RAYS[3][from]
+						| RAYS[4][from] | RAYS[5][from] | RAYS[6][from] | RAYS[7][from];
+			default: {
+				long destinations = KING_ATTACKS[from];
+				boolean[] casting = pos.getCasting();
+				int home = black ? 4 : 60;
+				if (from == home && casting[black ? 2 : 0]) {
+					destinations |= 1L << (home + 2);
+				}
+				if (from == home && casting[black ? 3 : 1]) {
+					destinations |= 1L << (home - 2);
+				}
+				return destinations;
+			}
+		}
+	}
+
+	public static boolean isPromotion(Position pos, int from, int to) {
+		char piece = pos.getPieceAt(from & 7, from >> 3);
+		return piece == 'P' && to < 8 || piece == 'p' && to >= 56;
+	}
+
+	public long perft(int depth) {
+		if (depth == 0) {
+			return 1;
+		}
+		int[] moves = moveLists[ply];
+		int count = generate(moves);
+		if (depth == 1) {
+			return count;
+		}
+		long nodes = 0;
+		for (int i = 0; i < count; i++) {
+			makeMove(moves[i]);
+			nodes += perft(depth - 1);
+			unmakeMove();
+		}
+		return nodes;
+	}
+
+	public int generate(int[] moves) {
+		int count = generatePseudoLegal(moves);
+		int legal = 0;
+		for (int i = 0; i < count; i++) {
+			int move = moves[i];
+			makeMove(move);
+			// the side that just moved must not be left in check
+			int king = Long.numberOfTrailingZeros(pieces[blackToMove ? KING : BLACK + KING]);
+			boolean inCheck = king < 64 && isAttacked(king, blackToMove);
+			unmakeMove();
+			if (!inCheck) {
+				moves[legal++] = move;
+			}
+		}
+		return legal;
+	}
+
+	private int generatePseudoLegal(int[] moves) {
+		int count = 0;
+		int side = blackToMove ? BLACK : 0;
+		long own = blackToMove ? blackOccupied : whiteOccupied;
+		long enemy = blackToMove ? whiteOccupied : blackOccupied;
+		long occupied = own | enemy;
+		long bits = pieces[side + KNIGHT];
+		while (bits != 0) {
+			int from = Long.numberOfTrailingZeros(bits);
+			bits &= bits - 1;
+			count = addMoves(moves, count, from, KNIGHT_ATTACKS[from] & ~own);
+		}
+		bits = pieces[side + BISHOP] | pieces[side + QUEEN];
+		while (bits != 0) {
+			int from = Long.numberOfTrailingZeros(bits);
+			bits &= bits - 1;
+			count = addMoves(moves, count, from, getBishopAttacks(from, occupied) & ~own);
+		}
+		bits = pieces[side + ROOK] | pieces[side + QUEEN];
+		while (bits != 0) {
+			int from = Long.numberOfTrailingZeros(bits);
+			bits &= bits - 1;
+			count = addMoves(moves, count, from, getRookAttacks(from, occupied) & ~own);
+		}
+		int king = Long.numberOfTrailingZeros(pieces[side + KING]);
+		if (king < 64) {
+			count = addMoves(moves, count, king, KING_ATTACKS[king] & ~own);
+			count = addCastling(moves, count, king, occupied);
+		}
+		bits = pieces[side + PAWN];
+		int step = blackToMove ? 8 : -8;
+		int startRank = blackToMove ? 1 : 6;
+		while (bits != 0) {
+			int from = Long.numberOfTrailingZeros(bits);
+			bits &= bits - 1;
+			int to = from + step;
+			if (to >= 0 && to < 64 && (occupied & (1L << to)) == 0) {
+				count = addPawnMoves(moves, count, from, to);
+				int twoSteps = to + step;
+				if (from >> 3 == startRank && (occupied & (1L << twoSteps)) == 0) {
+					moves[count++] = from | twoSteps << 6;
+				}
+			}
+			long captures = PAWN_ATTACKS[blackToMove ? 1 : 0][from];
+			long targets = captures & enemy;
+			while (targets != 0) {
+				to = Long.numberOfTrailingZeros(targets);
+				targets &= targets - 1;
+				count = addPawnMoves(moves, count, from, to);
+			}
+			if (enPassant != EMPTY && (captures & (1L << enPassant)) != 0
+					&& board[(from & ~7) | (enPassant & 7)] == (blackToMove ? PAWN : BLACK + PAWN)) {
+				moves[count++] = from | enPassant << 6 | FLAG_EN_PASSANT;
+			}
+		}
+		return count;
+	}
+
+	private int addMoves(int[] moves, int count, int from, long targets) {
+		while (targets != 0) {
+			int to = Long.numberOfTrailingZeros(targets);
+			targets &= targets - 1;
+			moves[count++] = from | to << 6;
+		}
+		return count;
+	}
+
+	private int addPawnMoves(int[] moves, int count, int from, int to) {
+		if (to < 8 || to >= 56) {
+			for (int piece = QUEEN; piece >= KNIGHT; piece--) {
+				moves[count++] = from | to << 6 | piece << 12;
+			}
+		} else {
+			moves[count++] = from | to << 6;
+		}
+		return count;
+	}
+
+	private int addCastling(int[] moves, int count, int king, long occupied) {
+		int home = blackToMove ? 4 : 60;
+		if (king != home || isAttacked(home, !blackToMove)) {
+			return count;
+		}
+		int rook = blackToMove ? BLACK + ROOK : ROOK;
+		int shortRight = blackToMove ? CASTLING_BLACK_SHORT : CASTLING_WHITE_SHORT;
+		int longRight = blackToMove ? CASTLING_BLACK_LONG : CASTLING_WHITE_LONG;
+		if ((castling & shortRight) != 0 && board[home + 3] == rook
+				&& (occupied & (3L << (home + 1))) == 0
+				&& !isAttacked(home + 1, !blackToMove) && !isAttacked(home + 2, !blackToMove)) {
+			moves[count++] = home | (home + 2) << 6 | FLAG_CASTLING;
+		}
+		if ((castling & longRight) != 0 && board[home - 4] == rook
+				&& (occupied & (7L << (home - 3))) == 0
+				&& !isAttacked(home - 1, !blackToMove) && !isAttacked(home - 2, !blackToMove)) {
+			moves[count++] = home | (home - 2) << 6 | FLAG_CASTLING;
+		}
+		return count;
+	}
+
+	private boolean isAttacked(int square, boolean byBlack) {
+		int side = byBlack ? BLACK : 0;
+		long occupied = whiteOccupied | blackOccupied;
+		return (KNIGHT_ATTACKS[square] & pieces[side + KNIGHT]) != 0
+				|| (KING_ATTACKS[square] & pieces[side + KING]) != 0
+				|| (PAWN_ATTACKS[byBlack ? 0 : 1][square] & pieces[side + PAWN]) != 0
+				|| (getBishopAttacks(square, occupied) & (pieces[side + BISHOP] | pieces[side + QUEEN])) != 0
+				|| (getRookAttacks(square, occupied) & (pieces[side + ROOK] | pieces[side + QUEEN])) != 0;
+	}
+
+	private static long getBishopAttacks(int square, long occupied) {
+		return getRayAttacks(4, square, occupied, false) | getRayAttacks(5, square, occupied, false)
+				| getRayAttacks(6, square, occupied, true) | getRayAttacks(7, square, occupied, true);
+	}
+
+	private static long getRookAttacks(int square, long occupied) {
+		return getRayAttacks(0, square, occupied, false) | getRayAttacks(1, square, occupied, true)
+				| getRayAttacks(2, square, occupied, true) | getRayAttacks(3, square, occupied, false);
+	}
+
+	private static long getRayAttacks(int direction, int square, long occupied, boolean increasing) {
+		long ray = RAYS[direction][square];
+		long blockers = ray & occupied;
+		if (blockers == 0) {
+			return ray;
+		}
+		int blocker = increasing ? Long.numberOfTrailingZeros(blockers) : 63 - Long.numberOfLeadingZeros(blockers);
+		return ray ^ RAYS[direction][blocker];
+	}
+
+	private void makeMove(int move) {
+		int from = move & 63;
+		int to = (move >> 6) & 63;
+		int promotion = (move >> 12) & 7;
+		int piece = board[from];
+		int captured = board[to];
+		undoMoves[ply] = move;
+		undoCastling[ply] = castling;
+		undoEnPassant[ply] = enPassant;
+		if ((move & FLAG_EN_PASSANT) != 0) {
+			int square = (from & ~7) | (to & 7);
+			captured = board[square];
+			remove(captured, square);
+		} else if (captured != EMPTY) {
+			remove(captured, to);
+		}
+		undoCaptured[ply] = captured;
+		remove(piece, from);
+		place(promotion != 0 ? piece - PAWN + promotion : piece, to);
+		if ((move & FLAG_CASTLING) != 0) {
+			int rook = to > from ? from + 3 : from - 4;
+			int rookPiece = board[rook];
+			remove(rookPiece, rook);
+			place(rookPiece, (from + to) / 2);
+		}
+		castling &= CASTLING_MASKS[from] & CASTLING_MASKS[to];
+		enPassant = piece % BLACK == PAWN && (to - from == 16 || from - to == 16) ? (from + to) / 2 : EMPTY;
+		blackToMove = !blackToMove;
+		ply++;
+	}
+
+	private void unmakeMove() {
+		ply--;
+		blackToMove = !blackToMove;
+		int move = undoMoves[ply];
+		int from = move & 63;
+		int to = (move >> 6) & 63;
+		int piece = board[to];
+		if ((move & FLAG_CASTLING) != 0) {
+			int rook = to > from ? from + 3 : from - 4;
+			int rookPiece = board[(from + to) / 2];
+			remove(rookPiece, (from + to) / 2);
+			place(rookPiece, rook);
+		}
+		remove(piece, to);
+		place(((move >> 12) & 7) != 0 ? (blackToMove ? BLACK + PAWN : PAWN) : piece, from);
+		int captured = undoCaptured[ply];
+		if (captured != EMPTY) {
+			place(captured, (move & FLAG_EN_PASSANT) != 0 ? (from & ~7) | (to & 7) : to);
+		}
+		castling = undoCastling[ply];
+		enPassant = undoEnPassant[ply];
+	}
+
+	private void place(int piece, int square) {
+		long bit = 1L << square;
+		pieces[piece] |= bit;
+		if (piece >= BLACK) {
+			blackOccupied |= bit;
+		} else {
+			whiteOccupied |= bit;
+		}
+		board[square] = piece;
+	}
+
+	private void remove(int piece, int square) {
+		long bit = ~(1L << square);
+		pieces[piece] &= bit;
+		if (piece >= BLACK) {
+			blackOccupied &= bit;
+		} else {
+			whiteOccupied &= bit;
+		}
+		board[square] = EMPTY;
+	}
+
+	private static boolean isOnBoard(int file, int rank) {
+		return 0 <= file && file < 8 && 0 <= rank && rank < 8;
+	}
+}
@@ -0,0 +1,140 @@
+package pl.mg6.yafi.model;
+
+import pl.mg6.common.BuildSettings;
+import pl.mg6.common.LatencyHistogram;
+
+// Latency of inbound frames per message type, from the first byte read to each pipeline stage.
+public final class PipelineTrace {
+
+	public static final int TYPE_GAME = 0;
+	public static final int TYPE_SEEK = 1;
+	public static final int TYPE_TELL = 2;
+	public static final int TYPE_OTHER = 3;
+	private static final int TYPE_COUNT = 4;
+	private static final String[] typeNames = { "game", "seek", "tell", "other" };
+
+	public static final int STAGE_FRAMED = 0;
+	public static final int STAGE_PARSED = 1;
+	public static final int STAGE_DISPATCHED = 2;
+	public static final int STAGE_DRAWN = 3;
+	private static final int STAGE_COUNT = 4;
+	private static final String[] stageNames = { "framed", "parsed", "dispatched", "drawn" };
+
+	private static final double[] percentiles = { 50, 90, 99, 99.9 };
+
+	private static volatile boolean enabled;
+	private static LatencyHistogram[][] histograms;
+	private static long startTime;
+
+	// type + 1 and start time of the frame being parsed on this thread, 0 when there is none
+	private static final ThreadLocal<int[]> currentFrame = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[2];
+		}
+	};
+
+	static {
+		setEnabled(BuildSettings.TRACE_PIPELINE);
+	}
+
+	private PipelineTrace() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static synchronized void setEnabled(boolean e) {
+		if (e && histograms == null) {
+			histograms = new LatencyHistogram[TYPE_COUNT][STAGE_COUNT];
+			for (int i = 0; i < TYPE_COUNT; i++) {
+				for (int j = 0; j < STAGE_COUNT; j++) {
+					histograms[i][j] = new LatencyHistogram();
+				}
+			}
+			startTime = System.currentTimeMillis();
+		}
+		enabled = e;
+	}
+
+	// microseconds, wraps every 71 minutes but differences do not
+	public static int getTime() {
+		return (int) (System.nanoTime() / 1000);
+	}
+
+	public static int getType(String frame) {
+		if (frame.indexOf("\n<12> ") != -1) {
+			return TYPE_GAME;
+		}
+		if (frame.startsWith("\n<s") || frame.startsWith("seekinfo ")) {
+			return TYPE_SEEK;
+		}
+		if (frame.startsWith("\n") && (frame.indexOf(" tells you: ") != -1 || frame.indexOf("): ") != -1
+				|| frame.indexOf(" shouts: ") != -1 || frame.indexOf(" kibitzes: ") != -1 || frame.indexOf(" whispers: ") != -1)) {
+			return TYPE_TELL;
+		}
+		return TYPE_OTHER;
+	}
+
+	public static synchronized void record(int type, int stage, int start) {
+		if (histograms != null) {
+			histograms[type][stage].record(getTime() - start);
+		}
+	}
+
+	public static void beginFrame(int type, int start) {
+		int[] frame = currentFrame.get();
+		frame[0] = type + 1;
+		frame[1] = start;
+	}
+
+	public static void endFrame() {
+		currentFrame.get()[0] = 0;
+	}
+
+	// type + 1 of the frame being parsed on the calling thread, 0 outside of frame processing
+	public static int getFrameTag() {
+		return currentFrame.get()[0];
+	}
+
+	public static int getFrameStart() {
+		return currentFrame.get()[1];
+	}
+
+	public static synchronized void reset() {
+		if (histograms != null) {
+			for (LatencyHistogram[] stages : histograms) {
+				for (LatencyHistogram histogram : stages) {
+					histogram.reset();
+				}
+			}
+			startTime = System.currentTimeMillis();
+		}
+	}
+
+	public static synchronized String dump() {
+		StringBuilder builder = new StringBuilder();
+		if (histograms == null) {
+			builder.append("pipeline trace disabled\n");
+			return builder.toString();
+		}
+		builder.append("pipeline trace ").append(enabled ? "enabled" : "paused")
+				.append(", ").append((System.currentTimeMillis() - startTime) / 1000).append("s, latency since read in us\n");
+		builder.append(String.format("%-6s %-10s %8s %8s %8s %8s %8s %8s\n", "type", "stage", "count", "p50", "p90", "p99", "p99.9", "max"));
+		for (int i = 0; i < TYPE_COUNT; i++) {
+			for (int j = 0; j < STAGE_COUNT; j++) {
+				LatencyHistogram histogram = histograms[i][j];
+				if (histogram.getCount() == 0) {
+					continue;
+				}
+				builder.append(String.format("%-6s %-10s %8d", typeNames[i], stageNames[j], histogram.getCount()));
+				for (double percentile : percentiles) {
+					builder.append(String.format(" %8d", histogram.getValueAtPercentile(percentile)));
+				}
+				builder.append(String.format(" %8d\n", histogram.getMax()));
+			}
+		}
+		return builder.toString();
+	}
+}
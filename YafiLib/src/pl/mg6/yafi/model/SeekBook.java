@@ -0,0 +1,178 @@
+package pl.mg6.yafi.model;
+
+import pl.mg6.common.IntIntMap;
+import pl.mg6.yafi.model.data.SeekInfo;
+import pl.mg6.yafi.model.data.SeekInfoList;
+
+public final class SeekBook {
+
+	public static final int CHANGE_RESET = 0;
+	public static final int CHANGE_ADD = 1;
+	public static final int CHANGE_REMOVE = 2;
+
+	private static final int NONE = -1;
+
+	// seeks live in slots linked in insertion order, the map finds a slot by seek id
+	private final IntIntMap slotsById = new IntIntMap(256);
+	private SeekInfo[] seeks = new SeekInfo[256];
+	private int[] next = new int[256];
+	private int[] previous = new int[256];
+	private int head = NONE;
+	private int tail = NONE;
+	private int freeSlot = NONE;
+	private int used;
+	private int size;
+
+	private long sequence;
+
+	public synchronized Change reset(SeekInfoList list) {
+		slotsById.clear();
+		for (int i = 0; i < used; i++) {
+			seeks[i] = null;
+		}
+		head = NONE;
+		tail = NONE;
+		freeSlot = NONE;
+		used = 0;
+		size = 0;
+		for (SeekInfo seek : list) {
+			put(seek);
+		}
+		sequence++;
+		return new Change(CHANGE_RESET, sequence, getSeeks());
+	}
+
+	public synchronized Change add(SeekInfo seek) {
+		put(seek);
+		sequence++;
+		SeekInfoList list = new SeekInfoList();
+		list.add(seek);
+		return new Change(CHANGE_ADD, sequence, list);
+	}
+
+	public synchronized Change addAll(SeekInfoList list) {
+		for (SeekInfo seek : list) {
+			put(seek);
+		}
+		sequence++;
+		return new Change(CHANGE_ADD, sequence, list);
+	}
+
+	public synchronized Change remove(SeekInfoList list) {
+		SeekInfoList removed = new SeekInfoList();
+		for (SeekInfo seek : list) {
+			int slot = slotsById.remove(seek.getId(), NONE);
+			if (slot != NONE) {
+				removed.add(seeks[slot]);
+				unlink(slot);
+			}
+		}
+		if (removed.size() == 0) {
+			return null;
+		}
+		sequence++;
+		return new Change(CHANGE_REMOVE, sequence, removed);
+	}
+
+	public synchronized Change getSnapshot() {
+		return new Change(CHANGE_RESET, sequence, getSeeks());
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	private SeekInfoList getSeeks() {
+		SeekInfoList list = new SeekInfoList();
+		for (int slot = head; slot != NONE; slot = next[slot]) {
+			list.add(seeks[slot]);
+		}
+		return list;
+	}
+
+	private void put(SeekInfo seek) {
+		int slot = slotsById.get(seek.getId(), NONE);
+		if (slot != NONE) {
+			// the server reuses ids, a repeated one replaces the seek in place
+			seeks[slot] = seek;
+			return;
+		}
+		if (freeSlot != NONE) {
+			slot = freeSlot;
+			freeSlot = next[slot];
+		} else {
+			if (used == seeks.length) {
+				grow();
+			}
+			slot = used++;
+		}
+		seeks[slot] = seek;
+		next[slot] = NONE;
+		previous[slot] = tail;
+		if (tail != NONE) {
+			next[tail] = slot;
+		} else {
+			head = slot;
+		}
+		tail = slot;
+		slotsById.put(seek.getId(), slot);
+		size++;
+	}
+
+	private void unlink(int slot) {
+		int p = previous[slot];
+		int n = next[slot];
+		if (p != NONE) {
+			next[p] = n;
+		} else {
+			head = n;
+		}
+		if (n != NONE) {
+			previous[n] = p;
+		} else {
+			tail = p;
+		}
+		seeks[slot] = null;
+		next[slot] = freeSlot;
+		freeSlot = slot;
+		size--;
+	}
+
+	private void grow() {
+		int capacity = 2 * seeks.length;
+		SeekInfo[] newSeeks = new SeekInfo[capacity];
+		System.arraycopy(seeks, 0, newSeeks, 0, used);
+		seeks = newSeeks;
+		int[] newNext = new int[capacity];
+		System.arraycopy(next, 0, newNext, 0, used);
+		next = newNext;
+		int[] newPrevious = new int[capacity];
+		System.arraycopy(previous, 0, newPrevious, 0, used);
+		previous = newPrevious;
+	}
+
+	public static final class Change {
+
+		private final int type;
+		private final long sequence;
+		private final SeekInfoList seeks;
+
+		private Change(int type, long sequence, SeekInfoList seeks) {
+			this.type = type;
+			this.sequence = sequence;
+			this.seeks = seeks;
+		}
+
+		public int getType() {
+			return type;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public SeekInfoList getSeeks() {
+			return seeks;
+		}
+	}
+}
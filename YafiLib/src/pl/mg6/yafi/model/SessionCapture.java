@@ -0,0 +1,70 @@
+package pl.mg6.yafi.model;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Records inbound frames and stamps with their arrival time so a session can be replayed later.
+// File layout: magic, version, wall clock start time in ms, then records of
+// type byte, varint microseconds since the previous record and, for frames, varint length and bytes.
+public final class SessionCapture {
+
+	static final int MAGIC = 0x59434150;
+	static final int VERSION = 1;
+
+	public static final int RECORD_FRAME = 1;
+	public static final int RECORD_STAMP = 2;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final OutputStream out;
+	private final long startNanos;
+	private long lastMicros;
+
+	public SessionCapture(OutputStream out) throws IOException {
+		this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+		startNanos = System.nanoTime();
+		writeInt(MAGIC);
+		this.out.write(VERSION);
+		long startTime = System.currentTimeMillis();
+		writeInt((int) (startTime >>> 32));
+		writeInt((int) startTime);
+	}
+
+	public void writeFrame(byte[] buffer, int offset, int count) throws IOException {
+		writeRecord(RECORD_FRAME);
+		writeVarint(count);
+		out.write(buffer, offset, count);
+	}
+
+	public void writeStamp() throws IOException {
+		writeRecord(RECORD_STAMP);
+	}
+
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private void writeRecord(int type) throws IOException {
+		// deltas are taken from the start time so rounding does not drift
+		long micros = (System.nanoTime() - startNanos) / 1000;
+		out.write(type);
+		writeVarint(micros - lastMicros);
+		lastMicros = micros;
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private void writeVarint(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+}
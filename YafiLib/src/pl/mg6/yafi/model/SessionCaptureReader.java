@@ -0,0 +1,109 @@
+package pl.mg6.yafi.model;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class SessionCaptureReader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final InputStream in;
+	private final long startTime;
+
+	private int type;
+	private long time;
+	private byte[] buffer = new byte[4096];
+	private int count;
+
+	public SessionCaptureReader(InputStream in) throws IOException {
+		this.in = new BufferedInputStream(in, BUFFER_SIZE);
+		if (readInt() != SessionCapture.MAGIC) {
+			throw new IOException("not a session capture");
+		}
+		int version = readByte();
+		if (version != SessionCapture.VERSION) {
+			throw new IOException("unsupported session capture version " + version);
+		}
+		startTime = ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	// moves to the next record, false at the end of the capture
+	public boolean next() throws IOException {
+		int b = in.read();
+		if (b == -1) {
+			return false;
+		}
+		type = b;
+		time += readVarint();
+		count = 0;
+		if (type == SessionCapture.RECORD_FRAME) {
+			count = (int) readVarint();
+			if (buffer.length < count) {
+				buffer = new byte[Math.max(count, buffer.length << 1)];
+			}
+			int offset = 0;
+			while (offset < count) {
+				int n = in.read(buffer, offset, count - offset);
+				if (n == -1) {
+					throw new EOFException();
+				}
+				offset += n;
+			}
+		} else if (type != SessionCapture.RECORD_STAMP) {
+			throw new IOException("unknown record type " + type);
+		}
+		return true;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	// microseconds since the capture started
+	public long getTime() {
+		return time;
+	}
+
+	// valid until the next call to next()
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b == -1) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	private int readInt() throws IOException {
+		return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
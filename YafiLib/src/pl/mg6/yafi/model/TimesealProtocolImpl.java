@@ -1,7 +1,6 @@
 package pl.mg6.yafi.model;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 
 import pl.mg6.common.TimeUtils;
@@ -10,106 +9,48 @@ public class TimesealProtocolImpl implements ConnectionProtocol {
 	
 	private TelnetProtocolImpl telnet;
 
-	private static final byte[] stamp = "\n[G]\n".getBytes();
 	private static final byte[] stampReply = "\n\u00029\n".getBytes();
 	private static final byte[] about ="Timestamp (FICS) v1.0 - programmed by Henrik Gram.".getBytes();
 	
-	private byte[] readBuffer, writeBuffer;
-	private int readBufferCount;
+	private byte[] writeBuffer;
 	private int writeBufferCount;
-	private byte[] encodeBuffer;
+	private int lineCount;
 	private long startTime;
 
-	public TimesealProtocolImpl(InputStream istream, OutputStream ostream) throws IOException {
-		telnet = new TelnetProtocolImpl(istream, ostream);
-		
-		readBuffer = new byte[4096];
+	public TimesealProtocolImpl(OutputStream ostream) throws IOException {
+		telnet = new TelnetProtocolImpl(null, ostream);
 		
 		writeBuffer = new byte[4096];
-		encodeBuffer = new byte[240];
 		startTime = TimeUtils.getTimestamp();
 	}
 	
+	// inbound bytes are decoded by FreechessDecoder
 	public int read() throws IOException {
 		throw new IOException();
 	}
 	
 	@Override
 	public int read(byte[] buffer) throws IOException {
-		return read(buffer, 0, buffer.length);
+		throw new IOException();
 	}
 	
 	@Override
 	public int read(byte[] buffer, int offset, int count) throws IOException {
-		if (readBufferCount - (stamp.length - 1) >= count) {
-			System.arraycopy(readBuffer, 0, buffer, offset, count);
-			readBufferCount -= count;
-			System.arraycopy(readBuffer, count, readBuffer, 0, readBufferCount);
-		} else {
-			int size = telnet.read(readBuffer, readBufferCount, readBuffer.length - readBufferCount);
-			if (size == -1) {
-				if (readBufferCount > 0) {
-					count = Math.min(count, readBufferCount);
-					System.arraycopy(readBuffer, 0, buffer, offset, count);
-					readBufferCount -= count;
-					System.arraycopy(readBuffer, count, readBuffer, 0, readBufferCount);
-				} else {
-					count = -1;
-				}
-			} else {
-				readBufferCount += size;
-				outer:
-				for (int i = 0; i <= readBufferCount - stamp.length; i++) {
-					for (int j = 0; j < stamp.length; j++) {
-						if (readBuffer[i + j] != stamp[j]) {
-							continue outer;
-						}
-					}
-					// stamp found
-					write(stampReply);
-					System.arraycopy(readBuffer, i + stamp.length, readBuffer, i, readBufferCount - (i + stamp.length));
-					readBufferCount -= stamp.length;
-					i--;
-				}
-				if (readBufferCount - (stamp.length - 1) >= count) {
-					System.arraycopy(readBuffer, 0, buffer, offset, count);
-					readBufferCount -= count;
-					System.arraycopy(readBuffer, count, readBuffer, 0, readBufferCount);
-				} else {
-					int leaveLastBytes = Math.min(readBufferCount, stamp.length - 1);
-					outer:
-					while (leaveLastBytes > 0) {
-						for (int i = 0; i < leaveLastBytes; i++) {
-							if (readBuffer[readBufferCount - leaveLastBytes + i] != stamp[i]) {
-								leaveLastBytes--;
-								continue outer;
-							}
-						}
-						break;
-					}
-					count = Math.min(count, readBufferCount - leaveLastBytes);
-					System.arraycopy(readBuffer, 0, buffer, offset, count);
-					readBufferCount -= count;
-					System.arraycopy(readBuffer, count, readBuffer, 0, readBufferCount);
-				}
-			}
-		}
-		return count;
+		throw new IOException();
+	}
+	
+	public void writeStampReply() throws IOException {
+		write(stampReply);
 	}
 	
 	@Override
 	synchronized public void write(int b) throws IOException {
+		ensureCapacity(1);
 		if (b == '\n') {
-			encodeAndWrite(writeBuffer, writeBufferCount);
-			writeBufferCount = 0;
+			encodeLine();
 		} else {
-			if (writeBuffer.length == writeBufferCount) {
-				byte[] tmp = new byte[writeBuffer.length << 1];
-				System.arraycopy(writeBuffer, 0, tmp, 0, writeBufferCount);
-				writeBuffer = tmp;
-			}
-			writeBuffer[writeBufferCount] = (byte) b;
-			writeBufferCount++;
+			writeBuffer[writeBufferCount + lineCount] = (byte) b;
+			lineCount++;
 		}
 	}
 	
@@ -120,45 +61,83 @@ public class TimesealProtocolImpl implements ConnectionProtocol {
 	
 	@Override
 	synchronized public void write(byte[] buffer, int offset, int count) throws IOException {
-		for (int i = 0; i < count; i++) {
-			write(buffer[offset + i]);
+		int end = offset + count;
+		int start = offset;
+		for (int i = offset; i < end; i++) {
+			if (buffer[i] == '\n') {
+				ensureCapacity(i - start);
+				System.arraycopy(buffer, start, writeBuffer, writeBufferCount + lineCount, i - start);
+				lineCount += i - start;
+				encodeLine();
+				start = i + 1;
+			}
 		}
+		ensureCapacity(end - start);
+		System.arraycopy(buffer, start, writeBuffer, writeBufferCount + lineCount, end - start);
+		lineCount += end - start;
 	}
-
-	private void encodeAndWrite(byte[] data, int count) throws IOException {
-		long currentTime = TimeUtils.getTimestamp();
-		long diff = currentTime - startTime;
-		byte[] timestamp = Long.toString(diff).getBytes();
-		int length = count + 1 + timestamp.length;
+	
+	synchronized public void flush() throws IOException {
+		if (writeBufferCount > 0) {
+			telnet.write(writeBuffer, 0, writeBufferCount);
+			telnet.flush();
+			System.arraycopy(writeBuffer, writeBufferCount, writeBuffer, 0, lineCount);
+			writeBufferCount = 0;
+		}
+	}
+	
+	private void ensureCapacity(int count) {
+		// room for the line, timestamp, padding and the 134 10 trailer
+		int required = writeBufferCount + lineCount + count + 40;
+		if (required > writeBuffer.length) {
+			int capacity = writeBuffer.length << 1;
+			while (capacity < required) {
+				capacity <<= 1;
+			}
+			byte[] tmp = new byte[capacity];
+			System.arraycopy(writeBuffer, 0, tmp, 0, writeBufferCount + lineCount);
+			writeBuffer = tmp;
+		}
+	}
+	
+	private void encodeLine() {
+		final byte[] buffer = writeBuffer;
+		final int start = writeBufferCount;
+		int i = start + lineCount;
+		long diff = TimeUtils.getTimestamp() - startTime;
+		int digits = 1;
+		for (long n = diff / 10; n > 0; n /= 10) {
+			digits++;
+		}
+		int length = lineCount + 1 + digits;
 		length += 12 - length % 12;
-		if (length > encodeBuffer.length) {
-			encodeBuffer = new byte[length];
+		buffer[i++] = 24;
+		for (int j = i + digits - 1; j >= i; j--) {
+			buffer[j] = (byte) ('0' + diff % 10);
+			diff /= 10;
 		}
-		int i = 0;
-		System.arraycopy(data, 0, encodeBuffer, i, count);
-		i += count;
-		encodeBuffer[i++] = 24;
-		System.arraycopy(timestamp, 0, encodeBuffer, i, timestamp.length);
-		i += timestamp.length;
-		encodeBuffer[i++] = 25;
-		while (i < length) {
-			encodeBuffer[i++] = 49;
+		i += digits;
+		buffer[i++] = 25;
+		int end = start + length;
+		while (i < end) {
+			buffer[i++] = 49;
 		}
-		for (i = 0; i < length; i += 12) {
+		for (i = start; i < end; i += 12) {
 			for (int j = 0; j < 6; j += 2) {
-				byte tmp = encodeBuffer[i + j];
-				encodeBuffer[i + j] = encodeBuffer[i + 11 - j];
-				encodeBuffer[i + 11 - j] = tmp;
+				byte tmp = buffer[i + j];
+				buffer[i + j] = buffer[i + 11 - j];
+				buffer[i + 11 - j] = tmp;
 			}
 		}
 		for (i = 0; i < length; i++) {
-			encodeBuffer[i] |= 128;
-			encodeBuffer[i] ^= about[(i + 6) % about.length];
-			encodeBuffer[i] -= 32;
+			int k = start + i;
+			buffer[k] |= 128;
+			buffer[k] ^= about[(i + 6) % about.length];
+			buffer[k] -= 32;
 		}
-		telnet.write(encodeBuffer, 0, length);
-		telnet.write(134);
-		telnet.write(10);
-		telnet.flush();
+		buffer[end] = (byte) 134;
+		buffer[end + 1] = 10;
+		writeBufferCount = end + 2;
+		lineCount = 0;
 	}
 }
@@ -5,9 +5,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Matcher;
 
-import pl.mg6.common.Settings;
+import pl.mg6.common.BuildSettings;
+import pl.mg6.common.Logger;
 import pl.mg6.yafi.model.FreechessUtils;
-import android.util.Log;
 
 public class AdjournedInfo implements Iterable<AdjournedInfo.Entry> {
 	
@@ -117,9 +117,9 @@ public class AdjournedInfo implements Iterable<AdjournedInfo.Entry> {
 		m = FreechessUtils.ADJOURNED_ENTRY.matcher(m.group(2));
 		int lastMatchEnd = 0;
 		while (m.find()) {
-			if (Settings.LOG_SERVER_COMMUNICATION) {
+			if (BuildSettings.LOG_SERVER_COMMUNICATION) {
 				if (m.start() != lastMatchEnd) {
-					Log.e(TAG, info.user + "\n" + m.group());
+					Logger.e(TAG, info.user + "\n" + m.group());
 				}
 				lastMatchEnd = m.end();
 			}
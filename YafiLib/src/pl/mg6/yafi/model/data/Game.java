@@ -1,14 +1,21 @@
 package pl.mg6.yafi.model.data;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 import pl.mg6.common.TimeUtils;
 
 public class Game {
 	
-	private List<Position> positions;
+	private static final int INITIAL_CAPACITY = 64;
+	
+	private final AtomicReference<GameSnapshot> snapshot = new AtomicReference<GameSnapshot>();
+	
+	private PositionHistory history;
+	private final RepetitionTable repetitions = new RepetitionTable();
+	private int positionCount;
+	private int publishedCount;
+	private int currentIndex;
 	
 	private UUID uuid;
 	private long gameTimestamp;
@@ -20,18 +27,20 @@ public class Game {
 	private String whiteRating;
 	private String blackRating;
 	
+	private String type;
+	
 	private Color toMove;
 	
 	private int whiteTime;
 	private int blackTime;
 	private long timestamp;
 	private boolean timeRunning;
+	private final TransitDelaySource transitDelay;
 	
 	private String result;
 	private String description;
 	
 	private boolean flip;
-	private boolean userFlip;
 	
 	private int relation;
 	
@@ -43,11 +52,14 @@ public class Game {
 	public static final int RELATION_PLAYING_MY_MOVE = 1;
 	public static final int RELATION_EXAMINING = 2;
 	
-	public Game() {
+	public Game(TransitDelaySource transitDelay) {
+		this.transitDelay = transitDelay;
 		uuid = UUID.randomUUID();
 		gameTimestamp = TimeUtils.getTimestamp();
 		id = -1;
-		positions = new ArrayList<Position>();
+		history = new PositionHistory(INITIAL_CAPACITY);
+		currentIndex = -1;
+		publish();
 	}
 	
 	public void addPosition(Position pos) {
@@ -56,7 +68,8 @@ public class Game {
 		} else if (id != pos.getGameId()) {
 			throw new IllegalArgumentException();
 		}
-		timestamp = pos.getTimestamp();
+		// the clock kept running on the server while the position was on its way
+		timestamp = pos.getTimestamp() - transitDelay.getTransitDelay();
 		if (pos.getBlackName().equals(whiteName) && pos.getWhiteName().equals(blackName)) {
 			// switch command
 			String rating = whiteRating;
@@ -71,18 +84,82 @@ public class Game {
 		timeRunning = pos.isTimeRunning();
 		flip = pos.isFlip();
 		relation = pos.getRelation();
-		while (getPositionCount() > 0 && pos.getMoveIndex() <= positions.get(getPositionCount() - 1).getMoveIndex()) {
-			positions.remove(getPositionCount() - 1);
+		int count = positionCount;
+		int moveIndex = pos.getMoveIndex();
+		while (count > 0 && moveIndex <= history.getMoveIndex(count - 1)) {
+			count--;
+		}
+		long hash = count > 0 ? Zobrist.update(history.getHash(count - 1), history.get(count - 1), pos) : Zobrist.hash(pos);
+		if (count < positionCount && isBrowsable(relation) && history.getMoveIndex(count) == moveIndex
+				&& history.getHash(count) == hash && history.get(count).hasSameBoard(pos)) {
+			// examined game stepped along the known line, keep the plies ahead of it
+			currentIndex = count;
+			publish();
+			return;
+		}
+		for (int i = count; i < positionCount; i++) {
+			repetitions.remove(history.getHash(i));
+		}
+		int capacity = history.getCapacity();
+		if (count < publishedCount || count == capacity) {
+			// slots visible through a snapshot are never written again
+			history = history.copy(count, count == capacity ? 2 * capacity : capacity);
 		}
-		positions.add(pos);
+		history.set(count, pos, hash, repetitions.add(hash));
+		positionCount = count + 1;
+		currentIndex = count;
+		publish();
+	}
+	
+	private static boolean isBrowsable(int relation) {
+		return relation == RELATION_EXAMINING || relation == RELATION_OBSERVING_EXAMINED;
 	}
 	
 	public int getPositionCount() {
-		return positions.size();
+		return positionCount;
 	}
 	
 	public Position getPosition(int index) {
-		return positions.get(index);
+		checkIndex(index);
+		return history.get(index);
+	}
+	
+	public int getCurrentIndex() {
+		return currentIndex;
+	}
+	
+	public long getHash(int index) {
+		checkIndex(index);
+		return history.getHash(index);
+	}
+	
+	public int getRepetitionCount(int index) {
+		checkIndex(index);
+		return history.getRepetitionCount(index);
+	}
+	
+	public boolean isThreefoldRepetition() {
+		return currentIndex >= 0 && history.getRepetitionCount(currentIndex) >= 3;
+	}
+	
+	private void checkIndex(int index) {
+		if (index >= positionCount) {
+			throw new IndexOutOfBoundsException("index " + index + ", count " + positionCount);
+		}
+	}
+	
+	public GameSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+	
+	private void publish() {
+		publishedCount = positionCount;
+		GameSnapshot current;
+		GameSnapshot next;
+		do {
+			current = snapshot.get();
+			next = new GameSnapshot(this, history, positionCount, current != null && current.isUserFlip());
+		} while (!snapshot.compareAndSet(current, next));
 	}
 	
 	public UUID getUUID() {
@@ -111,6 +188,7 @@ public class Game {
 	
 	public void setWhiteRating(String whiteRating) {
 		this.whiteRating = whiteRating;
+		publish();
 	}
 	
 	public String getBlackRating() {
@@ -119,6 +197,16 @@ public class Game {
 	
 	public void setBlackRating(String blackRating) {
 		this.blackRating = blackRating;
+		publish();
+	}
+	
+	public String getType() {
+		return type;
+	}
+	
+	public void setType(String type) {
+		this.type = type;
+		publish();
 	}
 	
 	public boolean isTimeRunning() {
@@ -134,11 +222,18 @@ public class Game {
 	}
 	
 	public boolean isFlip() {
-		return flip ^ userFlip;
+		return flip ^ snapshot.get().isUserFlip();
+	}
+	
+	boolean isServerFlip() {
+		return flip;
 	}
 	
 	public void toggleUserFlip() {
-		userFlip = !userFlip;
+		GameSnapshot current;
+		do {
+			current = snapshot.get();
+		} while (!snapshot.compareAndSet(current, current.withUserFlip(!current.isUserFlip())));
 	}
 	
 	public int getRelation() {
@@ -147,30 +242,31 @@ public class Game {
 	
 	public void setRelation(int relation) {
 		this.relation = relation;
+		publish();
 	}
 	
-	public int getCurrentWhiteTime() {
-		if (!timeRunning || toMove == Color.BLACK) {
-			return whiteTime;
-		}
-		return whiteTime - (int) (TimeUtils.getTimestamp() - timestamp);
+	Color getToMove() {
+		return toMove;
 	}
-
-	public int getCurrentBlackTime() {
-		if (!timeRunning || toMove == Color.WHITE) {
-			return blackTime;
-		}
-		return blackTime - (int) (TimeUtils.getTimestamp() - timestamp);
+	
+	int getWhiteTime() {
+		return whiteTime;
 	}
 	
-	public String getCurrentWhiteTimeString() {
-		int currentWhiteTime = getCurrentWhiteTime();
-		return TimeUtils.formatTime(currentWhiteTime, currentWhiteTime < 60000);
+	int getBlackTime() {
+		return blackTime;
 	}
 	
-	public String getCurrentBlackTimeString() {
-		int currentBlackTime = getCurrentBlackTime();
-		return TimeUtils.formatTime(currentBlackTime, currentBlackTime < 60000);
+	long getTimestamp() {
+		return timestamp;
+	}
+	
+	public int getCurrentWhiteTime() {
+		return GameSnapshot.getCurrentTime(whiteTime, timeRunning && toMove != Color.BLACK, timestamp);
+	}
+
+	public int getCurrentBlackTime() {
+		return GameSnapshot.getCurrentTime(blackTime, timeRunning && toMove != Color.WHITE, timestamp);
 	}
 
 	public void setResult(String result, String description) {
@@ -179,6 +275,7 @@ public class Game {
 		this.whiteTime = getCurrentWhiteTime();
 		this.blackTime = getCurrentBlackTime();
 		this.timeRunning = false;
+		publish();
 	}
 
 	public void addNote(String note) {
@@ -188,4 +285,10 @@ public class Game {
 	public void addCommunication(Communication c) {
 		//TODO: adding user communications
 	}
+	
+	public interface TransitDelaySource {
+		
+		// ms a style12 has spent on its way here
+		int getTransitDelay();
+	}
 }
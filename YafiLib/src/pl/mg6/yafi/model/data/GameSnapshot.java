@@ -0,0 +1,205 @@
+package pl.mg6.yafi.model.data;
+
+import java.util.UUID;
+
+import pl.mg6.common.TimeUtils;
+
+public final class GameSnapshot {
+	
+	private final PositionHistory history;
+	private final int positionCount;
+	private final int currentIndex;
+	
+	private final UUID uuid;
+	private final long gameTimestamp;
+	
+	private final int id;
+	private final String whiteName;
+	private final String blackName;
+	
+	private final String whiteRating;
+	private final String blackRating;
+	
+	private final String type;
+	
+	private final Color toMove;
+	
+	private final int whiteTime;
+	private final int blackTime;
+	private final long timestamp;
+	private final boolean timeRunning;
+	
+	private final String result;
+	private final String description;
+	
+	private final boolean flip;
+	private final boolean userFlip;
+	
+	private final int relation;
+	
+	GameSnapshot(Game game, PositionHistory history, int positionCount, boolean userFlip) {
+		this.history = history;
+		this.positionCount = positionCount;
+		this.currentIndex = game.getCurrentIndex();
+		this.uuid = game.getUUID();
+		this.gameTimestamp = game.getGameTimestamp();
+		this.id = game.getId();
+		this.whiteName = game.getWhiteName();
+		this.blackName = game.getBlackName();
+		this.whiteRating = game.getWhiteRating();
+		this.blackRating = game.getBlackRating();
+		this.type = game.getType();
+		this.toMove = game.getToMove();
+		this.whiteTime = game.getWhiteTime();
+		this.blackTime = game.getBlackTime();
+		this.timestamp = game.getTimestamp();
+		this.timeRunning = game.isTimeRunning();
+		this.result = game.getResult();
+		this.description = game.getDescription();
+		this.flip = game.isServerFlip();
+		this.userFlip = userFlip;
+		this.relation = game.getRelation();
+	}
+	
+	private GameSnapshot(GameSnapshot other, boolean userFlip) {
+		this.history = other.history;
+		this.positionCount = other.positionCount;
+		this.currentIndex = other.currentIndex;
+		this.uuid = other.uuid;
+		this.gameTimestamp = other.gameTimestamp;
+		this.id = other.id;
+		this.whiteName = other.whiteName;
+		this.blackName = other.blackName;
+		this.whiteRating = other.whiteRating;
+		this.blackRating = other.blackRating;
+		this.type = other.type;
+		this.toMove = other.toMove;
+		this.whiteTime = other.whiteTime;
+		this.blackTime = other.blackTime;
+		this.timestamp = other.timestamp;
+		this.timeRunning = other.timeRunning;
+		this.result = other.result;
+		this.description = other.description;
+		this.flip = other.flip;
+		this.userFlip = userFlip;
+		this.relation = other.relation;
+	}
+	
+	GameSnapshot withUserFlip(boolean userFlip) {
+		return new GameSnapshot(this, userFlip);
+	}
+	
+	boolean isUserFlip() {
+		return userFlip;
+	}
+	
+	public int getPositionCount() {
+		return positionCount;
+	}
+	
+	public Position getPosition(int index) {
+		checkIndex(index);
+		return history.get(index);
+	}
+	
+	public int getCurrentIndex() {
+		return currentIndex;
+	}
+	
+	public long getHash(int index) {
+		checkIndex(index);
+		return history.getHash(index);
+	}
+	
+	public int getRepetitionCount(int index) {
+		checkIndex(index);
+		return history.getRepetitionCount(index);
+	}
+	
+	public boolean isThreefoldRepetition() {
+		return currentIndex >= 0 && history.getRepetitionCount(currentIndex) >= 3;
+	}
+	
+	private void checkIndex(int index) {
+		if (index >= positionCount) {
+			throw new IndexOutOfBoundsException("index " + index + ", count " + positionCount);
+		}
+	}
+	
+	public UUID getUUID() {
+		return uuid;
+	}
+	
+	public long getGameTimestamp() {
+		return gameTimestamp;
+	}
+	
+	public int getId() {
+		return id;
+	}
+	
+	public String getWhiteName() {
+		return whiteName;
+	}
+	
+	public String getBlackName() {
+		return blackName;
+	}
+	
+	public String getWhiteRating() {
+		return whiteRating;
+	}
+	
+	public String getBlackRating() {
+		return blackRating;
+	}
+	
+	public String getType() {
+		return type;
+	}
+	
+	public boolean isTimeRunning() {
+		return timeRunning;
+	}
+	
+	public String getResult() {
+		return result;
+	}
+	
+	public String getDescription() {
+		return description;
+	}
+	
+	public boolean isFlip() {
+		return flip ^ userFlip;
+	}
+	
+	public int getRelation() {
+		return relation;
+	}
+	
+	public int getCurrentWhiteTime() {
+		return getCurrentTime(whiteTime, timeRunning && toMove != Color.BLACK, timestamp);
+	}
+	
+	public int getCurrentBlackTime() {
+		return getCurrentTime(blackTime, timeRunning && toMove != Color.WHITE, timestamp);
+	}
+	
+	public String getCurrentWhiteTimeString() {
+		int currentWhiteTime = getCurrentWhiteTime();
+		return TimeUtils.formatTime(currentWhiteTime, currentWhiteTime < 60000);
+	}
+	
+	public String getCurrentBlackTimeString() {
+		int currentBlackTime = getCurrentBlackTime();
+		return TimeUtils.formatTime(currentBlackTime, currentBlackTime < 60000);
+	}
+	
+	static int getCurrentTime(int time, boolean running, long timestamp) {
+		if (!running) {
+			return time;
+		}
+		return time - (int) (TimeUtils.getTimestamp() - timestamp);
+	}
+}
@@ -5,9 +5,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Matcher;
 
-import pl.mg6.common.Settings;
+import pl.mg6.common.BuildSettings;
+import pl.mg6.common.Logger;
 import pl.mg6.yafi.model.FreechessUtils;
-import android.util.Log;
 
 public class JournalInfo implements Iterable<JournalInfo.Entry> {
 	
@@ -131,9 +131,9 @@ public class JournalInfo implements Iterable<JournalInfo.Entry> {
 		m = FreechessUtils.JOURNAL_ENTRY.matcher(m.group(2));
 		int lastMatchEnd = 0;
 		while (m.find()) {
-			if (Settings.LOG_SERVER_COMMUNICATION) {
+			if (BuildSettings.LOG_SERVER_COMMUNICATION) {
 				if (m.start() != lastMatchEnd) {
-					Log.e(TAG, info.user + "\n" + m.group());
+					Logger.e(TAG, info.user + "\n" + m.group());
 				}
 				lastMatchEnd = m.end();
 			}
@@ -1,13 +1,13 @@
 package pl.mg6.yafi.model.data;
 
+import java.io.Serializable;
 import java.util.regex.Matcher;
 
-import android.os.Parcel;
-import android.os.Parcelable;
-
 import pl.mg6.yafi.model.FreechessUtils;
 
-public class NewsItem implements Comparable<NewsItem>, Parcelable {
+public class NewsItem implements Comparable<NewsItem>, Serializable {
+	
+	private static final long serialVersionUID = 1L;
 	
 	private int id;
 	
@@ -80,37 +80,4 @@ public class NewsItem implements Comparable<NewsItem>, Parcelable {
 		item.message = m.replaceAll("");
 		return item;
 	}
-	
-	@Override
-	public int describeContents() {
-		return 0;
-	}
-	
-	@Override
-	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeInt(id);
-		dest.writeString(date);
-		dest.writeString(title);
-		dest.writeString(message);
-		dest.writeString(author);
-	}
-	
-	public static final Parcelable.Creator<NewsItem> CREATOR = new Parcelable.Creator<NewsItem>() {
-		
-		@Override
-		public NewsItem[] newArray(int size) {
-			return new NewsItem[size];
-		}
-		
-		@Override
-		public NewsItem createFromParcel(Parcel source) {
-			NewsItem item = new NewsItem();
-			item.id = source.readInt();
-			item.date = source.readString();
-			item.title = source.readString();
-			item.message = source.readString();
-			item.author = source.readString();
-			return item;
-		}
-	};
 }
@@ -1,14 +1,39 @@
 package pl.mg6.yafi.model.data;
 
+import java.util.Arrays;
+
+import pl.mg6.common.SymbolTable;
 import pl.mg6.common.TimeUtils;
 
 public class Position {
 	
+	private static final SymbolTable symbols = new SymbolTable(1024);
+	
+	private static final String PIECES = "-PNBRQK--pnbrqk-";
+	private static final byte[] PIECE_CODES = new byte[128];
+	
+	static {
+		Arrays.fill(PIECE_CODES, (byte) -1);
+		for (int i = PIECES.length() - 1; i >= 0; i--) {
+			PIECE_CODES[PIECES.charAt(i)] = (byte) i;
+		}
+	}
+	
+	private static final int[] MATERIAL = { 0, 1, 3, 3, 5, 9, 0, 0 };
+	
+	private static final int FLAG_CASTLING = 0x01;
+	private static final int FLAG_BLACK_TO_MOVE = 0x10;
+	private static final int FLAG_FLIP = 0x20;
+	private static final int FLAG_TIME_RUNNING = 0x40;
+	
 	private long timestamp;
-	private String[] placement = new String[8];
-	private Color toMove;
+	// 4 bits per square, 16 squares per word, in style12 order (8th rank first)
+	private long board0;
+	private long board1;
+	private long board2;
+	private long board3;
+	private int flags;
 	private int enPassantFile;
-	private boolean[] casting = new boolean[4];
 	private int movesSinceIrreversible;
 	private int gameId;
 	private String whiteName;
@@ -22,10 +47,10 @@ public class Position {
 	private int blackTime;
 	private int nextMoveNumber;
 	private String verboseMove;
+	private int timeTakenMillis;
+	private int timeTakenFormat;
 	private String timeTaken;
 	private String prettyMove;
-	private boolean flip;
-	private boolean timeRunning;
 	private int lag;
 	
 	public long getTimestamp() {
@@ -33,11 +58,19 @@ public class Position {
 	}
 	
 	public String[] getPlacement() {
+		String[] placement = new String[8];
+		char[] rank = new char[8];
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				rank[j] = getPieceAt(j, i);
+			}
+			placement[i] = new String(rank);
+		}
 		return placement;
 	}
 	
 	public Color getToMove() {
-		return toMove;
+		return (flags & FLAG_BLACK_TO_MOVE) != 0 ? Color.BLACK : Color.WHITE;
 	}
 	
 	public int getEnPassantFile() {
@@ -45,6 +78,10 @@ public class Position {
 	}
 	
 	public boolean[] getCasting() {
+		boolean[] casting = new boolean[4];
+		for (int i = 0; i < 4; i++) {
+			casting[i] = (flags & (FLAG_CASTLING << i)) != 0;
+		}
 		return casting;
 	}
 	
@@ -97,7 +134,7 @@ public class Position {
 	}
 	
 	public int getCurrentMoveNumber() {
-		return (toMove == Color.WHITE) ? (nextMoveNumber - 1) : nextMoveNumber;
+		return (flags & FLAG_BLACK_TO_MOVE) == 0 ? (nextMoveNumber - 1) : nextMoveNumber;
 	}
 	
 	public String getVerboseMove() {
@@ -105,7 +142,24 @@ public class Position {
 	}
 	
 	public String getTimeTaken() {
-		return timeTaken;
+		String t = timeTaken;
+		if (t == null) {
+			t = formatTimeTaken(timeTakenMillis, timeTakenFormat);
+			timeTaken = t;
+		}
+		return t;
+	}
+	
+	public int getTimeTakenMillis() {
+		return timeTakenMillis;
+	}
+	
+	int getCastlingFlags() {
+		return flags & (FLAG_CASTLING * 15);
+	}
+	
+	int getTimeTakenFormat() {
+		return timeTakenFormat;
 	}
 	
 	public String getPrettyMove() {
@@ -113,11 +167,11 @@ public class Position {
 	}
 	
 	public boolean isFlip() {
-		return flip;
+		return (flags & FLAG_FLIP) != 0;
 	}
 	
 	public boolean isTimeRunning() {
-		return timeRunning;
+		return (flags & FLAG_TIME_RUNNING) != 0;
 	}
 	
 	public int getLag() {
@@ -125,43 +179,415 @@ public class Position {
 	}
 	
 	public int getMoveIndex() {
-		return 2 * (nextMoveNumber - 1) + (toMove == Color.WHITE ? 0 : 1);
+		return 2 * (nextMoveNumber - 1) + ((flags & FLAG_BLACK_TO_MOVE) == 0 ? 0 : 1);
 	}
 	
 	public char getPieceAt(int file, int rank) {
-		return placement[rank].charAt(file);
+		return PIECES.charAt(getCode(8 * rank + file));
+	}
+	
+	long getBoardWord(int index) {
+		switch (index) {
+			case 0:
+				return board0;
+			case 1:
+				return board1;
+			case 2:
+				return board2;
+			default:
+				return board3;
+		}
+	}
+	
+	private int getCode(int square) {
+		return (int) (getBoardWord(square >> 4) >>> ((square & 15) << 2)) & 15;
+	}
+	
+	private void setCode(int square, int code) {
+		int shift = (square & 15) << 2;
+		long word = getBoardWord(square >> 4) & ~(15L << shift);
+		setBoardWord(square >> 4, word | (long) code << shift);
+	}
+	
+	private void setBoardWord(int index, long word) {
+		switch (index) {
+			case 0:
+				board0 = word;
+				break;
+			case 1:
+				board1 = word;
+				break;
+			case 2:
+				board2 = word;
+				break;
+			default:
+				board3 = word;
+				break;
+		}
+	}
+	
+	int getMoveCode() {
+		// from | to << 6 | promoted piece << 12, or -1 if verboseMove can't be replayed
+		String move = verboseMove;
+		boolean black = (flags & FLAG_BLACK_TO_MOVE) == 0;
+		int kingRank = black ? 0 : 56;
+		if ("o-o".equals(move)) {
+			return kingRank + 4 | (kingRank + 6) << 6;
+		}
+		if ("o-o-o".equals(move)) {
+			return kingRank + 4 | (kingRank + 2) << 6;
+		}
+		int length = move.length();
+		if (length != 7 && length != 9 || move.charAt(1) != '/' || move.charAt(4) != '-') {
+			return -1;
+		}
+		int from = parseSquare(move, 2);
+		int to = parseSquare(move, 5);
+		if (from == -1 || to == -1) {
+			return -1;
+		}
+		int promotion = 0;
+		if (length == 9) {
+			char c = move.charAt(8);
+			promotion = move.charAt(7) == '=' && c < 128 ? PIECE_CODES[c] : -1;
+			if (promotion < 2 || promotion > 5) {
+				return -1;
+			}
+		}
+		return from | to << 6 | promotion << 12;
+	}
+	
+	private static int parseSquare(String s, int i) {
+		int file = s.charAt(i) - 'a';
+		int rank = s.charAt(i + 1) - '1';
+		if (file < 0 || file > 7 || rank < 0 || rank > 7) {
+			return -1;
+		}
+		return 8 * (7 - rank) + file;
+	}
+	
+	Position successor(int move, String verboseMove, String prettyMove, int whiteTime, int blackTime,
+			int timeTakenMillis, int timeTakenFormat, int lag, long timestamp) {
+		Position pos = new Position();
+		pos.board0 = board0;
+		pos.board1 = board1;
+		pos.board2 = board2;
+		pos.board3 = board3;
+		boolean black = (flags & FLAG_BLACK_TO_MOVE) != 0;
+		int from = move & 63;
+		int to = (move >> 6) & 63;
+		int promotion = (move >> 12) & 7;
+		int piece = getCode(from);
+		int type = piece & 7;
+		int captured = getCode(to);
+		int castling = flags & (FLAG_CASTLING * 15);
+		if (type == 1 && captured == 0 && (from & 7) != (to & 7)) {
+			// en passant
+			int square = (from & ~7) | (to & 7);
+			captured = getCode(square);
+			pos.setCode(square, 0);
+		} else if (type == 6) {
+			castling &= black ? ~(FLAG_CASTLING * 12) : ~(FLAG_CASTLING * 3);
+			if (to - from == 2 || from - to == 2) {
+				int rook = to > from ? from + 3 : from - 4;
+				pos.setCode((from + to) / 2, getCode(rook));
+				pos.setCode(rook, 0);
+			}
+		}
+		castling &= ~(getCastlingMask(from) | getCastlingMask(to));
+		pos.setCode(from, 0);
+		pos.setCode(to, promotion != 0 ? promotion | (piece & 8) : piece);
+		int gained = promotion != 0 ? MATERIAL[promotion] - 1 : 0;
+		int lost = MATERIAL[captured & 7];
+		pos.whiteStrength = black ? whiteStrength - lost : whiteStrength + gained;
+		pos.blackStrength = black ? blackStrength + gained : blackStrength - lost;
+		pos.flags = (flags & ~(FLAG_CASTLING * 15)) ^ FLAG_BLACK_TO_MOVE | castling;
+		pos.enPassantFile = type == 1 && (to - from == 16 || from - to == 16) ? to & 7 : -1;
+		pos.movesSinceIrreversible = type == 1 || captured != 0 ? 0 : movesSinceIrreversible + 1;
+		pos.nextMoveNumber = black ? nextMoveNumber + 1 : nextMoveNumber;
+		pos.relation = relation == Game.RELATION_PLAYING_MY_MOVE || relation == Game.RELATION_PLAYING_OPPONENT_MOVE ? -relation : relation;
+		pos.gameId = gameId;
+		pos.whiteName = whiteName;
+		pos.blackName = blackName;
+		pos.initialTime = initialTime;
+		pos.timeIncrement = timeIncrement;
+		pos.whiteTime = whiteTime;
+		pos.blackTime = blackTime;
+		pos.verboseMove = verboseMove;
+		pos.timeTakenMillis = timeTakenMillis;
+		pos.timeTakenFormat = timeTakenFormat;
+		pos.prettyMove = prettyMove;
+		pos.lag = lag;
+		pos.timestamp = timestamp;
+		return pos;
+	}
+	
+	private static int getCastlingMask(int square) {
+		switch (square) {
+			case 63:
+				return FLAG_CASTLING;
+			case 56:
+				return FLAG_CASTLING << 1;
+			case 7:
+				return FLAG_CASTLING << 2;
+			case 0:
+				return FLAG_CASTLING << 3;
+			default:
+				return 0;
+		}
+	}
+	
+	boolean isSameAs(Position other) {
+		return board0 == other.board0 && board1 == other.board1 && board2 == other.board2 && board3 == other.board3
+				&& flags == other.flags
+				&& enPassantFile == other.enPassantFile
+				&& movesSinceIrreversible == other.movesSinceIrreversible
+				&& gameId == other.gameId
+				&& whiteName.equals(other.whiteName)
+				&& blackName.equals(other.blackName)
+				&& relation == other.relation
+				&& initialTime == other.initialTime
+				&& timeIncrement == other.timeIncrement
+				&& whiteStrength == other.whiteStrength
+				&& blackStrength == other.blackStrength
+				&& whiteTime == other.whiteTime
+				&& blackTime == other.blackTime
+				&& nextMoveNumber == other.nextMoveNumber
+				&& verboseMove.equals(other.verboseMove)
+				&& timeTakenMillis == other.timeTakenMillis
+				&& timeTakenFormat == other.timeTakenFormat
+				&& (timeTakenFormat != 0 || timeTaken.equals(other.timeTaken))
+				&& prettyMove.equals(other.prettyMove)
+				&& lag == other.lag
+				&& timestamp == other.timestamp;
+	}
+	
+	boolean hasSameBoard(Position other) {
+		int mask = FLAG_CASTLING * 15 | FLAG_BLACK_TO_MOVE;
+		return board0 == other.board0 && board1 == other.board1 && board2 == other.board2 && board3 == other.board3
+				&& (flags & mask) == (other.flags & mask)
+				&& enPassantFile == other.enPassantFile
+				&& verboseMove.equals(other.verboseMove);
 	}
 	
 	public static Position fromStyle12(String style12) {
+		return fromStyle12(style12, 0, style12.length());
+	}
+	
+	public static Position fromStyle12(CharSequence s, int start, int end) {
 		Position pos = new Position();
 		pos.timestamp = TimeUtils.getTimestamp();
-		String[] data = style12.split(" ");
-		for (int i = 0; i < 8; i++) {
-			pos.placement[i] = data[i];
+		int i = start;
+		int j;
+		long word = 0;
+		for (int rank = 0; rank < 8; rank++) {
+			j = fieldEnd(s, i, end);
+			if (j - i != 8) {
+				throw new IllegalArgumentException("rank " + rank);
+			}
+			for (int file = 0; file < 8; file++) {
+				char c = s.charAt(i + file);
+				int code = c < 128 ? PIECE_CODES[c] : -1;
+				if (code == -1) {
+					throw new IllegalArgumentException("piece " + c);
+				}
+				word |= (long) code << ((8 * (rank & 1) + file) << 2);
+			}
+			if ((rank & 1) != 0) {
+				pos.setBoardWord(rank >> 1, word);
+				word = 0;
+			}
+			i = j + 1;
 		}
-		pos.toMove = "W".equals(data[8]) ? Color.WHITE : Color.BLACK;
-		pos.enPassantFile = Integer.parseInt(data[9]);
-		for (int i = 0; i < 4; i++) {
-			pos.casting[i] = "1".equals(data[i + 10]);
-		}
-		pos.movesSinceIrreversible = Integer.parseInt(data[14]);
-		pos.gameId = Integer.parseInt(data[15]);
-		pos.whiteName = data[16].intern();
-		pos.blackName = data[17].intern();
-		pos.relation = Integer.parseInt(data[18]);
-		pos.initialTime = Integer.parseInt(data[19]);
-		pos.timeIncrement = Integer.parseInt(data[20]);
-		pos.whiteStrength = Integer.parseInt(data[21]);
-		pos.blackStrength = Integer.parseInt(data[22]);
-		pos.whiteTime = Integer.parseInt(data[23]);
-		pos.blackTime = Integer.parseInt(data[24]);
-		pos.nextMoveNumber = Integer.parseInt(data[25]);
-		pos.verboseMove = data[26];
-		pos.timeTaken = data[27];
-		pos.prettyMove = data[28];
-		pos.flip = "1".equals(data[29]);
-		pos.timeRunning = "1".equals(data[30]);
-		pos.lag = Integer.parseInt(data[31]);
+		j = fieldEnd(s, i, end);
+		if (j - i != 1 || s.charAt(i) != 'W') {
+			pos.flags |= FLAG_BLACK_TO_MOVE;
+		}
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.enPassantFile = parseInt(s, i, j);
+		i = j + 1;
+		for (int k = 0; k < 4; k++) {
+			j = fieldEnd(s, i, end);
+			if (isOne(s, i, j)) {
+				pos.flags |= FLAG_CASTLING << k;
+			}
+			i = j + 1;
+		}
+		j = fieldEnd(s, i, end);
+		pos.movesSinceIrreversible = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.gameId = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.whiteName = symbols.get(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.blackName = symbols.get(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.relation = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.initialTime = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.timeIncrement = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.whiteStrength = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.blackStrength = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.whiteTime = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.blackTime = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.nextMoveNumber = parseInt(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.verboseMove = symbols.get(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.parseTimeTaken(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.prettyMove = symbols.get(s, i, j);
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		if (isOne(s, i, j)) {
+			pos.flags |= FLAG_FLIP;
+		}
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		if (isOne(s, i, j)) {
+			pos.flags |= FLAG_TIME_RUNNING;
+		}
+		i = j + 1;
+		j = fieldEnd(s, i, end);
+		pos.lag = parseInt(s, i, j);
 		return pos;
 	}
+	
+	private void parseTimeTaken(CharSequence s, int start, int end) {
+		// "(m:ss)" or "(h:mm:ss)", optionally with a fraction; anything else is kept verbatim
+		int last = end - 1;
+		boolean valid = end - start >= 3 && s.charAt(start) == '(' && s.charAt(last) == ')';
+		int value = 0;
+		int fields = 0;
+		int fraction = 0;
+		int millis = 0;
+		int i = start + 1;
+		while (valid) {
+			int j = digitsEnd(s, i, last);
+			int length = j - i;
+			if (fields == 0) {
+				valid = length > 0 && length <= 4 && (length == 1 || s.charAt(i) != '0');
+			} else {
+				valid = length == 2 && s.charAt(i) <= '5';
+			}
+			if (!valid) {
+				break;
+			}
+			value = 60 * value + parseInt(s, i, j);
+			fields++;
+			if (j < last && s.charAt(j) == ':' && fields < 3) {
+				i = j + 1;
+				continue;
+			}
+			if (j < last && s.charAt(j) == '.' && fields > 1) {
+				int k = digitsEnd(s, j + 1, last);
+				fraction = k - j - 1;
+				valid = fraction > 0 && fraction <= 3;
+				if (valid) {
+					millis = parseInt(s, j + 1, k);
+					for (int d = fraction; d < 3; d++) {
+						millis *= 10;
+					}
+				}
+				j = k;
+			}
+			valid = valid && j == last && fields > 1;
+			break;
+		}
+		if (valid) {
+			timeTakenMillis = 1000 * value + millis;
+			timeTakenFormat = 4 * fields + fraction;
+		} else {
+			timeTaken = s.subSequence(start, end).toString();
+		}
+	}
+	
+	private static String formatTimeTaken(int millis, int format) {
+		int fields = format / 4;
+		int fraction = format % 4;
+		int seconds = millis / 1000;
+		StringBuilder builder = new StringBuilder(12);
+		builder.append('(');
+		int[] parts = { seconds / 3600, seconds / 60 % 60, seconds % 60 };
+		if (fields == 2) {
+			parts[1] = seconds / 60;
+		}
+		for (int i = 3 - fields; i < 3; i++) {
+			if (i > 3 - fields) {
+				builder.append(':');
+				if (parts[i] < 10) {
+					builder.append('0');
+				}
+			}
+			builder.append(parts[i]);
+		}
+		if (fraction > 0) {
+			builder.append('.');
+			String digits = Integer.toString(1000 + millis % 1000);
+			builder.append(digits, 1, 1 + fraction);
+		}
+		builder.append(')');
+		return builder.toString();
+	}
+	
+	private static int digitsEnd(CharSequence s, int start, int end) {
+		int i = start;
+		while (i < end && '0' <= s.charAt(i) && s.charAt(i) <= '9') {
+			i++;
+		}
+		return i;
+	}
+	
+	private static int fieldEnd(CharSequence s, int start, int end) {
+		int i = start;
+		while (i < end && s.charAt(i) != ' ') {
+			i++;
+		}
+		return i;
+	}
+	
+	private static boolean isOne(CharSequence s, int start, int end) {
+		return end - start == 1 && s.charAt(start) == '1';
+	}
+	
+	private static int parseInt(CharSequence s, int start, int end) {
+		if (start >= end) {
+			throw new NumberFormatException("empty field");
+		}
+		boolean negative = s.charAt(start) == '-';
+		int i = negative ? start + 1 : start;
+		if (i == end) {
+			throw new NumberFormatException("-");
+		}
+		int value = 0;
+		for (; i < end; i++) {
+			int digit = s.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException(s.subSequence(start, end).toString());
+			}
+			value = 10 * value + digit;
+		}
+		return negative ? -value : value;
+	}
 }
@@ -0,0 +1,144 @@
+package pl.mg6.yafi.model.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class PositionHistory {
+	
+	private static final int KEYFRAME_INTERVAL = 32;
+	private static final int CACHE_SIZE = 8;
+	
+	// a ply is either a keyframe or a move replayed on the previous ply
+	private final Position[] keyframes;
+	private final int[] moves;
+	private final int[] whiteTimes;
+	private final int[] blackTimes;
+	private final int[] timesTaken;
+	private final int[] lags;
+	private final int[] timestampDeltas;
+	private final String[] verboseMoves;
+	private final String[] prettyMoves;
+	
+	private final long[] hashes;
+	private final int[] repetitions;
+	
+	private final Map<Integer, Position> cache = new LinkedHashMap<Integer, Position>(CACHE_SIZE, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Position> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	
+	PositionHistory(int capacity) {
+		keyframes = new Position[capacity];
+		moves = new int[capacity];
+		whiteTimes = new int[capacity];
+		blackTimes = new int[capacity];
+		timesTaken = new int[capacity];
+		lags = new int[capacity];
+		timestampDeltas = new int[capacity];
+		verboseMoves = new String[capacity];
+		prettyMoves = new String[capacity];
+		hashes = new long[capacity];
+		repetitions = new int[capacity];
+	}
+	
+	int getCapacity() {
+		return keyframes.length;
+	}
+	
+	PositionHistory copy(int count, int capacity) {
+		PositionHistory other = new PositionHistory(capacity);
+		System.arraycopy(keyframes, 0, other.keyframes, 0, count);
+		System.arraycopy(moves, 0, other.moves, 0, count);
+		System.arraycopy(whiteTimes, 0, other.whiteTimes, 0, count);
+		System.arraycopy(blackTimes, 0, other.blackTimes, 0, count);
+		System.arraycopy(timesTaken, 0, other.timesTaken, 0, count);
+		System.arraycopy(lags, 0, other.lags, 0, count);
+		System.arraycopy(timestampDeltas, 0, other.timestampDeltas, 0, count);
+		System.arraycopy(verboseMoves, 0, other.verboseMoves, 0, count);
+		System.arraycopy(prettyMoves, 0, other.prettyMoves, 0, count);
+		System.arraycopy(hashes, 0, other.hashes, 0, count);
+		System.arraycopy(repetitions, 0, other.repetitions, 0, count);
+		synchronized (cache) {
+			for (Map.Entry<Integer, Position> entry : cache.entrySet()) {
+				if (entry.getKey() < count) {
+					other.cache.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return other;
+	}
+	
+	void set(int index, Position pos, long hash, int repetition) {
+		hashes[index] = hash;
+		repetitions[index] = repetition;
+		Position previous = index % KEYFRAME_INTERVAL != 0 ? get(index - 1) : null;
+		if (previous != null) {
+			int move = pos.getMoveCode();
+			int format = pos.getTimeTakenFormat();
+			long delta = pos.getTimestamp() - previous.getTimestamp();
+			if (move != -1 && format != 0 && delta == (int) delta) {
+				Position replayed = previous.successor(move, pos.getVerboseMove(), pos.getPrettyMove(),
+						pos.getWhiteTime(), pos.getBlackTime(), pos.getTimeTakenMillis(), format, pos.getLag(), pos.getTimestamp());
+				if (replayed.isSameAs(pos)) {
+					keyframes[index] = null;
+					moves[index] = move | format << 16;
+					whiteTimes[index] = pos.getWhiteTime();
+					blackTimes[index] = pos.getBlackTime();
+					timesTaken[index] = pos.getTimeTakenMillis();
+					lags[index] = pos.getLag();
+					timestampDeltas[index] = (int) delta;
+					verboseMoves[index] = pos.getVerboseMove();
+					prettyMoves[index] = pos.getPrettyMove();
+					synchronized (cache) {
+						cache.put(index, pos);
+					}
+					return;
+				}
+			}
+		}
+		keyframes[index] = pos;
+	}
+	
+	Position get(int index) {
+		Position pos;
+		int base = index;
+		synchronized (cache) {
+			while ((pos = keyframes[base]) == null && (pos = cache.get(base)) == null) {
+				base--;
+			}
+		}
+		if (base == index) {
+			return pos;
+		}
+		for (int i = base + 1; i <= index; i++) {
+			int move = moves[i];
+			pos = pos.successor(move & 0xffff, verboseMoves[i], prettyMoves[i], whiteTimes[i], blackTimes[i],
+					timesTaken[i], move >>> 16, lags[i], pos.getTimestamp() + timestampDeltas[i]);
+		}
+		synchronized (cache) {
+			cache.put(index, pos);
+		}
+		return pos;
+	}
+	
+	long getHash(int index) {
+		return hashes[index];
+	}
+	
+	int getRepetitionCount(int index) {
+		return repetitions[index];
+	}
+	
+	int getMoveIndex(int index) {
+		int base = index;
+		while (keyframes[base] == null) {
+			base--;
+		}
+		return keyframes[base].getMoveIndex() + index - base;
+	}
+}
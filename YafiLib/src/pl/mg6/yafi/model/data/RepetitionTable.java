@@ -0,0 +1,57 @@
+package pl.mg6.yafi.model.data;
+
+final class RepetitionTable {
+	
+	// open addressing on the hash itself, 0 marks a free slot
+	private long[] keys;
+	private int[] counts;
+	private int size;
+	
+	RepetitionTable() {
+		keys = new long[64];
+		counts = new int[64];
+	}
+	
+	int add(long hash) {
+		int slot = find(hash);
+		if (keys[slot] == 0) {
+			if (2 * (size + 1) > keys.length) {
+				grow();
+				slot = find(hash);
+			}
+			keys[slot] = hash;
+			size++;
+		}
+		return ++counts[slot];
+	}
+	
+	void remove(long hash) {
+		int slot = find(hash);
+		if (keys[slot] != 0 && counts[slot] > 0) {
+			counts[slot]--;
+		}
+	}
+	
+	private int find(long hash) {
+		int mask = keys.length - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (keys[slot] != 0 && keys[slot] != hash) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new long[2 * oldKeys.length];
+		counts = new int[2 * oldKeys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+}
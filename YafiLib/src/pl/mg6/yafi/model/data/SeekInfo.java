@@ -85,6 +85,43 @@ public final class SeekInfo {
 		return info;
 	}
 	
+	public static SeekInfo fromLine(byte[] buffer, int offset, int count) {
+		// same fields as fromMatch, read straight from the decoder's bytes
+		LineReader reader = new LineReader(buffer, offset, offset + count);
+		reader.expect("<s> ");
+		SeekInfo info = SeekInfo.withId(reader.readInt());
+		reader.expect(" w=");
+		info.name = reader.readName();
+		reader.expect(" ti=");
+		info.titles = reader.readHex();
+		reader.expect(" rt=");
+		info.rating = reader.readInt();
+		reader.readOneOf("P E");
+		reader.expect(" t=");
+		info.time = reader.readInt();
+		reader.expect(" i=");
+		info.increment = reader.readInt();
+		reader.expect(" r=");
+		info.rated = reader.readOneOf("ru") == 'r';
+		reader.expect(" tp=");
+		info.type = reader.readToken();
+		if ("lightning".equals(info.type) || "blitz".equals(info.type) || "standard".equals(info.type)) {
+			info.type = "chess";
+		}
+		reader.expect(" c=");
+		reader.readOneOf("?WB");
+		reader.expect(" rr=");
+		reader.readInt();
+		reader.expect("-");
+		reader.readInt();
+		reader.expect(" a=");
+		info.manual = reader.readOneOf("ft") == 'f';
+		reader.expect(" f=");
+		reader.readOneOf("ft");
+		reader.expect("\n");
+		return reader.isValid() && reader.isAtEnd() ? info : null;
+	}
+	
 	public static SeekInfo withId(String strId) {
 		int id = Integer.parseInt(strId);
 		return SeekInfo.withId(id);
@@ -95,4 +132,110 @@ public final class SeekInfo {
 		info.id = id;
 		return info;
 	}
+	
+	private static class LineReader {
+		
+		private byte[] buffer;
+		private int position;
+		private int limit;
+		private boolean valid = true;
+		
+		public LineReader(byte[] buffer, int position, int limit) {
+			this.buffer = buffer;
+			this.position = position;
+			this.limit = limit;
+		}
+		
+		public boolean isValid() {
+			return valid;
+		}
+		
+		public boolean isAtEnd() {
+			return position == limit;
+		}
+		
+		public void expect(String text) {
+			int length = text.length();
+			if (!valid || limit - position < length) {
+				valid = false;
+				return;
+			}
+			for (int i = 0; i < length; i++) {
+				if (buffer[position + i] != text.charAt(i)) {
+					valid = false;
+					return;
+				}
+			}
+			position += length;
+		}
+		
+		public int readInt() {
+			int start = position;
+			int value = 0;
+			while (valid && position < limit && buffer[position] >= '0' && buffer[position] <= '9') {
+				value = 10 * value + buffer[position++] - '0';
+			}
+			if (position == start) {
+				valid = false;
+			}
+			return value;
+		}
+		
+		public int readHex() {
+			int start = position;
+			int value = 0;
+			while (valid && position < limit) {
+				int digit = Character.digit(buffer[position], 16);
+				if (digit == -1) {
+					break;
+				}
+				value = 16 * value + digit;
+				position++;
+			}
+			if (position == start) {
+				valid = false;
+			}
+			return value;
+		}
+		
+		public char readOneOf(String chars) {
+			if (!valid || position == limit || chars.indexOf(buffer[position]) == -1) {
+				valid = false;
+				return 0;
+			}
+			return (char) buffer[position++];
+		}
+		
+		public String readName() {
+			int start = position;
+			while (valid && position < limit && isAsciiLetter(buffer[position])) {
+				position++;
+			}
+			if (position - start < 3) {
+				valid = false;
+				return null;
+			}
+			return new String(buffer, start, position - start).intern();
+		}
+		
+		public String readToken() {
+			int start = position;
+			while (valid && position < limit && !isWhitespace(buffer[position])) {
+				position++;
+			}
+			if (position == start) {
+				valid = false;
+				return null;
+			}
+			return new String(buffer, start, position - start).intern();
+		}
+		
+		private static boolean isAsciiLetter(byte b) {
+			return ('A' <= b && b <= 'Z') || ('a' <= b && b <= 'z');
+		}
+		
+		private static boolean isWhitespace(byte b) {
+			return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+		}
+	}
 }
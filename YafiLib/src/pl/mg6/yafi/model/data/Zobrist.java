@@ -0,0 +1,95 @@
+package pl.mg6.yafi.model.data;
+
+import java.util.Random;
+
+final class Zobrist {
+	
+	// fixed seed, so hashes are comparable across sessions
+	private static final long SEED = 0x59414649L;
+	
+	private static final long[][] PIECES = new long[16][64];
+	private static final long[] CASTLING = new long[16];
+	private static final long[] EN_PASSANT = new long[8];
+	private static final long BLACK_TO_MOVE;
+	
+	static {
+		Random random = new Random(SEED);
+		for (int code = 0; code < 16; code++) {
+			// code 0 is an empty square and hashes to nothing
+			if (code != 0) {
+				for (int square = 0; square < 64; square++) {
+					PIECES[code][square] = random.nextLong();
+				}
+			}
+		}
+		long[] rights = new long[4];
+		for (int i = 0; i < 4; i++) {
+			rights[i] = random.nextLong();
+		}
+		for (int flags = 0; flags < 16; flags++) {
+			for (int i = 0; i < 4; i++) {
+				if ((flags & (1 << i)) != 0) {
+					CASTLING[flags] ^= rights[i];
+				}
+			}
+		}
+		for (int file = 0; file < 8; file++) {
+			EN_PASSANT[file] = random.nextLong();
+		}
+		BLACK_TO_MOVE = random.nextLong();
+	}
+	
+	private Zobrist() {
+	}
+	
+	static long hash(Position pos) {
+		long hash = 0;
+		for (int i = 0; i < 4; i++) {
+			hash ^= hashSquares(i, pos.getBoardWord(i));
+		}
+		return hash ^ hashState(pos);
+	}
+	
+	static long update(long hash, Position previous, Position pos) {
+		// only the squares that differ between the two boards are rehashed
+		for (int i = 0; i < 4; i++) {
+			long before = previous.getBoardWord(i);
+			long after = pos.getBoardWord(i);
+			long changed = before ^ after;
+			while (changed != 0) {
+				int shift = Long.numberOfTrailingZeros(changed) & ~3;
+				int square = 16 * i + (shift >> 2);
+				hash ^= PIECES[(int) (before >>> shift) & 15][square] ^ PIECES[(int) (after >>> shift) & 15][square];
+				changed &= ~(15L << shift);
+			}
+		}
+		return hash ^ hashState(previous) ^ hashState(pos);
+	}
+	
+	private static long hashSquares(int index, long word) {
+		long hash = 0;
+		for (int j = 0; j < 16 && word != 0; j++) {
+			hash ^= PIECES[(int) word & 15][16 * index + j];
+			word >>>= 4;
+		}
+		return hash;
+	}
+	
+	private static long hashState(Position pos) {
+		long hash = CASTLING[pos.getCastlingFlags()];
+		boolean black = pos.getToMove() == Color.BLACK;
+		if (black) {
+			hash ^= BLACK_TO_MOVE;
+		}
+		int file = pos.getEnPassantFile();
+		if (0 <= file && file < 8) {
+			// the en passant file only matters when a pawn can actually take
+			int rank = black ? 4 : 3;
+			char pawn = black ? 'p' : 'P';
+			if (file > 0 && pos.getPieceAt(file - 1, rank) == pawn || file < 7 && pos.getPieceAt(file + 1, rank) == pawn) {
+				hash ^= EN_PASSANT[file];
+			}
+		}
+		return hash;
+	}
+}
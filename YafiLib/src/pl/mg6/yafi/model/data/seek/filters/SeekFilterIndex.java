@@ -0,0 +1,206 @@
+package pl.mg6.yafi.model.data.seek.filters;
+
+import java.util.Arrays;
+
+import pl.mg6.common.IntIntMap;
+import pl.mg6.yafi.model.data.SeekInfo;
+import pl.mg6.yafi.model.data.SeekInfoList;
+
+public final class SeekFilterIndex {
+
+	private static final int NONE = -1;
+
+	private final SeekFilter[] filters;
+
+	// bit n of a filter's set tells whether the seek in slot n matches it, so filters run once per seek
+	private long[][] matches;
+	private long[] used;
+	private SeekInfo[] seeks;
+	private final IntIntMap slotsById = new IntIntMap(256);
+	// slots linked in the order their seeks arrived, slots themselves are reused lowest first
+	private int[] nextSlots;
+	private int[] previousSlots;
+	private int firstSlot = NONE;
+	private int lastSlot = NONE;
+
+	public SeekFilterIndex(SeekFilter... filters) {
+		this.filters = filters.clone();
+		matches = new long[filters.length][4];
+		used = new long[4];
+		seeks = new SeekInfo[256];
+		nextSlots = new int[256];
+		previousSlots = new int[256];
+	}
+
+	public void add(SeekInfo seek) {
+		int slot = slotsById.get(seek.getId(), NONE);
+		if (slot == NONE) {
+			slot = nextFreeSlot();
+			slotsById.put(seek.getId(), slot);
+			used[slot >>> 6] |= 1L << slot;
+			link(slot);
+		}
+		seeks[slot] = seek;
+		int word = slot >>> 6;
+		long bit = 1L << slot;
+		for (int i = 0; i < filters.length; i++) {
+			if (filters[i].matches(seek)) {
+				matches[i][word] |= bit;
+			} else {
+				matches[i][word] &= ~bit;
+			}
+		}
+	}
+
+	public void remove(SeekInfo seek) {
+		int slot = slotsById.remove(seek.getId(), NONE);
+		if (slot != NONE) {
+			used[slot >>> 6] &= ~(1L << slot);
+			seeks[slot] = null;
+			unlink(slot);
+		}
+	}
+
+	private void link(int slot) {
+		previousSlots[slot] = lastSlot;
+		nextSlots[slot] = NONE;
+		if (lastSlot == NONE) {
+			firstSlot = slot;
+		} else {
+			nextSlots[lastSlot] = slot;
+		}
+		lastSlot = slot;
+	}
+
+	private void unlink(int slot) {
+		int previous = previousSlots[slot];
+		int next = nextSlots[slot];
+		if (previous == NONE) {
+			firstSlot = next;
+		} else {
+			nextSlots[previous] = next;
+		}
+		if (next == NONE) {
+			lastSlot = previous;
+		} else {
+			previousSlots[next] = previous;
+		}
+	}
+
+	public void clear() {
+		slotsById.clear();
+		Arrays.fill(used, 0L);
+		Arrays.fill(seeks, null);
+		firstSlot = NONE;
+		lastSlot = NONE;
+	}
+
+	public int size() {
+		return slotsById.size();
+	}
+
+	public Selection select(SeekFilter... selected) {
+		int count = 0;
+		int[] indexes = new int[selected.length];
+		for (SeekFilter filter : selected) {
+			if (filter != null) {
+				indexes[count++] = indexOf(filter);
+			}
+		}
+		int[] trimmed = new int[count];
+		System.arraycopy(indexes, 0, trimmed, 0, count);
+		return new Selection(trimmed);
+	}
+
+	private int indexOf(SeekFilter filter) {
+		for (int i = 0; i < filters.length; i++) {
+			if (filters[i] == filter) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("filter not indexed: " + filter);
+	}
+
+	private int nextFreeSlot() {
+		for (int word = 0; word < used.length; word++) {
+			if (used[word] != -1L) {
+				return (word << 6) + Long.numberOfTrailingZeros(~used[word]);
+			}
+		}
+		int slot = used.length << 6;
+		grow();
+		return slot;
+	}
+
+	private void grow() {
+		int words = 2 * used.length;
+		used = copy(used, words);
+		for (int i = 0; i < matches.length; i++) {
+			matches[i] = copy(matches[i], words);
+		}
+		SeekInfo[] newSeeks = new SeekInfo[words << 6];
+		System.arraycopy(seeks, 0, newSeeks, 0, seeks.length);
+		seeks = newSeeks;
+		nextSlots = copy(nextSlots, words << 6);
+		previousSlots = copy(previousSlots, words << 6);
+	}
+
+	private static long[] copy(long[] words, int length) {
+		long[] copy = new long[length];
+		System.arraycopy(words, 0, copy, 0, words.length);
+		return copy;
+	}
+
+	private static int[] copy(int[] slots, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(slots, 0, copy, 0, slots.length);
+		return copy;
+	}
+
+	public final class Selection implements SeekFilter {
+
+		private final int[] indexes;
+
+		private Selection(int[] indexes) {
+			this.indexes = indexes;
+		}
+
+		@Override
+		public boolean matches(SeekInfo info) {
+			int slot = slotsById.get(info.getId(), NONE);
+			if (slot == NONE || seeks[slot] != info) {
+				for (int index : indexes) {
+					if (!filters[index].matches(info)) {
+						return false;
+					}
+				}
+				return true;
+			}
+			int word = slot >>> 6;
+			long bit = 1L << slot;
+			for (int index : indexes) {
+				if ((matches[index][word] & bit) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// in arrival order, like the seek list they are shown in
+		public SeekInfoList getSeeks() {
+			SeekInfoList list = new SeekInfoList();
+			outer:
+			for (int slot = firstSlot; slot != NONE; slot = nextSlots[slot]) {
+				int word = slot >>> 6;
+				long bit = 1L << slot;
+				for (int index : indexes) {
+					if ((matches[index][word] & bit) == 0) {
+						continue outer;
+					}
+				}
+				list.add(seeks[slot]);
+			}
+			return list;
+		}
+	}
+}
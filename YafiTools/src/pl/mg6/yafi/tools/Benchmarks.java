@@ -0,0 +1,785 @@
+package pl.mg6.yafi.tools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import pl.mg6.common.HtmlEntityEncoder;
+import pl.mg6.yafi.model.FreechessDecoder;
+import pl.mg6.yafi.model.FreechessModel;
+import pl.mg6.yafi.model.MoveGenerator;
+import pl.mg6.yafi.model.SessionCapture;
+import pl.mg6.yafi.model.SessionCaptureReader;
+import pl.mg6.yafi.model.TelnetProtocolImpl;
+import pl.mg6.yafi.model.TimesealProtocolImpl;
+import pl.mg6.yafi.model.data.Position;
+
+// Throughput and allocation per operation for the protocol and model hot paths. Each benchmark
+// runs warmup iterations, then timed iterations of a fixed length; results can be saved and
+// compared against an earlier run.
+//
+// javac -d bin -sourcepath YafiTools/src:YafiLib/src YafiTools/src/pl/mg6/yafi/tools/*.java
+// java -cp bin pl.mg6.yafi.tools.Benchmarks --filter=model --iterations=10 --output=after.txt --baseline=before.txt
+//
+// inbound.legacy and inbound.decoder run the same stream through the old three pass inbound path
+// and through FreechessDecoder; --session=<file> takes the stream from a SessionCapture recording.
+// M/s is millions of stream bytes per second for these and millions of nodes for movegen.perft.
+public final class Benchmarks {
+
+	private static final String STYLE12 = "\n<12> rnbqkb-r pppp-ppp -----n-- ----p--- --B-P--- -----N-- PPPP-PPP RNBQK--R B -1 1 1 1 1 2 117 Alexander Bernhard 0 3 0 39 39 174210 176832 4 N/g8-f6 (0:03.161) Nf6 0 1 0\n";
+	private static final String OBSERVE = "\nYou are now observing game 117.\nGame 117: Alexander (1624) Bernhard (1633) rated blitz 3 0\n" + STYLE12;
+	private static final String SEEK = "\n<s> %d w=Alexander ti=00 rt=1624  t=3 i=0 r=r tp=blitz c=? rr=0-9999 a=t f=t\n";
+	private static final String SEEK_REMOVE = "\n<sr> %d\n";
+	private static final String PRIVATE_TELL = "\nAlexander tells you: are you up for a rematch, 5 0 this time?\n";
+	private static final String CHANNEL_TELL = "\nAlexander(50): anyone seen the final round of the candidates yet?\n";
+	private static final String FINGER = "Finger of Alexander:\n"
+			+ "\n"
+			+ "On for: 1 hr 12 mins   Idle: 0 secs\n"
+			+ "(playing game 117: Alexander vs. Bernhard)\n"
+			+ "\n"
+			+ "          rating     RD      win    loss    draw   total   best\n"
+			+ "Blitz      1624     45.1    2031    1870     211    4112   1783 (12-Mar-2011)\n"
+			+ "Standard   1702     88.3     143     120      31     294   1750 (02-Jan-2010)\n"
+			+ "Lightning  1411     60.0     512     530      20    1062   1500 (20-Jun-2011)\n"
+			+ "\n"
+			+ "Total time online: 41 days, 3 hrs, 17 mins\n"
+			+ "% of life online:  1.9  (since Wed Oct  7, 2009)\n"
+			+ "\n"
+			+ "Timeseal 1 : On\n"
+			+ "\n"
+			+ " 1: Blitz and coffee.\n"
+			+ " 2: Ask me for a game any time.\n";
+	private static final String HISTORY = "\nHistory for Alexander:\n"
+			+ "                  Opponent      Type         ECO End Date\n"
+			+ "71: - 1619 W 1633 Bernhard      [ br  3   0] C50 Res Sun Oct 16, 20:11 EDT 2011\n"
+			+ "72: + 1624 B 1590 Caroline      [ br  3   0] B01 Mat Sun Oct 16, 20:18 EDT 2011\n"
+			+ "73: = 1624 W 1702 Dominik       [ sr 15   0] D02 Rep Sun Oct 16, 20:49 EDT 2011\n"
+			+ "74: + 1631 B 1580 Eleonora      [ br  5   0] B20 Fla Sun Oct 16, 21:02 EDT 2011\n"
+			+ "75: - 1624 W 1655 Friedrich     [ lr  1   0] A45 Fla Sun Oct 16, 21:05 EDT 2011\n";
+	private static final String STYLE12_BOARD = STYLE12.substring(6, STYLE12.length() - 1);
+	private static final String HTML = "Fischer &amp; Spassky &lt;Reykjavik 1972&gt; &quot;match of the century&quot; &#233;l&#233;gance &amp; more";
+	private static final byte[] STAMP = "\n[G]\n".getBytes();
+	private static final byte[] PROMPT = "fics% ".getBytes();
+	private static final byte[] COMMAND = "tell Alexander are you up for a rematch, 5 0 this time?\n".getBytes();
+
+	// models keep every tell and position they see; starting over after a long game's worth
+	// of messages keeps the benchmarks from measuring ever growing histories
+	private static final int MODEL_RESET_INTERVAL = 256;
+	private static final int SEEK_IDS = 512;
+	private static final int STYLE12_SAMPLES = 4096;
+
+	// the usual perft test positions with their node counts at depths 1 to 4
+	private static final String[] PERFT_POSITIONS = {
+		"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+		"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+	};
+	private static final long[][] PERFT_COUNTS = {
+		{ 20, 400, 8902, 197281 },
+		{ 48, 2039, 97862, 4085603 },
+		{ 14, 191, 2812, 43238 },
+		{ 6, 264, 9467, 422333 },
+		{ 44, 1486, 62379, 2103487 },
+	};
+	private static final int PERFT_DEPTH = 3;
+
+	private int warmupIterations = 5;
+	private int iterations = 10;
+	private long iterationTime = 1000;
+	private Pattern filter;
+	private String outputPath;
+	private String baselinePath;
+	private String sessionPath;
+
+	private final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+	private volatile int consumed;
+
+	public Benchmarks() {
+		addProtocolBenchmarks();
+		addInboundBenchmarks();
+		addModelBenchmark("model.parse.style12", "onGameUpdate", OBSERVE, STYLE12);
+		addModelBenchmark("model.parse.seek.add", "onReceivedSeek", null, formatSamples(SEEK));
+		addSeekChurnBenchmark();
+		addModelBenchmark("model.parse.tell.private", "onCommunication", null, PRIVATE_TELL);
+		addModelBenchmark("model.parse.tell.channel", "onCommunication", null, CHANNEL_TELL);
+		addModelBenchmark("model.parse.finger", "onFinger", null, FINGER);
+		addModelBenchmark("model.parse.history", "onHistory", null, HISTORY);
+		benchmarks.add(new Benchmark("position.fromStyle12") {
+			@Override
+			int run() {
+				return Position.fromStyle12(STYLE12_BOARD).getWhiteTime();
+			}
+		});
+		addStyle12Benchmarks();
+		addPerftBenchmark();
+		benchmarks.add(new Benchmark("html.decode") {
+			@Override
+			int run() {
+				return HtmlEntityEncoder.decode(HTML).length();
+			}
+		});
+	}
+
+	public void setWarmupIterations(int warmupIterations) {
+		this.warmupIterations = warmupIterations;
+	}
+
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	public void setIterationTime(long iterationTime) {
+		this.iterationTime = iterationTime;
+	}
+
+	public void setFilter(String filter) {
+		this.filter = Pattern.compile(filter);
+	}
+
+	public void setOutput(String outputPath) {
+		this.outputPath = outputPath;
+	}
+
+	public void setBaseline(String baselinePath) {
+		this.baselinePath = baselinePath;
+	}
+
+	public void setSession(String sessionPath) {
+		this.sessionPath = sessionPath;
+	}
+
+	private void addProtocolBenchmarks() {
+		benchmarks.add(new Benchmark("protocol.timeseal.encode") {
+			private TimesealProtocolImpl protocol;
+
+			@Override
+			void setUp() throws IOException {
+				protocol = new TimesealProtocolImpl(new NullOutputStream());
+			}
+
+			@Override
+			int run() throws IOException {
+				protocol.write(COMMAND);
+				protocol.flush();
+				return COMMAND.length;
+			}
+		});
+		benchmarks.add(new Benchmark("protocol.timeseal.decode") {
+			private final int[] counts = new int[2];
+			private FreechessDecoder decoder;
+			private byte[] stream;
+			private int offset;
+
+			@Override
+			void setUp() {
+				stream = createStream(false);
+				decoder = new FreechessDecoder(new FreechessDecoder.Listener() {
+					@Override
+					public void onStamp() {
+						counts[0]++;
+					}
+
+					@Override
+					public void onData(byte[] buffer, int offset, int count) {
+						counts[1] += count;
+					}
+
+					@Override
+					public void onLine(byte[] buffer, int offset, int count, boolean first) {
+					}
+
+					@Override
+					public void onFrame(byte[] buffer, int offset, int count) {
+					}
+				});
+			}
+
+			@Override
+			int run() throws IOException {
+				// framing off: only stamps are taken out, the rest is passed on as data
+				int count = Math.min(LoopingInputStream.READ_SIZE, stream.length - offset);
+				decoder.decode(stream, offset, count);
+				offset = (offset + count) % stream.length;
+				return counts[1];
+			}
+		});
+		benchmarks.add(new Benchmark("protocol.telnet.read") {
+			private TelnetProtocolImpl protocol;
+			private final byte[] buffer = new byte[4096];
+
+			@Override
+			void setUp() throws IOException {
+				protocol = new TelnetProtocolImpl(new LoopingInputStream(createStream(true)), new NullOutputStream());
+			}
+
+			@Override
+			int run() throws IOException {
+				return protocol.read(buffer);
+			}
+		});
+		benchmarks.add(new Benchmark("decoder.framing") {
+			private final int[] counts = new int[3];
+			private FreechessDecoder decoder;
+			private byte[] stream;
+			private int offset;
+
+			@Override
+			void setUp() {
+				stream = createStream(true);
+				decoder = new FreechessDecoder(new FreechessDecoder.Listener() {
+					@Override
+					public void onStamp() {
+						counts[0]++;
+					}
+
+					@Override
+					public void onData(byte[] buffer, int offset, int count) {
+					}
+
+					@Override
+					public void onLine(byte[] buffer, int offset, int count, boolean first) {
+						counts[1]++;
+					}
+
+					@Override
+					public void onFrame(byte[] buffer, int offset, int count) {
+						counts[2]++;
+					}
+				});
+				decoder.setFraming(true);
+			}
+
+			@Override
+			int run() throws IOException {
+				// socket sized reads that split frames and stamps anywhere
+				int count = Math.min(LoopingInputStream.READ_SIZE, stream.length - offset);
+				decoder.decode(stream, offset, count);
+				offset = (offset + count) % stream.length;
+				return counts[2];
+			}
+		});
+	}
+
+	// every operation is one pass over the whole stream, in socket sized reads
+	private void addInboundBenchmarks() {
+		benchmarks.add(new Benchmark("inbound.legacy") {
+			private LoopingInputStream input;
+			private LegacyInboundPipeline pipeline;
+
+			@Override
+			void setUp() throws IOException {
+				byte[] stream = createInboundStream();
+				units = stream.length;
+				input = new LoopingInputStream(stream);
+				pipeline = new LegacyInboundPipeline(input);
+			}
+
+			@Override
+			int run() throws IOException {
+				do {
+					pipeline.read();
+				} while (input.getPosition() != 0);
+				return pipeline.getFrames();
+			}
+		});
+		benchmarks.add(new Benchmark("inbound.decoder") {
+			private final int[] counts = new int[2];
+			private FreechessDecoder decoder;
+			private byte[] stream;
+
+			@Override
+			void setUp() throws IOException {
+				stream = createInboundStream();
+				units = stream.length;
+				decoder = new FreechessDecoder(new FreechessDecoder.Listener() {
+					@Override
+					public void onStamp() {
+					}
+
+					@Override
+					public void onData(byte[] buffer, int offset, int count) {
+					}
+
+					@Override
+					public void onLine(byte[] buffer, int offset, int count, boolean first) {
+					}
+
+					@Override
+					public void onFrame(byte[] buffer, int offset, int count) {
+						// the connection makes the same String for the model
+						counts[0]++;
+						counts[1] += new String(buffer, offset, count).length();
+					}
+				});
+				decoder.setFraming(true);
+			}
+
+			@Override
+			int run() throws IOException {
+				int offset = 0;
+				do {
+					int count = Math.min(LoopingInputStream.READ_SIZE, stream.length - offset);
+					decoder.decode(stream, offset, count);
+					offset += count;
+				} while (offset < stream.length);
+				return counts[0];
+			}
+		});
+	}
+
+	private byte[] createInboundStream() throws IOException {
+		return sessionPath != null ? readSessionStream(sessionPath) : createStream(true);
+	}
+
+	// puts back what the decoder took out of the recorded session: prompts, stamps and CRs
+	private static byte[] readSessionStream(String path) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		SessionCaptureReader reader = new SessionCaptureReader(new FileInputStream(path));
+		try {
+			while (reader.next()) {
+				if (reader.getType() == SessionCapture.RECORD_STAMP) {
+					writeWithCr(stream, STAMP, STAMP.length);
+				} else {
+					writeWithCr(stream, reader.getBuffer(), reader.getCount());
+					writeWithCr(stream, PROMPT, PROMPT.length);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (stream.size() == 0) {
+			throw new IOException(path + " has no frames");
+		}
+		return stream.toByteArray();
+	}
+
+	private static void writeWithCr(ByteArrayOutputStream stream, byte[] buffer, int count) {
+		for (int i = 0; i < count; i++) {
+			stream.write(buffer[i]);
+			if (buffer[i] == '\n') {
+				stream.write('\r');
+			}
+		}
+	}
+
+	// the split based parser Position.fromStyle12 replaced against the current one, on the same lines
+	private void addStyle12Benchmarks() {
+		final String[] samples = createStyle12Samples();
+		benchmarks.add(new Benchmark("position.style12.split") {
+			private int index;
+
+			@Override
+			void setUp() {
+				for (String sample : samples) {
+					if (!LegacyPosition.fromStyle12(sample).matches(Position.fromStyle12(sample))) {
+						throw new IllegalStateException(name + " parsers disagree on " + sample);
+					}
+				}
+			}
+
+			@Override
+			int run() {
+				String sample = samples[index];
+				index = (index + 1) % samples.length;
+				return LegacyPosition.fromStyle12(sample).whiteTime;
+			}
+		});
+		benchmarks.add(new Benchmark("position.style12.inplace") {
+			private int index;
+
+			@Override
+			int run() {
+				String sample = samples[index];
+				index = (index + 1) % samples.length;
+				return Position.fromStyle12(sample).getWhiteTime();
+			}
+		});
+	}
+
+	// distinct lines from a few dozen players, as a busy observer sees them
+	private static String[] createStyle12Samples() {
+		String[] handles = new String[32];
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = "Player" + (char) ('A' + i % 26) + i;
+		}
+		String[] samples = new String[STYLE12_SAMPLES];
+		for (int i = 0; i < samples.length; i++) {
+			int move = 1 + i % 60;
+			boolean black = (i & 1) != 0;
+			samples[i] = String.format("rnbqkb-r pppp-ppp -----n-- ----p--- --B-P--- -----N-- PPPP-PPP RNBQK--R %s -1 1 1 1 %d %d %d %s %s %d 3 0 39 39 %d %d %d N/g8-f6 (0:%02d.%03d) Nf6 0 1 %d",
+					black ? "B" : "W", i % 2, i % 50, 100 + i % 400, handles[i % handles.length], handles[(i * 7 + 3) % handles.length],
+					(i % 3) - 1, 180000 - i * 37 % 170000, 180000 - i * 53 % 170000, move, i % 60, i * 7 % 1000, i % 300);
+		}
+		return samples;
+	}
+
+	// every operation walks all perft positions to PERFT_DEPTH
+	private void addPerftBenchmark() {
+		benchmarks.add(new Benchmark("movegen.perft") {
+			private final MoveGenerator[] generators = new MoveGenerator[PERFT_POSITIONS.length];
+
+			@Override
+			void setUp() {
+				units = 0;
+				for (int i = 0; i < PERFT_POSITIONS.length; i++) {
+					generators[i] = new MoveGenerator(Position.fromStyle12(fenToStyle12(PERFT_POSITIONS[i])));
+					long[] counts = PERFT_COUNTS[i];
+					for (int depth = 1; depth <= counts.length; depth++) {
+						long nodes = generators[i].perft(depth);
+						if (nodes != counts[depth - 1]) {
+							throw new IllegalStateException(name + " " + PERFT_POSITIONS[i] + " depth " + depth + ": " + nodes + " nodes, expected " + counts[depth - 1]);
+						}
+					}
+					units += counts[PERFT_DEPTH - 1];
+				}
+			}
+
+			@Override
+			int run() {
+				long nodes = 0;
+				for (MoveGenerator generator : generators) {
+					nodes += generator.perft(PERFT_DEPTH);
+				}
+				return (int) nodes;
+			}
+		});
+	}
+
+	private static String fenToStyle12(String fen) {
+		String[] fields = fen.split(" ");
+		StringBuilder builder = new StringBuilder();
+		for (String rank : fields[0].split("/")) {
+			for (int i = 0; i < rank.length(); i++) {
+				char c = rank.charAt(i);
+				if ('1' <= c && c <= '8') {
+					for (int j = '0'; j < c; j++) {
+						builder.append('-');
+					}
+				} else {
+					builder.append(c);
+				}
+			}
+			builder.append(' ');
+		}
+		builder.append("w".equals(fields[1]) ? 'W' : 'B');
+		builder.append(' ').append("-".equals(fields[3]) ? -1 : fields[3].charAt(0) - 'a');
+		String castling = "KQkq";
+		for (int i = 0; i < castling.length(); i++) {
+			builder.append(fields[2].indexOf(castling.charAt(i)) != -1 ? " 1" : " 0");
+		}
+		builder.append(' ').append(fields[4]);
+		builder.append(" 1 Alexander Bernhard 0 3 0 39 39 180000 180000 ").append(fields[5]);
+		builder.append(" none (0:00) none 0 0 0");
+		return builder.toString();
+	}
+
+	private void addModelBenchmark(String name, String event, String prelude, final String... samples) {
+		benchmarks.add(new ModelBenchmark(name, event, prelude) {
+			private int index;
+
+			@Override
+			String next() {
+				String sample = samples[index];
+				index = (index + 1) % samples.length;
+				return sample;
+			}
+		});
+	}
+
+	private static String[] formatSamples(String format) {
+		String[] samples = new String[SEEK_IDS];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = String.format(format, i);
+		}
+		return samples;
+	}
+
+	// every operation adds a seek and takes it off again, the removal costs the difference to seek.add
+	private void addSeekChurnBenchmark() {
+		benchmarks.add(new ModelBenchmark("model.parse.seek.churn", "onReceivedSeek", null) {
+			private final String[] adds = formatSamples(SEEK);
+			private final String[] removes = formatSamples(SEEK_REMOVE);
+			private int index;
+
+			@Override
+			String next() {
+				return adds[index];
+			}
+
+			@Override
+			int run() {
+				int result = super.run();
+				model.parse(removes[index]);
+				index = (index + 1) % SEEK_IDS;
+				return result;
+			}
+		});
+	}
+
+	// same bytes the server sends: frames ending in prompts, a stamp now and then, CRs unless stripped
+	private static byte[] createStream(boolean cr) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 64; i++) {
+			builder.append(STYLE12).append("fics% ");
+			builder.append(String.format(SEEK, i)).append("fics% ");
+			if (i % 4 == 0) {
+				builder.append(CHANNEL_TELL).append("fics% ");
+			}
+			if (i % 8 == 0) {
+				builder.append("\n[G]\n");
+			}
+		}
+		String stream = builder.toString();
+		return (cr ? stream.replace("\n", "\n\r") : stream).getBytes();
+	}
+
+	public void run(PrintStream out) throws IOException {
+		Map<String, double[]> baseline = baselinePath != null ? readResults(baselinePath) : null;
+		PrintStream results = outputPath != null ? new PrintStream(new FileOutputStream(outputPath)) : null;
+		out.println(String.format("%-28s %14s %8s %10s %8s %8s %5s%s", "benchmark", "ops/s", "sd", "ns/op", "M/s", "B/op", "gc", baseline != null ? "  vs baseline" : ""));
+		try {
+			for (Benchmark benchmark : benchmarks) {
+				if (filter != null && !filter.matcher(benchmark.name).find()) {
+					continue;
+				}
+				double[] result = measure(benchmark);
+				double score = result[0];
+				StringBuilder line = new StringBuilder(String.format("%-28s %,14.0f %7.1f%% %,10.1f %8s %8s %5.0f", benchmark.name, score, result[1], 1e9 / score,
+						benchmark.units > 0 ? String.format("%.1f", score * benchmark.units / 1e6) : "-",
+						result[2] >= 0 ? String.format("%.0f", result[2]) : "n/a", result[3]));
+				if (baseline != null) {
+					double[] base = baseline.get(benchmark.name);
+					line.append(base != null ? String.format("  %+.1f%% ops/s %+.0f B/op", 100 * (score - base[0]) / base[0], result[2] - base[1]) : "  -");
+				}
+				out.println(line);
+				if (results != null) {
+					results.println(benchmark.name + "\t" + score + "\t" + result[2]);
+				}
+			}
+		} finally {
+			if (results != null) {
+				results.close();
+			}
+		}
+	}
+
+	// ops/s, standard deviation in percent of ops/s, bytes allocated per op, collections
+	private double[] measure(Benchmark benchmark) throws IOException {
+		benchmark.setUp();
+		for (int i = 0; i < warmupIterations; i++) {
+			runIteration(benchmark);
+		}
+		double[] scores = new double[iterations];
+		long ops = 0;
+		long allocated = 0;
+		long gcCount = JvmStats.getGcCount();
+		for (int i = 0; i < iterations; i++) {
+			long allocatedBefore = JvmStats.getAllocatedBytes();
+			long[] iteration = runIteration(benchmark);
+			allocated += JvmStats.getAllocatedBytes() - allocatedBefore;
+			ops += iteration[0];
+			scores[i] = iteration[0] * 1e9 / iteration[1];
+		}
+		gcCount = JvmStats.getGcCount() - gcCount;
+		double mean = 0;
+		for (double score : scores) {
+			mean += score;
+		}
+		mean /= scores.length;
+		double variance = 0;
+		for (double score : scores) {
+			variance += (score - mean) * (score - mean);
+		}
+		double deviation = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+		return new double[] { mean, 100 * deviation / mean, JvmStats.isAllocationSupported() ? (double) allocated / ops : -1, gcCount };
+	}
+
+	private long[] runIteration(Benchmark benchmark) throws IOException {
+		long ops = 0;
+		int batch = 1;
+		int sink = 0;
+		long start = System.nanoTime();
+		long deadline = start + iterationTime * 1000000;
+		long now;
+		do {
+			for (int i = 0; i < batch; i++) {
+				sink += benchmark.run();
+			}
+			ops += batch;
+			if (batch < 1024) {
+				batch <<= 1;
+			}
+			now = System.nanoTime();
+		} while (now < deadline);
+		consumed = sink;
+		return new long[] { ops, now - start };
+	}
+
+	private static Map<String, double[]> readResults(String path) throws IOException {
+		Map<String, double[]> results = new HashMap<String, double[]>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length == 3) {
+					results.put(fields[0], new double[] { Double.parseDouble(fields[1]), Double.parseDouble(fields[2]) });
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Benchmarks benchmarks = new Benchmarks();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (!arg.startsWith("--") || index == -1) {
+				throw new IllegalArgumentException(arg);
+			}
+			String name = arg.substring(2, index);
+			String value = arg.substring(index + 1);
+			if ("filter".equals(name)) {
+				benchmarks.setFilter(value);
+			} else if ("warmup".equals(name)) {
+				benchmarks.setWarmupIterations(Integer.parseInt(value));
+			} else if ("iterations".equals(name)) {
+				benchmarks.setIterations(Integer.parseInt(value));
+			} else if ("time".equals(name)) {
+				benchmarks.setIterationTime(Long.parseLong(value));
+			} else if ("output".equals(name)) {
+				benchmarks.setOutput(value);
+			} else if ("baseline".equals(name)) {
+				benchmarks.setBaseline(value);
+			} else if ("session".equals(name)) {
+				benchmarks.setSession(value);
+			} else {
+				throw new IllegalArgumentException(arg);
+			}
+		}
+		benchmarks.run(System.out);
+	}
+
+	private abstract static class Benchmark {
+
+		final String name;
+		// stream bytes or perft nodes handled by one operation, when it makes sense to report M/s
+		long units;
+
+		Benchmark(String name) {
+			this.name = name;
+		}
+
+		void setUp() throws IOException {
+		}
+
+		abstract int run() throws IOException;
+	}
+
+	private abstract static class ModelBenchmark extends Benchmark {
+
+		private final String event;
+		private final String prelude;
+		private final ModelEventCounter counter = new ModelEventCounter();
+		FreechessModel model;
+		private int count;
+
+		ModelBenchmark(String name, String event, String prelude) {
+			super(name);
+			this.event = event;
+			this.prelude = prelude;
+			counter.setCounting(false);
+		}
+
+		@Override
+		void setUp() {
+			// make sure the sample takes the path it is named after
+			ModelEventCounter check = new ModelEventCounter();
+			FreechessModel checkModel = createModel(check);
+			check.setCounting(true);
+			checkModel.parse(next());
+			if (check.getCount(event) == 0) {
+				throw new IllegalStateException(name + " sample did not reach " + event);
+			}
+			model = createModel(counter);
+		}
+
+		private FreechessModel createModel(ModelEventCounter counter) {
+			FreechessModel model = new FreechessModel();
+			model.setListener(counter.newListener());
+			if (prelude != null) {
+				counter.setCounting(false);
+				model.parse(prelude);
+			}
+			return model;
+		}
+
+		abstract String next();
+
+		@Override
+		int run() {
+			if (++count == MODEL_RESET_INTERVAL) {
+				count = 0;
+				model = createModel(counter);
+			}
+			return model.parse(next()) ? 1 : 0;
+		}
+	}
+
+	private static final class LoopingInputStream extends InputStream {
+
+		static final int READ_SIZE = 1460;
+
+		private final byte[] data;
+		private int position;
+
+		LoopingInputStream(byte[] data) {
+			this.data = data;
+		}
+
+		int getPosition() {
+			return position;
+		}
+
+		@Override
+		public int read() {
+			int b = data[position] & 0xFF;
+			position = (position + 1) % data.length;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int count) {
+			count = Math.min(Math.min(count, READ_SIZE), data.length - position);
+			System.arraycopy(data, position, buffer, offset, count);
+			position = (position + count) % data.length;
+			return count;
+		}
+	}
+
+	private static final class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int count) {
+		}
+	}
+}
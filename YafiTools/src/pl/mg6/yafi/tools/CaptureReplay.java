@@ -0,0 +1,201 @@
+package pl.mg6.yafi.tools;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import pl.mg6.yafi.model.FreechessDecoder;
+import pl.mg6.yafi.model.FreechessModel;
+import pl.mg6.yafi.model.SessionCapture;
+import pl.mg6.yafi.model.SessionCaptureReader;
+
+// Feeds a capture written by SessionCapture back through FreechessDecoder and FreechessModel,
+// the same path FreechessService takes, either at the recorded pace or as fast as possible.
+//
+// java pl.mg6.yafi.tools.CaptureReplay session.cap --paced=false --warmup=3 --repeat=10
+public final class CaptureReplay {
+
+	private static final byte[] PROMPT = "fics% ".getBytes();
+
+	private final String path;
+	private boolean paced;
+	private int warmup;
+	private int repeat = 1;
+
+	private long[] parseTimes = new long[4096];
+	private int frames;
+	private int stamps;
+	private long bytes;
+	private long elapsed;
+	private long allocated = -1;
+	private long gcCount;
+	private long gcTime;
+	private final Map<String, int[]> events = new TreeMap<String, int[]>();
+
+	public CaptureReplay(String path) {
+		this.path = path;
+	}
+
+	public void setPaced(boolean paced) {
+		this.paced = paced;
+	}
+
+	public void setWarmup(int warmup) {
+		this.warmup = warmup;
+	}
+
+	public void setRepeat(int repeat) {
+		this.repeat = repeat;
+	}
+
+	public void run() throws IOException, InterruptedException {
+		for (int i = 0; i < warmup; i++) {
+			replay(false);
+		}
+		for (int i = 0; i < repeat; i++) {
+			replay(true);
+		}
+	}
+
+	private void replay(boolean measure) throws IOException, InterruptedException {
+		final FreechessModel model = new FreechessModel();
+		ModelEventCounter counter = new ModelEventCounter();
+		counter.setCounting(measure);
+		model.setListener(counter.newListener());
+		FreechessDecoder decoder = new FreechessDecoder(new FreechessDecoder.Listener() {
+			@Override
+			public void onStamp() {
+			}
+
+			@Override
+			public void onData(byte[] buffer, int offset, int count) {
+			}
+
+			@Override
+			public void onLine(byte[] buffer, int offset, int count, boolean first) {
+				model.parseLine(buffer, offset, count, first);
+			}
+
+			@Override
+			public void onFrame(byte[] buffer, int offset, int count) {
+				model.parse(new String(buffer, offset, count));
+			}
+		});
+		decoder.setFraming(true);
+		boolean allocations = JvmStats.isAllocationSupported();
+		long gcCountStart = JvmStats.getGcCount();
+		long gcTimeStart = JvmStats.getGcTime();
+		SessionCaptureReader reader = new SessionCaptureReader(new FileInputStream(path));
+		try {
+			long start = System.nanoTime();
+			while (reader.next()) {
+				if (paced) {
+					long delay = reader.getTime() * 1000 - (System.nanoTime() - start);
+					if (delay > 0) {
+						Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+					}
+				}
+				if (reader.getType() == SessionCapture.RECORD_STAMP) {
+					if (measure) {
+						stamps++;
+					}
+					continue;
+				}
+				long allocatedBefore = JvmStats.getAllocatedBytes();
+				long time = System.nanoTime();
+				// frames were captured without the prompt that ended them
+				decoder.frame(reader.getBuffer(), 0, reader.getCount());
+				decoder.frame(PROMPT, 0, PROMPT.length);
+				time = System.nanoTime() - time;
+				if (measure) {
+					if (allocations) {
+						allocated = Math.max(allocated, 0) + JvmStats.getAllocatedBytes() - allocatedBefore;
+					}
+					if (frames == parseTimes.length) {
+						long[] dest = new long[frames << 1];
+						System.arraycopy(parseTimes, 0, dest, 0, frames);
+						parseTimes = dest;
+					}
+					parseTimes[frames++] = time;
+					bytes += reader.getCount();
+				}
+			}
+			if (measure) {
+				elapsed += System.nanoTime() - start;
+				counter.addTo(events);
+				gcCount += JvmStats.getGcCount() - gcCountStart;
+				gcTime += JvmStats.getGcTime() - gcTimeStart;
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	public String getReport() {
+		long[] sorted = new long[frames];
+		System.arraycopy(parseTimes, 0, sorted, 0, frames);
+		Arrays.sort(sorted);
+		StringBuilder builder = new StringBuilder();
+		builder.append("frames=").append(frames)
+				.append(" stamps=").append(stamps)
+				.append(" bytes=").append(bytes)
+				.append(" elapsed(ms)=").append(elapsed / 1000000);
+		if (elapsed > 0) {
+			builder.append(" frames/s=").append(frames * 1000000000L / elapsed)
+					.append(" MB/s=").append(String.format("%.1f", bytes * 1000.0 / elapsed));
+		}
+		builder.append('\n');
+		builder.append("parse(us) p50=").append(getPercentile(sorted, 50))
+				.append(" p90=").append(getPercentile(sorted, 90))
+				.append(" p99=").append(getPercentile(sorted, 99))
+				.append(" p99.9=").append(getPercentile(sorted, 99.9))
+				.append(" max=").append(frames > 0 ? String.format("%.1f", sorted[frames - 1] / 1000.0) : "-")
+				.append('\n');
+		builder.append("alloc(bytes/frame)=").append(allocated >= 0 && frames > 0 ? String.valueOf(allocated / frames) : "n/a")
+				.append(" gc=").append(gcCount).append(" gc(ms)=").append(gcTime)
+				.append('\n');
+		builder.append("events");
+		for (Map.Entry<String, int[]> entry : events.entrySet()) {
+			builder.append(' ').append(entry.getKey()).append('=').append(entry.getValue()[0]);
+		}
+		return builder.toString();
+	}
+
+	private static String getPercentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return "-";
+		}
+		int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+		return String.format("%.1f", sorted[Math.max(0, index)] / 1000.0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("usage: CaptureReplay <file> [--paced=true] [--warmup=N] [--repeat=N]");
+			System.exit(1);
+		}
+		CaptureReplay replay = new CaptureReplay(args[0]);
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			int index = arg.indexOf('=');
+			if (!arg.startsWith("--") || index == -1) {
+				throw new IllegalArgumentException(arg);
+			}
+			String name = arg.substring(2, index);
+			String value = arg.substring(index + 1);
+			if ("paced".equals(name)) {
+				replay.setPaced(Boolean.parseBoolean(value));
+			} else if ("warmup".equals(name)) {
+				replay.setWarmup(Integer.parseInt(value));
+			} else if ("repeat".equals(name)) {
+				replay.setRepeat(Integer.parseInt(value));
+			} else {
+				throw new IllegalArgumentException(arg);
+			}
+		}
+		replay.run();
+		System.out.println(replay.getReport());
+	}
+}
@@ -0,0 +1,211 @@
+package pl.mg6.yafi.tools;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Loopback stand-in for freechess.org. Every connection gets the login handshake, observed games,
+// seekinfo churn, channel chatter and timeseal stamps. Intervals are in milliseconds of simulated
+// time and an interval of 0 turns that stream off; unpaced sessions run through simulated time as
+// fast as the client reads, so the same seed and settings always produce the same bytes.
+//
+// java pl.mg6.yafi.tools.FicsSimulator --games=20 --move-interval=500 --paced=false --duration=600000
+public final class FicsSimulator {
+
+	private int port;
+	private long seed = 1;
+	private int games = 10;
+	private long moveInterval = 1000;
+	private int seeks = 300;
+	private long seekInterval = 200;
+	private long chatterInterval = 2000;
+	private long stampInterval = 5000;
+	private long duration;
+	private boolean paced = true;
+
+	private ServerSocket serverSocket;
+	private Thread acceptThread;
+	private final AtomicInteger sessionCount = new AtomicInteger();
+
+	final AtomicLong framesSent = new AtomicLong();
+	final AtomicLong bytesSent = new AtomicLong();
+	final AtomicLong movesSent = new AtomicLong();
+	final AtomicLong commandsReceived = new AtomicLong();
+	final AtomicLong stampsSent = new AtomicLong();
+	final AtomicLong stampReplies = new AtomicLong();
+	final AtomicLong stampRoundTripTotal = new AtomicLong();
+	final AtomicLong stampRoundTripMax = new AtomicLong();
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setGames(int games) {
+		this.games = games;
+	}
+
+	public void setMoveInterval(long moveInterval) {
+		this.moveInterval = moveInterval;
+	}
+
+	public void setSeeks(int seeks) {
+		this.seeks = seeks;
+	}
+
+	public void setSeekInterval(long seekInterval) {
+		this.seekInterval = seekInterval;
+	}
+
+	public void setChatterInterval(long chatterInterval) {
+		this.chatterInterval = chatterInterval;
+	}
+
+	public void setStampInterval(long stampInterval) {
+		this.stampInterval = stampInterval;
+	}
+
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	public void setPaced(boolean paced) {
+		this.paced = paced;
+	}
+
+	int getGames() {
+		return games;
+	}
+
+	long getMoveInterval() {
+		return moveInterval;
+	}
+
+	int getSeeks() {
+		return seeks;
+	}
+
+	long getSeekInterval() {
+		return seekInterval;
+	}
+
+	long getChatterInterval() {
+		return chatterInterval;
+	}
+
+	long getStampInterval() {
+		return stampInterval;
+	}
+
+	long getDuration() {
+		return duration;
+	}
+
+	boolean isPaced() {
+		return paced;
+	}
+
+	public int getPort() {
+		return serverSocket != null ? serverSocket.getLocalPort() : port;
+	}
+
+	public void start() throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		acceptThread = new Thread("FicsSimulator") {
+			@Override
+			public void run() {
+				acceptConnections();
+			}
+		};
+		acceptThread.start();
+	}
+
+	public void stop() {
+		try {
+			serverSocket.close();
+		} catch (IOException ex) {
+			// ignore
+		}
+	}
+
+	private void acceptConnections() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				int index = sessionCount.getAndIncrement();
+				new Thread(new SimulatorSession(this, socket, seed + index), "FicsSimulator-" + index).start();
+			} catch (IOException ex) {
+				// closed
+			}
+		}
+	}
+
+	void recordStampReply(long roundTrip) {
+		stampReplies.incrementAndGet();
+		stampRoundTripTotal.addAndGet(roundTrip);
+		long max = stampRoundTripMax.get();
+		while (roundTrip > max && !stampRoundTripMax.compareAndSet(max, roundTrip)) {
+			max = stampRoundTripMax.get();
+		}
+	}
+
+	public String getStatistics() {
+		long replies = stampReplies.get();
+		return "sessions=" + sessionCount.get()
+				+ " frames=" + framesSent.get()
+				+ " bytes=" + bytesSent.get()
+				+ " moves=" + movesSent.get()
+				+ " commands=" + commandsReceived.get()
+				+ " stamps=" + stampsSent.get() + "/" + replies
+				+ " stampRtt(avg/max us)=" + (replies > 0 ? stampRoundTripTotal.get() / replies / 1000 : 0) + "/" + stampRoundTripMax.get() / 1000;
+	}
+
+	public static void main(String[] args) throws Exception {
+		FicsSimulator simulator = new FicsSimulator();
+		simulator.setPort(5000);
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (!arg.startsWith("--") || index == -1) {
+				throw new IllegalArgumentException(arg);
+			}
+			String name = arg.substring(2, index);
+			String value = arg.substring(index + 1);
+			if ("port".equals(name)) {
+				simulator.setPort(Integer.parseInt(value));
+			} else if ("seed".equals(name)) {
+				simulator.setSeed(Long.parseLong(value));
+			} else if ("games".equals(name)) {
+				simulator.setGames(Integer.parseInt(value));
+			} else if ("move-interval".equals(name)) {
+				simulator.setMoveInterval(Long.parseLong(value));
+			} else if ("seeks".equals(name)) {
+				simulator.setSeeks(Integer.parseInt(value));
+			} else if ("seek-interval".equals(name)) {
+				simulator.setSeekInterval(Long.parseLong(value));
+			} else if ("chatter-interval".equals(name)) {
+				simulator.setChatterInterval(Long.parseLong(value));
+			} else if ("stamp-interval".equals(name)) {
+				simulator.setStampInterval(Long.parseLong(value));
+			} else if ("duration".equals(name)) {
+				simulator.setDuration(Long.parseLong(value));
+			} else if ("paced".equals(name)) {
+				simulator.setPaced(Boolean.parseBoolean(value));
+			} else {
+				throw new IllegalArgumentException(arg);
+			}
+		}
+		simulator.start();
+		System.out.println("listening on 127.0.0.1:" + simulator.getPort());
+		while (true) {
+			Thread.sleep(5000);
+			System.out.println(simulator.getStatistics());
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package pl.mg6.yafi.tools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pl.mg6.yafi.model.ConnectionEngine;
+import pl.mg6.yafi.model.FreechessConnection;
+import pl.mg6.yafi.model.FreechessModel;
+import pl.mg6.yafi.model.PipelineTrace;
+import pl.mg6.yafi.model.SessionCapture;
+
+// Runs many guest sessions of the Android-free core in one JVM, multiplexed on a few shared
+// ConnectionEngine threads, and reports what a single session costs in CPU and retained heap.
+// Without --host an in-process FicsSimulator is started; its memory is then part of the figures.
+//
+// java pl.mg6.yafi.tools.HeadlessRunner --sessions=500 --engines=4 --duration=60000
+// java pl.mg6.yafi.tools.HeadlessRunner --sessions=500 --host=127.0.0.1 --port=5000
+// java pl.mg6.yafi.tools.HeadlessRunner --sessions=1 --capture=session.cap
+public final class HeadlessRunner {
+
+	private static final String ENGINE_NAME = "HeadlessEngine-";
+	private static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+	private static final long REPORT_INTERVAL = 5000;
+	private static final long LOGON_TIMEOUT = 60000;
+	private static final long QUIT_TIMEOUT = 10000;
+
+	private int sessionCount = 100;
+	private int engineCount = Runtime.getRuntime().availableProcessors();
+	private String host;
+	private int port;
+	private long duration = 30000;
+	private long rampInterval = 2;
+	private boolean seekInfo = true;
+	private String capturePath;
+	private FicsSimulator simulator;
+
+	private ConnectionEngine[] engines;
+	private Session[] sessions;
+
+	private final AtomicInteger loggedOn = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger disconnected = new AtomicInteger();
+	private final AtomicLong lines = new AtomicLong();
+	private final AtomicLong outputs = new AtomicLong();
+
+	public void setSessions(int sessions) {
+		this.sessionCount = sessions;
+	}
+
+	public void setEngines(int engines) {
+		this.engineCount = engines;
+	}
+
+	public void setServer(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	public void setSimulator(FicsSimulator simulator) {
+		this.simulator = simulator;
+	}
+
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	public void setRampInterval(long rampInterval) {
+		this.rampInterval = rampInterval;
+	}
+
+	public void setSeekInfo(boolean seekInfo) {
+		this.seekInfo = seekInfo;
+	}
+
+	// the first session records what it receives
+	public void setCapture(String capturePath) {
+		this.capturePath = capturePath;
+	}
+
+	public void run() throws IOException, InterruptedException {
+		if (host == null) {
+			if (simulator == null) {
+				simulator = new FicsSimulator();
+			}
+			simulator.setPort(0);
+			simulator.start();
+			host = "127.0.0.1";
+			port = simulator.getPort();
+		}
+		long heapBefore = JvmStats.getRetainedHeap();
+
+		engines = new ConnectionEngine[engineCount];
+		for (int i = 0; i < engineCount; i++) {
+			engines[i] = new ConnectionEngine(ENGINE_NAME + i, IDLE_TIMEOUT);
+			engines[i].start();
+		}
+		long[] threadIds = JvmStats.findThreads(ENGINE_NAME);
+
+		long start = System.currentTimeMillis();
+		sessions = new Session[sessionCount];
+		for (int i = 0; i < sessionCount; i++) {
+			sessions[i] = new Session(engines[i % engineCount]);
+			if (i == 0 && capturePath != null) {
+				sessions[i].connection.setCapture(new SessionCapture(new FileOutputStream(capturePath)));
+			}
+			sessions[i].connection.connect();
+			if (rampInterval > 0) {
+				Thread.sleep(rampInterval);
+			}
+		}
+		while (loggedOn.get() + failed.get() < sessionCount && System.currentTimeMillis() - start < LOGON_TIMEOUT) {
+			Thread.sleep(50);
+		}
+		long logonTime = System.currentTimeMillis() - start;
+		System.out.println("logged on " + loggedOn.get() + "/" + sessionCount + " in " + logonTime + "ms");
+
+		long cpuStart = JvmStats.getCpuTime(threadIds);
+		long allocatedStart = JvmStats.getAllocatedBytes(threadIds);
+		long linesStart = lines.get();
+		long outputsStart = outputs.get();
+		long gcCountStart = JvmStats.getGcCount();
+		long gcTimeStart = JvmStats.getGcTime();
+		PipelineTrace.reset();
+		long measureStart = System.nanoTime();
+		long end = System.currentTimeMillis() + duration;
+		long now = System.currentTimeMillis();
+		while (now < end) {
+			Thread.sleep(Math.min(REPORT_INTERVAL, end - now));
+			now = System.currentTimeMillis();
+			System.out.println(getProgress());
+		}
+		long elapsed = System.nanoTime() - measureStart;
+		long cpu = JvmStats.getCpuTime(threadIds) - cpuStart;
+		long allocated = JvmStats.getAllocatedBytes(threadIds) - allocatedStart;
+		long gcCount = JvmStats.getGcCount() - gcCountStart;
+		long gcTime = JvmStats.getGcTime() - gcTimeStart;
+		long lineCount = lines.get() - linesStart;
+		long frames = outputs.get() - outputsStart;
+		// sessions are still connected here, so this is what they hold on to
+		long heapAfter = JvmStats.getRetainedHeap();
+
+		Map<String, int[]> events = new TreeMap<String, int[]>();
+		long roundTripTotal = 0;
+		int roundTripMax = -1;
+		int roundTripCount = 0;
+		for (Session session : sessions) {
+			session.counter.addTo(events);
+			int roundTrip = session.model.getLagEstimator().getRoundTrip();
+			if (roundTrip >= 0) {
+				roundTripTotal += roundTrip;
+				roundTripMax = Math.max(roundTripMax, roundTrip);
+				roundTripCount++;
+			}
+		}
+
+		for (Session session : sessions) {
+			session.connection.send("quit\n");
+		}
+		start = System.currentTimeMillis();
+		while (disconnected.get() < sessionCount && System.currentTimeMillis() - start < QUIT_TIMEOUT) {
+			Thread.sleep(50);
+		}
+		for (ConnectionEngine engine : engines) {
+			engine.stop();
+		}
+		if (simulator != null) {
+			simulator.stop();
+		}
+
+		int active = Math.max(1, loggedOn.get());
+		StringBuilder builder = new StringBuilder();
+		builder.append("sessions=").append(sessionCount)
+				.append(" loggedOn=").append(loggedOn.get())
+				.append(" failed=").append(failed.get())
+				.append(" engines=").append(engineCount)
+				.append(" elapsed(ms)=").append(elapsed / 1000000)
+				.append('\n');
+		builder.append("frames=").append(frames)
+				.append(" lines=").append(lineCount)
+				.append(" frames/s=").append(elapsed > 0 ? frames * 1000000000L / elapsed : 0)
+				.append(" engineCpu=").append(elapsed > 0 ? String.format("%.1f%%", cpu * 100.0 / elapsed) : "-")
+				.append(" cpu/session(us/s)=").append(elapsed > 0 ? cpu * 1000000L / elapsed / active : 0)
+				.append(" cpu/frame(us)=").append(frames > 0 ? String.format("%.1f", cpu / 1000.0 / frames) : "-")
+				.append('\n');
+		builder.append("heap/session(KB)=").append((heapAfter - heapBefore) / 1024 / active)
+				.append(simulator != null ? " (with simulator)" : "")
+				.append(" alloc/frame(bytes)=").append(allocated >= 0 && frames > 0 ? String.valueOf(allocated / frames) : "n/a")
+				.append(" gc=").append(gcCount).append(" gc(ms)=").append(gcTime)
+				.append('\n');
+		builder.append("rtt(ms) sessions=").append(roundTripCount)
+				.append(" avg=").append(roundTripCount > 0 ? roundTripTotal / roundTripCount : -1)
+				.append(" max=").append(roundTripMax)
+				.append('\n');
+		builder.append("events");
+		for (Map.Entry<String, int[]> entry : events.entrySet()) {
+			builder.append(' ').append(entry.getKey()).append('=').append(entry.getValue()[0]);
+		}
+		System.out.println(builder);
+		if (PipelineTrace.isEnabled()) {
+			System.out.print(PipelineTrace.dump());
+		}
+	}
+
+	private String getProgress() {
+		String progress = "loggedOn=" + loggedOn.get()
+				+ " disconnected=" + disconnected.get()
+				+ " lines=" + lines.get()
+				+ " outputs=" + outputs.get();
+		if (simulator != null) {
+			progress += " | " + simulator.getStatistics();
+		}
+		return progress;
+	}
+
+	private final class Session implements FreechessConnection.Listener {
+
+		private final FreechessConnection connection;
+		private final FreechessModel model;
+		private final ModelEventCounter counter;
+
+		public Session(ConnectionEngine engine) {
+			connection = new FreechessConnection("guest", "", "headless", "jvm");
+			connection.setServer(host, port);
+			connection.setEngine(engine);
+			connection.setListener(this);
+			model = new FreechessModel();
+			counter = new ModelEventCounter();
+			model.setListener(counter.newListener());
+			connection.setLagEstimator(model.getLagEstimator());
+		}
+
+		@Override
+		public void onConnecting() {
+		}
+
+		@Override
+		public void onInvalidUsername() {
+			failed.incrementAndGet();
+		}
+
+		@Override
+		public void onSendingUsername() {
+		}
+
+		@Override
+		public void onSendingPassword() {
+		}
+
+		@Override
+		public void onInvalidPassword() {
+			failed.incrementAndGet();
+		}
+
+		@Override
+		public void onUnableToLogOn(String info) {
+			failed.incrementAndGet();
+		}
+
+		@Override
+		public void onLoggedOn() {
+			loggedOn.incrementAndGet();
+			if (seekInfo) {
+				connection.send("iset seekinfo 1\n");
+			}
+		}
+
+		@Override
+		public void onDisconnected() {
+			disconnected.incrementAndGet();
+		}
+
+		@Override
+		public void onReceivedLine(byte[] buffer, int offset, int count, boolean first) {
+			lines.incrementAndGet();
+			model.parseLine(buffer, offset, count, first);
+		}
+
+		@Override
+		public void onReceivedOutput(String output) {
+			outputs.incrementAndGet();
+			model.parse(output);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		HeadlessRunner runner = new HeadlessRunner();
+		FicsSimulator simulator = new FicsSimulator();
+		String host = null;
+		int port = 5000;
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (!arg.startsWith("--") || index == -1) {
+				throw new IllegalArgumentException(arg);
+			}
+			String name = arg.substring(2, index);
+			String value = arg.substring(index + 1);
+			if ("sessions".equals(name)) {
+				runner.setSessions(Integer.parseInt(value));
+			} else if ("engines".equals(name)) {
+				runner.setEngines(Integer.parseInt(value));
+			} else if ("host".equals(name)) {
+				host = value;
+			} else if ("port".equals(name)) {
+				port = Integer.parseInt(value);
+			} else if ("duration".equals(name)) {
+				runner.setDuration(Long.parseLong(value));
+			} else if ("ramp".equals(name)) {
+				runner.setRampInterval(Long.parseLong(value));
+			} else if ("seekinfo".equals(name)) {
+				runner.setSeekInfo(Boolean.parseBoolean(value));
+			} else if ("capture".equals(name)) {
+				runner.setCapture(value);
+			} else if ("trace".equals(name)) {
+				PipelineTrace.setEnabled(Boolean.parseBoolean(value));
+			} else if ("games".equals(name)) {
+				simulator.setGames(Integer.parseInt(value));
+			} else if ("move-interval".equals(name)) {
+				simulator.setMoveInterval(Long.parseLong(value));
+			} else if ("seeks".equals(name)) {
+				simulator.setSeeks(Integer.parseInt(value));
+			} else if ("paced".equals(name)) {
+				simulator.setPaced(Boolean.parseBoolean(value));
+			} else {
+				throw new IllegalArgumentException(arg);
+			}
+		}
+		if (host != null) {
+			runner.setServer(host, port);
+		} else {
+			runner.setSimulator(simulator);
+		}
+		runner.run();
+	}
+}
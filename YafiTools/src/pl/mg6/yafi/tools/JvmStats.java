@@ -0,0 +1,100 @@
+package pl.mg6.yafi.tools;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+final class JvmStats {
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final com.sun.management.ThreadMXBean allocations;
+
+	static {
+		com.sun.management.ThreadMXBean bean = null;
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			bean = (com.sun.management.ThreadMXBean) threads;
+			if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) {
+				bean = null;
+			}
+		}
+		allocations = bean;
+	}
+
+	private JvmStats() {
+	}
+
+	public static boolean isAllocationSupported() {
+		return allocations != null;
+	}
+
+	// bytes allocated by the current thread so far, -1 when the JVM does not tell
+	public static long getAllocatedBytes() {
+		return allocations != null ? allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+	}
+
+	// ids of the live threads whose names start with prefix
+	public static long[] findThreads(String prefix) {
+		ThreadInfo[] infos = threads.getThreadInfo(threads.getAllThreadIds());
+		long[] ids = new long[infos.length];
+		int count = 0;
+		for (ThreadInfo info : infos) {
+			if (info != null && info.getThreadName().startsWith(prefix)) {
+				ids[count++] = info.getThreadId();
+			}
+		}
+		long[] result = new long[count];
+		System.arraycopy(ids, 0, result, 0, count);
+		return result;
+	}
+
+	public static long getCpuTime(long[] ids) {
+		long time = 0;
+		for (long id : ids) {
+			time += Math.max(0, threads.getThreadCpuTime(id));
+		}
+		return time;
+	}
+
+	public static long getAllocatedBytes(long[] ids) {
+		if (allocations == null) {
+			return -1;
+		}
+		long bytes = 0;
+		for (long id : ids) {
+			bytes += Math.max(0, allocations.getThreadAllocatedBytes(id));
+		}
+		return bytes;
+	}
+
+	// heap in use once garbage has been collected, as far as the JVM can be talked into it
+	public static long getRetainedHeap() {
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			used = Math.min(used, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		}
+		return used;
+	}
+
+	public static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, bean.getCollectionCount());
+		}
+		return count;
+	}
+
+	public static long getGcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, bean.getCollectionTime());
+		}
+		return time;
+	}
+}
@@ -0,0 +1,125 @@
+package pl.mg6.yafi.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import pl.mg6.yafi.model.TelnetProtocolImpl;
+
+// The inbound path as it was before FreechessDecoder, kept as the reference for the inbound
+// benchmarks: TelnetProtocolImpl strips CRs, a copy of the old TimesealProtocolImpl.read takes
+// stamps out and a copy of the old FreechessConnection.parse frames the text on prompts.
+final class LegacyInboundPipeline {
+
+	private static final byte[] stamp = "\n[G]\n".getBytes();
+
+	private final TelnetProtocolImpl telnet;
+	private final byte[] readBuffer = new byte[4096];
+	private int readBufferCount;
+	private final byte[] buffer = new byte[4096];
+	private final StringBuilder readerBuffer = new StringBuilder(4096);
+	private int stamps;
+	private int frames;
+	private int frameBytes;
+
+	LegacyInboundPipeline(InputStream istream) throws IOException {
+		telnet = new TelnetProtocolImpl(istream, null);
+	}
+
+	// one socket read through all three passes, -1 at the end of the stream
+	int read() throws IOException {
+		int count = readStamped(buffer, 0, buffer.length);
+		if (count != -1) {
+			parse(buffer, count);
+		}
+		return count;
+	}
+
+	int getStamps() {
+		return stamps;
+	}
+
+	int getFrames() {
+		return frames;
+	}
+
+	int getFrameBytes() {
+		return frameBytes;
+	}
+
+	private int readStamped(byte[] buffer, int offset, int count) throws IOException {
+		if (readBufferCount - (stamp.length - 1) >= count) {
+			System.arraycopy(readBuffer, 0, buffer, offset, count);
+			readBufferCount -= count;
+			System.arraycopy(readBuffer, count, readBuffer, 0, readBufferCount);
+		} else {
+			int size = telnet.read(readBuffer, readBufferCount, readBuffer.length - readBufferCount);
+			if (size == -1) {
+				if (readBufferCount > 0) {
+					count = Math.min(count, readBufferCount);
+					System.arraycopy(readBuffer, 0, buffer, offset, count);
+					readBufferCount -= count;
+					System.arraycopy(readBuffer, count, readBuffer, 0, readBufferCount);
+				} else {
+					count = -1;
+				}
+			} else {
+				readBufferCount += size;
+				outer:
+				for (int i = 0; i <= readBufferCount - stamp.length; i++) {
+					for (int j = 0; j < stamp.length; j++) {
+						if (readBuffer[i + j] != stamp[j]) {
+							continue outer;
+						}
+					}
+					// stamp found, the reply is left out on both sides of the comparison
+					stamps++;
+					System.arraycopy(readBuffer, i + stamp.length, readBuffer, i, readBufferCount - (i + stamp.length));
+					readBufferCount -= stamp.length;
+					i--;
+				}
+				if (readBufferCount - (stamp.length - 1) >= count) {
+					System.arraycopy(readBuffer, 0, buffer, offset, count);
+					readBufferCount -= count;
+					System.arraycopy(readBuffer, count, readBuffer, 0, readBufferCount);
+				} else {
+					int leaveLastBytes = Math.min(readBufferCount, stamp.length - 1);
+					outer:
+					while (leaveLastBytes > 0) {
+						for (int i = 0; i < leaveLastBytes; i++) {
+							if (readBuffer[readBufferCount - leaveLastBytes + i] != stamp[i]) {
+								leaveLastBytes--;
+								continue outer;
+							}
+						}
+						break;
+					}
+					count = Math.min(count, readBufferCount - leaveLastBytes);
+					System.arraycopy(readBuffer, 0, buffer, offset, count);
+					readBufferCount -= count;
+					System.arraycopy(readBuffer, count, readBuffer, 0, readBufferCount);
+				}
+			}
+		}
+		return count;
+	}
+
+	private void parse(byte[] buffer, int count) {
+		String str = new String(buffer, 0, count);
+		readerBuffer.append(str);
+		int len = "fics% ".length();
+		while (readerBuffer.length() >= len && readerBuffer.substring(0, len).equals("fics% ")) {
+			readerBuffer.delete(0, len);
+		}
+		int index = readerBuffer.indexOf("\nfics% ");
+		while (index != -1) {
+			String output = readerBuffer.substring(0, index + "\n".length());
+			readerBuffer.delete(0, index + "\nfics% ".length());
+			frames++;
+			frameBytes += output.length();
+			while (readerBuffer.length() >= len && readerBuffer.substring(0, len).equals("fics% ")) {
+				readerBuffer.delete(0, len);
+			}
+			index = readerBuffer.indexOf("\nfics% ");
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package pl.mg6.yafi.tools;
+
+import pl.mg6.common.TimeUtils;
+import pl.mg6.yafi.model.data.Color;
+import pl.mg6.yafi.model.data.Position;
+
+// Position.fromStyle12 as it was before it parsed in place: split the line on spaces and parse
+// each field from its own String. Kept as the reference for the style12 benchmarks.
+final class LegacyPosition {
+
+	long timestamp;
+	String[] placement = new String[8];
+	Color toMove;
+	int enPassantFile;
+	boolean[] casting = new boolean[4];
+	int movesSinceIrreversible;
+	int gameId;
+	String whiteName;
+	String blackName;
+	int relation;
+	int initialTime;
+	int timeIncrement;
+	int whiteStrength;
+	int blackStrength;
+	int whiteTime;
+	int blackTime;
+	int nextMoveNumber;
+	String verboseMove;
+	String timeTaken;
+	String prettyMove;
+	boolean flip;
+	boolean timeRunning;
+	int lag;
+
+	static LegacyPosition fromStyle12(String style12) {
+		LegacyPosition pos = new LegacyPosition();
+		pos.timestamp = TimeUtils.getTimestamp();
+		String[] data = style12.split(" ");
+		for (int i = 0; i < 8; i++) {
+			pos.placement[i] = data[i];
+		}
+		pos.toMove = "W".equals(data[8]) ? Color.WHITE : Color.BLACK;
+		pos.enPassantFile = Integer.parseInt(data[9]);
+		for (int i = 0; i < 4; i++) {
+			pos.casting[i] = "1".equals(data[i + 10]);
+		}
+		pos.movesSinceIrreversible = Integer.parseInt(data[14]);
+		pos.gameId = Integer.parseInt(data[15]);
+		pos.whiteName = data[16].intern();
+		pos.blackName = data[17].intern();
+		pos.relation = Integer.parseInt(data[18]);
+		pos.initialTime = Integer.parseInt(data[19]);
+		pos.timeIncrement = Integer.parseInt(data[20]);
+		pos.whiteStrength = Integer.parseInt(data[21]);
+		pos.blackStrength = Integer.parseInt(data[22]);
+		pos.whiteTime = Integer.parseInt(data[23]);
+		pos.blackTime = Integer.parseInt(data[24]);
+		pos.nextMoveNumber = Integer.parseInt(data[25]);
+		pos.verboseMove = data[26];
+		pos.timeTaken = data[27];
+		pos.prettyMove = data[28];
+		pos.flip = "1".equals(data[29]);
+		pos.timeRunning = "1".equals(data[30]);
+		pos.lag = Integer.parseInt(data[31]);
+		return pos;
+	}
+
+	// true when the in place parser read the same fields from the same line
+	boolean matches(Position pos) {
+		for (int i = 0; i < 8; i++) {
+			if (!placement[i].equals(pos.getPlacement()[i])) {
+				return false;
+			}
+		}
+		for (int i = 0; i < 4; i++) {
+			if (casting[i] != pos.getCasting()[i]) {
+				return false;
+			}
+		}
+		return toMove == pos.getToMove()
+				&& enPassantFile == pos.getEnPassantFile()
+				&& movesSinceIrreversible == pos.getMovesSinceIrreversible()
+				&& gameId == pos.getGameId()
+				&& whiteName.equals(pos.getWhiteName())
+				&& blackName.equals(pos.getBlackName())
+				&& relation == pos.getRelation()
+				&& initialTime == pos.getInitialTime()
+				&& timeIncrement == pos.getTimeIncrement()
+				&& whiteStrength == pos.getWhiteStrength()
+				&& blackStrength == pos.getBlackStrength()
+				&& whiteTime == pos.getWhiteTime()
+				&& blackTime == pos.getBlackTime()
+				&& nextMoveNumber == pos.getNextMoveNumber()
+				&& verboseMove.equals(pos.getVerboseMove())
+				&& timeTaken.equals(pos.getTimeTaken())
+				&& prettyMove.equals(pos.getPrettyMove())
+				&& flip == pos.isFlip()
+				&& timeRunning == pos.isTimeRunning()
+				&& lag == pos.getLag();
+	}
+}
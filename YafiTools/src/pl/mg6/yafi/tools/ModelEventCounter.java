@@ -0,0 +1,71 @@
+package pl.mg6.yafi.tools;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+
+import pl.mg6.yafi.model.FreechessModel;
+import pl.mg6.yafi.model.SeekBook;
+import pl.mg6.yafi.model.data.SeekInfo;
+import pl.mg6.yafi.model.data.SeekInfoList;
+
+// FreechessModel listener that counts callbacks and keeps a SeekBook the way FreechessService does
+final class ModelEventCounter implements InvocationHandler {
+
+	private final Map<String, int[]> counts = new TreeMap<String, int[]>();
+	private final SeekBook seekBook = new SeekBook();
+	private boolean counting = true;
+
+	public ModelEventCounter() {
+		seekBook.reset(new SeekInfoList());
+	}
+
+	public FreechessModel.Listener newListener() {
+		return (FreechessModel.Listener) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { FreechessModel.Listener.class }, this);
+	}
+
+	public void setCounting(boolean counting) {
+		this.counting = counting;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+		if ("onSeekInfoSet".equals(name)) {
+			seekBook.reset((SeekInfoList) args[0]);
+		} else if ("onReceivedSeek".equals(name)) {
+			seekBook.add((SeekInfo) args[0]);
+		} else if ("onReceivedSeeks".equals(name)) {
+			seekBook.addAll((SeekInfoList) args[0]);
+		} else if ("onRemovedSeeks".equals(name)) {
+			seekBook.remove((SeekInfoList) args[0]);
+		}
+		if (counting) {
+			int[] count = counts.get(name);
+			if (count == null) {
+				count = new int[1];
+				counts.put(name, count);
+			}
+			count[0]++;
+		}
+		return null;
+	}
+
+	public int getCount(String name) {
+		int[] count = counts.get(name);
+		return count != null ? count[0] : 0;
+	}
+
+	public void addTo(Map<String, int[]> totals) {
+		for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+			int[] total = totals.get(entry.getKey());
+			if (total == null) {
+				total = new int[1];
+				totals.put(entry.getKey(), total);
+			}
+			total[0] += entry.getValue()[0];
+		}
+	}
+}
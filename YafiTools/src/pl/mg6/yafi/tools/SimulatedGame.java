@@ -0,0 +1,193 @@
+package pl.mg6.yafi.tools;
+
+import java.util.Random;
+
+import pl.mg6.yafi.model.MoveGenerator;
+import pl.mg6.yafi.model.data.Position;
+
+final class SimulatedGame {
+
+	private static final String PIECES = "PNBRQK";
+	private static final String INITIAL = "rnbqkbnrpppppppp--------------------------------PPPPPPPPRNBQKBNR";
+	private static final int[] VALUES = { 1, 3, 3, 5, 9, 0 };
+
+	private final Random random;
+	private final int id;
+	private final String white;
+	private final String black;
+	private final int whiteRating;
+	private final int blackRating;
+	private final int initialTime;
+	private final int increment;
+	private final int maxPlies;
+
+	private final char[] board = INITIAL.toCharArray();
+	private final int[] moves = new int[256];
+	private boolean blackToMove;
+	private int enPassantFile = -1;
+	private final boolean[] castling = { true, true, true, true };
+	private int movesSinceIrreversible;
+	private int moveNumber = 1;
+	private int whiteStrength = 39;
+	private int blackStrength = 39;
+	private int whiteTime;
+	private int blackTime;
+	private String verboseMove = "none";
+	private String timeTaken = "(0:00.000)";
+	private String prettyMove = "none";
+	private int plies;
+
+	public SimulatedGame(Random random, int id, String white, String black) {
+		this.random = random;
+		this.id = id;
+		this.white = white;
+		this.black = black;
+		whiteRating = 1000 + random.nextInt(1500);
+		blackRating = 1000 + random.nextInt(1500);
+		initialTime = 1 + random.nextInt(5);
+		increment = random.nextInt(3);
+		whiteTime = 60000 * initialTime;
+		blackTime = whiteTime;
+		maxPlies = 40 + random.nextInt(160);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getHeader() {
+		return "\nYou are now observing game " + id + ".\n"
+				+ "Game " + id + ": " + white + " (" + whiteRating + ") " + black + " (" + blackRating + ") rated blitz " + initialTime + " " + increment + "\n"
+				+ "\n<12> " + getStyle12() + "\n";
+	}
+
+	public String getResult() {
+		String loser = blackToMove ? black : white;
+		return "\n{Game " + id + " (" + white + " vs. " + black + ") " + loser + " resigns} " + (blackToMove ? "1-0" : "0-1") + "\n";
+	}
+
+	// plays a random legal move, false when the game is over
+	public boolean move() {
+		if (plies >= maxPlies) {
+			return false;
+		}
+		int count = new MoveGenerator(Position.fromStyle12(getStyle12())).generate(moves);
+		if (count == 0) {
+			return false;
+		}
+		apply(moves[random.nextInt(count)]);
+		plies++;
+		return true;
+	}
+
+	public String getMove() {
+		return "\n<12> " + getStyle12() + "\n";
+	}
+
+	private void apply(int move) {
+		int from = move & 63;
+		int to = (move >> 6) & 63;
+		int promotion = (move >> 12) & 7;
+		char piece = board[from];
+		char captured = board[to];
+		char type = Character.toUpperCase(piece);
+		boolean capture = captured != '-';
+		if (type == 'K' && Math.abs((to & 7) - (from & 7)) == 2) {
+			int rook = to > from ? from + 3 : from - 4;
+			board[(from + to) / 2] = board[rook];
+			board[rook] = '-';
+			verboseMove = to > from ? "o-o" : "o-o-o";
+			prettyMove = to > from ? "O-O" : "O-O-O";
+		} else {
+			if (type == 'P' && (from & 7) != (to & 7) && !capture) {
+				int square = (from & ~7) | (to & 7);
+				captured = board[square];
+				board[square] = '-';
+				capture = true;
+			}
+			verboseMove = type + "/" + getSquare(from) + "-" + getSquare(to);
+			prettyMove = (type == 'P' ? (capture ? String.valueOf(getSquare(from).charAt(0)) : "") : String.valueOf(type)) + (capture ? "x" : "") + getSquare(to);
+			if (promotion != 0) {
+				char promoted = PIECES.charAt(promotion);
+				verboseMove += "=" + promoted;
+				prettyMove += "=" + promoted;
+				piece = blackToMove ? Character.toLowerCase(promoted) : promoted;
+				if (blackToMove) {
+					blackStrength += VALUES[promotion] - 1;
+				} else {
+					whiteStrength += VALUES[promotion] - 1;
+				}
+			}
+		}
+		board[to] = piece;
+		board[from] = '-';
+		if (capture) {
+			int value = VALUES[PIECES.indexOf(Character.toUpperCase(captured))];
+			if (blackToMove) {
+				whiteStrength -= value;
+			} else {
+				blackStrength -= value;
+			}
+		}
+		updateCastling(from);
+		updateCastling(to);
+		enPassantFile = type == 'P' && Math.abs(to - from) == 16 ? to & 7 : -1;
+		movesSinceIrreversible = type == 'P' || capture ? 0 : movesSinceIrreversible + 1;
+		int spent = random.nextInt(8000);
+		if (blackToMove) {
+			blackTime = Math.max(0, blackTime - spent) + 1000 * increment;
+			moveNumber++;
+		} else {
+			whiteTime = Math.max(0, whiteTime - spent) + 1000 * increment;
+		}
+		timeTaken = String.format("(%d:%02d.%03d)", spent / 60000, spent / 1000 % 60, spent % 1000);
+		blackToMove = !blackToMove;
+	}
+
+	private void updateCastling(int square) {
+		if (square == 60 || square == 63) {
+			castling[0] = false;
+		}
+		if (square == 60 || square == 56) {
+			castling[1] = false;
+		}
+		if (square == 4 || square == 7) {
+			castling[2] = false;
+		}
+		if (square == 4 || square == 0) {
+			castling[3] = false;
+		}
+	}
+
+	private static String getSquare(int square) {
+		return "" + (char) ('a' + (square & 7)) + (char) ('8' - (square >> 3));
+	}
+
+	private String getStyle12() {
+		StringBuilder builder = new StringBuilder(200);
+		for (int rank = 0; rank < 8; rank++) {
+			builder.append(board, 8 * rank, 8).append(' ');
+		}
+		builder.append(blackToMove ? 'B' : 'W').append(' ').append(enPassantFile);
+		for (boolean c : castling) {
+			builder.append(c ? " 1" : " 0");
+		}
+		builder.append(' ').append(movesSinceIrreversible);
+		builder.append(' ').append(id);
+		builder.append(' ').append(white);
+		builder.append(' ').append(black);
+		builder.append(" 0");
+		builder.append(' ').append(initialTime);
+		builder.append(' ').append(increment);
+		builder.append(' ').append(whiteStrength);
+		builder.append(' ').append(blackStrength);
+		builder.append(' ').append(whiteTime);
+		builder.append(' ').append(blackTime);
+		builder.append(' ').append(moveNumber);
+		builder.append(' ').append(verboseMove);
+		builder.append(' ').append(timeTaken);
+		builder.append(' ').append(prettyMove);
+		builder.append(" 0 1 ").append(random.nextInt(4) == 0 ? random.nextInt(300) : 0);
+		return builder.toString();
+	}
+}
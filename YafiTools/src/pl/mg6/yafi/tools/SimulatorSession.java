@@ -0,0 +1,425 @@
+package pl.mg6.yafi.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+final class SimulatorSession implements Runnable {
+
+	private static final String PROMPT = "fics% ";
+	private static final String STAMP = "\n[G]\n";
+	private static final String STAMP_REPLY = "\u00029";
+
+	private static final int STATE_USERNAME = 0;
+	private static final int STATE_PASSWORD = 1;
+	private static final int STATE_GUEST = 2;
+	private static final int STATE_LOGGED_ON = 3;
+
+	private static final int EVENT_MOVE = 0;
+	private static final int EVENT_SEEK = 1;
+	private static final int EVENT_CHATTER = 2;
+	private static final int EVENT_STAMP = 3;
+
+	private static final String[] SYLLABLES = { "ka", "ro", "mi", "tal", "fisch", "er", "las", "ker", "spas", "sky", "kar", "pov", "gel", "fand", "nim", "zo" };
+	private static final String[] TYPES = { "blitz", "blitz", "blitz", "lightning", "standard", "suicide", "atomic", "crazyhouse", "wild/fr", "losers" };
+	private static final String[] WORDS = { "hi", "anyone", "up", "for", "a", "game", "that", "was", "close", "nice", "blunder", "gg", "lag", "again", "thanks", "rematch" };
+	private static final int[] CHANNELS = { 1, 4, 50, 53 };
+
+	private final FicsSimulator simulator;
+	private final Socket socket;
+	private final OutputStream output;
+
+	private final Random gameRandom;
+	private final Random seekRandom;
+	private final Random chatterRandom;
+
+	private int state = STATE_USERNAME;
+	private String username;
+	private volatile boolean closed;
+
+	private final SimulatedGame[] games;
+	private int nextGameId = 1;
+	private boolean observing = true;
+
+	private final List<String> seeks = new ArrayList<String>();
+	private final List<Integer> seekIds = new ArrayList<Integer>();
+	private int nextSeekId = 1;
+	private boolean seekInfo;
+
+	private final Queue<Long> stampTimes = new ConcurrentLinkedQueue<Long>();
+
+	public SimulatorSession(FicsSimulator simulator, Socket socket, long seed) throws IOException {
+		this.simulator = simulator;
+		this.socket = socket;
+		output = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+		gameRandom = new Random(seed);
+		seekRandom = new Random(seed * 31 + 1);
+		chatterRandom = new Random(seed * 31 + 2);
+		games = new SimulatedGame[simulator.getGames()];
+		for (int i = 0; i < simulator.getSeeks(); i++) {
+			addSeek();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			send("\nWelcome to the FICS simulator.\n\nlogin: ", false);
+			flush();
+			readLines(socket.getInputStream());
+		} catch (IOException ex) {
+			// disconnected
+		} finally {
+			close();
+		}
+	}
+
+	private void readLines(InputStream input) throws IOException {
+		byte[] buffer = new byte[4096];
+		byte[] line = new byte[256];
+		int count = 0;
+		StringBuilder builder = new StringBuilder();
+		int read;
+		while ((read = input.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				byte b = buffer[i];
+				if (b != '\n') {
+					if (count == line.length) {
+						byte[] tmp = new byte[2 * line.length];
+						System.arraycopy(line, 0, tmp, 0, count);
+						line = tmp;
+					}
+					line[count++] = b;
+					continue;
+				}
+				builder.setLength(0);
+				if (TimesealDecoder.isEncoded(line, count)) {
+					TimesealDecoder.decode(line, count, builder);
+				} else {
+					for (int j = 0; j < count; j++) {
+						if (line[j] != '\r') {
+							builder.append((char) line[j]);
+						}
+					}
+				}
+				count = 0;
+				onLine(builder.toString());
+			}
+		}
+	}
+
+	private void onLine(String line) throws IOException {
+		if (line.startsWith("TIMESTAMP|") || line.startsWith("%b")) {
+			return;
+		}
+		if (STAMP_REPLY.equals(line)) {
+			Long sent = stampTimes.poll();
+			if (sent != null) {
+				simulator.recordStampReply(System.nanoTime() - sent);
+			}
+			return;
+		}
+		switch (state) {
+			case STATE_USERNAME:
+				if (line.length() == 0) {
+					return;
+				}
+				if ("guest".equalsIgnoreCase(line)) {
+					username = "Guest" + getName(gameRandom).toUpperCase();
+					state = STATE_GUEST;
+					send("\n\"guest\" is not a registered name.  You may use this name to play unrated games.\n"
+							+ "(After logging in, do \"help register\" for more info on how to register.)\n\n"
+							+ "Press return to enter the server as \"" + username + "\":\n", false);
+				} else {
+					username = line;
+					state = STATE_PASSWORD;
+					send("\npassword: ", false);
+				}
+				flush();
+				break;
+			case STATE_PASSWORD:
+			case STATE_GUEST:
+				String session = state == STATE_GUEST ? username + "(U)" : username;
+				state = STATE_LOGGED_ON;
+				send("\n**** Starting FICS session as " + session + " ****\n\nThis is a simulated server.\n", true);
+				flush();
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						runEvents();
+					}
+				}, Thread.currentThread().getName() + "-events").start();
+				break;
+			case STATE_LOGGED_ON:
+				if (line.length() > 0) {
+					simulator.commandsReceived.incrementAndGet();
+					onCommand(line.trim());
+					flush();
+				}
+				break;
+		}
+	}
+
+	private synchronized void onCommand(String command) throws IOException {
+		String[] args = command.split(" +");
+		String name = args[0];
+		if ("quit".equals(name)) {
+			send("\nLogging you out.\n", false);
+			flush();
+			close();
+		} else if ("iset".equals(name) && args.length == 3 && "seekinfo".equals(args[1])) {
+			seekInfo = "1".equals(args[2]);
+			if (seekInfo) {
+				StringBuilder builder = new StringBuilder("seekinfo set.\n<sc>\n");
+				for (String seek : seeks) {
+					builder.append(seek).append('\n');
+				}
+				send(builder.toString(), true);
+			} else {
+				send("seekinfo unset.\n", true);
+			}
+		} else if (("set".equals(name) || "iset".equals(name)) && args.length >= 2) {
+			send(args[1] + " set.\n", true);
+		} else if ("observe".equals(name) && args.length == 2) {
+			observing = true;
+			for (int i = 0; i < games.length; i++) {
+				if (games[i] == null) {
+					startGame(i);
+					return;
+				}
+			}
+			send("You are already observing the maximum number of games.\n", true);
+		} else if ("unobserve".equals(name)) {
+			observing = false;
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < games.length; i++) {
+				if (games[i] != null) {
+					builder.append("Removing game ").append(games[i].getId()).append(" from observation list.\n");
+					games[i] = null;
+				}
+			}
+			send(builder.length() > 0 ? builder.toString() : "You are not observing any games.\n", true);
+		} else {
+			send(name + ": Command not found.\n", true);
+		}
+	}
+
+	private void runEvents() {
+		PriorityQueue<Event> events = new PriorityQueue<Event>();
+		long moveInterval = simulator.getMoveInterval();
+		if (moveInterval > 0) {
+			for (int i = 0; i < games.length; i++) {
+				events.add(new Event(EVENT_MOVE, i, moveInterval * i / games.length, moveInterval));
+			}
+		}
+		if (simulator.getSeekInterval() > 0) {
+			events.add(new Event(EVENT_SEEK, 0, simulator.getSeekInterval(), simulator.getSeekInterval()));
+		}
+		if (simulator.getChatterInterval() > 0) {
+			events.add(new Event(EVENT_CHATTER, 0, simulator.getChatterInterval(), simulator.getChatterInterval()));
+		}
+		if (simulator.getStampInterval() > 0) {
+			events.add(new Event(EVENT_STAMP, 0, simulator.getStampInterval(), simulator.getStampInterval()));
+		}
+		long duration = simulator.getDuration();
+		long start = System.nanoTime();
+		long order = 0;
+		try {
+			while (!closed && !events.isEmpty()) {
+				Event event = events.poll();
+				if (duration > 0 && event.due > duration) {
+					break;
+				}
+				if (simulator.isPaced()) {
+					long wait = event.due - (System.nanoTime() - start) / 1000000L;
+					if (wait > 0) {
+						flush();
+						Thread.sleep(wait);
+					}
+				}
+				handle(event);
+				// events due at the same time keep their order, so unpaced runs stay deterministic
+				event.due += event.interval;
+				event.order = ++order;
+				events.add(event);
+			}
+			flush();
+		} catch (IOException ex) {
+			// disconnected
+		} catch (InterruptedException ex) {
+			// stopped
+		}
+		close();
+	}
+
+	private synchronized void handle(Event event) throws IOException {
+		switch (event.type) {
+			case EVENT_MOVE:
+				SimulatedGame game = games[event.index];
+				if (game == null) {
+					if (observing) {
+						startGame(event.index);
+					}
+				} else if (game.move()) {
+					simulator.movesSent.incrementAndGet();
+					send(game.getMove(), true);
+				} else {
+					send(game.getResult(), true);
+					startGame(event.index);
+				}
+				break;
+			case EVENT_SEEK:
+				if (seeks.size() < simulator.getSeeks() / 2 || (seeks.size() < 2 * simulator.getSeeks() && seekRandom.nextBoolean())) {
+					String seek = addSeek();
+					if (seekInfo) {
+						send("\n" + seek + "\n", true);
+					}
+				} else {
+					String removed = removeSeeks(1 + seekRandom.nextInt(3));
+					if (seekInfo) {
+						send("\n<sr>" + removed + "\n", true);
+					}
+				}
+				break;
+			case EVENT_CHATTER:
+				StringBuilder builder = new StringBuilder("\n");
+				builder.append(capitalize(getName(chatterRandom)));
+				builder.append('(').append(CHANNELS[chatterRandom.nextInt(CHANNELS.length)]).append("): ");
+				int words = 1 + chatterRandom.nextInt(12);
+				for (int i = 0; i < words; i++) {
+					builder.append(i > 0 ? " " : "").append(WORDS[chatterRandom.nextInt(WORDS.length)]);
+				}
+				send(builder.append('\n').toString(), true);
+				break;
+			case EVENT_STAMP:
+				stampTimes.offer(System.nanoTime());
+				simulator.stampsSent.incrementAndGet();
+				send(STAMP, false);
+				flush();
+				break;
+		}
+	}
+
+	private void startGame(int index) throws IOException {
+		SimulatedGame game = new SimulatedGame(gameRandom, nextGameId++, capitalize(getName(gameRandom)), capitalize(getName(gameRandom)));
+		games[index] = game;
+		send(game.getHeader(), true);
+	}
+
+	private String addSeek() {
+		Random random = seekRandom;
+		int id = nextSeekId++;
+		String seek = "<s> " + id
+				+ " w=" + capitalize(getName(random))
+				+ " ti=" + (random.nextInt(10) == 0 ? "02" : random.nextInt(5) == 0 ? "01" : "00")
+				+ " rt=" + random.nextInt(2600) + " PE".charAt(random.nextInt(3))
+				+ " t=" + random.nextInt(20)
+				+ " i=" + random.nextInt(15)
+				+ " r=" + (random.nextBoolean() ? 'r' : 'u')
+				+ " tp=" + TYPES[random.nextInt(TYPES.length)]
+				+ " c=" + "?WB".charAt(random.nextInt(3))
+				+ " rr=0-9999"
+				+ " a=" + (random.nextInt(4) == 0 ? 'f' : 't')
+				+ " f=" + (random.nextBoolean() ? 'f' : 't');
+		seeks.add(seek);
+		seekIds.add(id);
+		return seek;
+	}
+
+	private String removeSeeks(int count) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < count && !seeks.isEmpty(); i++) {
+			int index = seekRandom.nextInt(seeks.size());
+			builder.append(' ').append(seekIds.get(index));
+			int last = seeks.size() - 1;
+			seeks.set(index, seeks.get(last));
+			seekIds.set(index, seekIds.get(last));
+			seeks.remove(last);
+			seekIds.remove(last);
+		}
+		return builder.toString();
+	}
+
+	private static String getName(Random random) {
+		StringBuilder builder = new StringBuilder();
+		int count = 2 + random.nextInt(2);
+		for (int i = 0; i < count; i++) {
+			builder.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		return builder.toString();
+	}
+
+	private static String capitalize(String name) {
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	private synchronized void send(String text, boolean prompt) throws IOException {
+		// fics ends its lines with \n\r and every frame with a prompt
+		int length = text.length();
+		byte[] bytes = new byte[2 * length + PROMPT.length()];
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			bytes[count++] = (byte) c;
+			if (c == '\n') {
+				bytes[count++] = '\r';
+			}
+		}
+		if (prompt) {
+			for (int i = 0; i < PROMPT.length(); i++) {
+				bytes[count++] = (byte) PROMPT.charAt(i);
+			}
+			simulator.framesSent.incrementAndGet();
+		}
+		output.write(bytes, 0, count);
+		simulator.bytesSent.addAndGet(count);
+	}
+
+	private synchronized void flush() throws IOException {
+		output.flush();
+	}
+
+	private void close() {
+		closed = true;
+		try {
+			socket.close();
+		} catch (IOException ex) {
+			// ignore
+		}
+	}
+
+	private static final class Event implements Comparable<Event> {
+
+		private final int type;
+		private final int index;
+		private final long interval;
+		private long due;
+		private long order;
+
+		public Event(int type, int index, long due, long interval) {
+			this.type = type;
+			this.index = index;
+			this.due = due;
+			this.interval = interval;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			if (due != other.due) {
+				return due < other.due ? -1 : 1;
+			}
+			if (order != other.order) {
+				return order < other.order ? -1 : 1;
+			}
+			return type != other.type ? type - other.type : index - other.index;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package pl.mg6.yafi.tools;
+
+final class TimesealDecoder {
+
+	private static final byte[] about = "Timestamp (FICS) v1.0 - programmed by Henrik Gram.".getBytes();
+
+	private static final int LINE_END = 24;
+	private static final int TIMESTAMP_END = 25;
+	private static final int TRAILER = 134 & 0xFF;
+
+	private TimesealDecoder() {
+	}
+
+	public static boolean isEncoded(byte[] line, int count) {
+		return count > 0 && (line[count - 1] & 0xFF) == TRAILER && (count - 1) % 12 == 0;
+	}
+
+	// reverses TimesealProtocolImpl.encodeLine; returns the client timestamp and leaves the text in builder
+	public static long decode(byte[] line, int count, StringBuilder builder) {
+		int length = count - 1;
+		byte[] decoded = new byte[length];
+		for (int i = 0; i < length; i++) {
+			int b = (line[i] + 32) & 0xFF;
+			b ^= about[(i + 6) % about.length];
+			decoded[i] = (byte) (b & 0x7F);
+		}
+		for (int i = 0; i < length; i += 12) {
+			for (int j = 0; j < 6; j += 2) {
+				byte tmp = decoded[i + j];
+				decoded[i + j] = decoded[i + 11 - j];
+				decoded[i + 11 - j] = tmp;
+			}
+		}
+		int i = 0;
+		while (i < length && decoded[i] != LINE_END) {
+			builder.append((char) decoded[i]);
+			i++;
+		}
+		long timestamp = 0;
+		for (i++; i < length && decoded[i] != TIMESTAMP_END; i++) {
+			timestamp = 10 * timestamp + decoded[i] - '0';
+		}
+		return timestamp;
+	}
+}